@@ -0,0 +1,241 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.*;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Stand-ins for the JDA entities the bot uses, so that the tests, benchmarks, load simulator and warm-up can replay
+ * messages from thousands of guilds and users without a connection to discord. Only the methods called by the bot are
+ * answered, everything else returns null, zero or false. Messages sent by the bot are counted and then dropped. Lives
+ * in the fixtures, which are not part of the jar of the bot.
+ */
+class SyntheticDiscord implements WarmupGames.Discord {
+    /* Snowflakes of different kinds are kept apart so that no two entities share an id. Guilds are numbered in the
+    bits above the lowest 22, like the creation time of real snowflakes, so that they spread over shards. */
+    private static final long GUILD_BASE = 1L << 62;
+    private static final long CHANNEL_BASE = 2L << 40;
+    private static final long USER_BASE = 3L << 40;
+    private static final long DM_BASE = 4L << 40;
+
+    private final AtomicLong sentMessages;
+
+    SyntheticDiscord() {
+        sentMessages = new AtomicLong();
+    }
+
+    /**
+     * @return The number of messages the bot sent to channels or users so far.
+     */
+    @Override
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    /**
+     * @param n The number of the guild.
+     * @return A guild with an id depending only on n. Consecutive guilds are on consecutive shards.
+     */
+    @Override
+    public Guild guild(int n) {
+        long id = GUILD_BASE + ((long) n << 22);
+        return stub(Guild.class, (method, args) -> {
+            switch (method) {
+                case "getIdLong": return id;
+                case "getName": return "guild" + n;
+                default: return null;
+            }
+        });
+    }
+
+    /**
+     * @param guild The guild of the channel.
+     * @param n The number of the channel, unique over all guilds.
+     * @return A text channel with an id depending only on n.
+     */
+    @Override
+    public TextChannel textChannel(Guild guild, int n) {
+        long id = CHANNEL_BASE + n;
+        return stub(TextChannel.class, (method, args) -> {
+            switch (method) {
+                case "getIdLong": return id;
+                case "getName": return "channel" + n;
+                case "getType": return ChannelType.TEXT;
+                case "getGuild": return guild;
+                case "sendMessage": return sentMessage();
+                default: return null;
+            }
+        });
+    }
+
+    /**
+     * @param n The number of the user.
+     * @return A user who is not a bot, with an id depending only on n.
+     */
+    @Override
+    public User user(int n) {
+        long id = USER_BASE + n;
+        User[] user = new User[1];
+        PrivateChannel dm = stub(PrivateChannel.class, (method, args) -> {
+            switch (method) {
+                case "getIdLong": return DM_BASE + n;
+                case "getName": return "user" + n;
+                case "getType": return ChannelType.PRIVATE;
+                case "getUser": return user[0];
+                case "sendMessage": return sentMessage();
+                default: return null;
+            }
+        });
+        user[0] = stub(User.class, (method, args) -> {
+            switch (method) {
+                case "getIdLong": return id;
+                case "getName": return "user" + n;
+                case "isBot": return false;
+                case "openPrivateChannel": return completed(dm);
+                default: return null;
+            }
+        });
+        return user[0];
+    }
+
+    /**
+     * @param user A user from this class.
+     * @return The private channel between the bot and the user.
+     */
+    @Override
+    public PrivateChannel privateChannel(User user) {
+        PrivateChannel[] dm = new PrivateChannel[1];
+        user.openPrivateChannel().queue(c -> dm[0] = c);
+        return dm[0];
+    }
+
+    /**
+     * @param channel The text or private channel the message was sent in.
+     * @param author The author of the message.
+     * @param content The raw content of the message.
+     * @return The event of the message being received.
+     */
+    @Override
+    public MessageReceivedEvent event(MessageChannel channel, User author, String content) {
+        Message message = stub(Message.class, (method, args) -> {
+            switch (method) {
+                case "getIdLong": return 0L;
+                case "getContentRaw": return content;
+                case "getChannel": return channel;
+                case "getChannelType": return channel.getType();
+                case "getAuthor": return author;
+                default: return null;
+            }
+        });
+        return new SyntheticEvent(channel, author, message);
+    }
+
+    // An action which sends a message when queued, which here only means counting it
+    private MessageAction sentMessage() {
+        return stub(MessageAction.class, (method, args) -> {
+            if (method.equals("queue")) sentMessages.incrementAndGet();
+            return null;
+        });
+    }
+
+    // An action whose result is available at once, and handed to the callback when queued
+    @SuppressWarnings("unchecked")
+    private static <T> RestAction<T> completed(T result) {
+        return stub(RestAction.class, (method, args) -> {
+            if (method.equals("queue") && args != null && args.length > 0 && args[0] != null) {
+                ((Consumer<T>) args[0]).accept(result);
+            }
+            return null;
+        });
+    }
+
+    // Implements an interface by answering its methods by name, with default values for anything not answered
+    private static <T> T stub(Class<T> type, BiFunction<String, Object[], Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "toString":
+                    if (!(proxy instanceof ISnowflake)) return type.getSimpleName();
+                    return type.getSimpleName() + "(" + ((ISnowflake) proxy).getIdLong() + ")";
+                case "getId": return Long.toUnsignedString(((ISnowflake) proxy).getIdLong());
+                default:
+                    Object answer = answers.apply(method.getName(), args);
+                    return answer != null ? answer : defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        if (type == char.class) return '\0';
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return null;
+    }
+
+    /* The event reads everything from the stand-ins directly, instead of through the api, so the results do
+    not depend on how the JDA version in use derives them. */
+    private static class SyntheticEvent extends MessageReceivedEvent {
+        private final MessageChannel channel;
+        private final User author;
+        private final Message message;
+
+        SyntheticEvent(MessageChannel channel, User author, Message message) {
+            super(null, 0, message);
+            this.channel = channel;
+            this.author = author;
+            this.message = message;
+        }
+
+        @Override
+        public ChannelType getChannelType() {
+            return channel.getType();
+        }
+
+        @Override
+        public Guild getGuild() {
+            return channel instanceof TextChannel ? ((TextChannel) channel).getGuild() : null;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Message getMessage() {
+            return message;
+        }
+
+        @Override
+        public MessageChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public TextChannel getTextChannel() {
+            return channel instanceof TextChannel ? (TextChannel) channel : null;
+        }
+
+        @Override
+        public PrivateChannel getPrivateChannel() {
+            return channel instanceof PrivateChannel ? (PrivateChannel) channel : null;
+        }
+
+        @Override
+        public boolean isFromType(ChannelType type) {
+            return channel.getType() == type;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the VirtualBotManager gets messages from many guilds to their game sessions, in each dispatch
+ * mode. Every channel has a session, and the messages are ordinary chat, which is most of what a bot receives.
+ * Each invocation replays a fixed batch of messages and waits until all of them have been handled, so the other
+ * modes are not credited for merely queueing them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int EVENTS = 4096;
+    private static final int CHANNELS_PER_GUILD = 2;
+    private static final int USERS_PER_CHANNEL = 4;
+
+    @Param({"SINGLE_THREAD", "PINNED_EXECUTORS", "MAILBOXES"})
+    public DispatchMode mode;
+
+    @Param({"10", "1000", "10000"})
+    public int guilds;
+
+    private VirtualBotManager manager;
+    private MessageReceivedEvent[] events;
+
+    @Setup
+    public void setUp() {
+        SyntheticDiscord discord = new SyntheticDiscord();
+        // Sessions are never evicted during the benchmark
+        manager = new VirtualBotManager(mode, VirtualBotManager.DEFAULT_MAILBOX_CAPACITY,
+                VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, Metrics.DISABLED, Journal.DISABLED, WordIndex.EMPTY,
+                GuessLimiter.DISABLED, GameStats.DISABLED, SessionTimeouts.DISABLED);
+
+        TextChannel[] channels = new TextChannel[guilds * CHANNELS_PER_GUILD];
+        User[] users = new User[channels.length * USERS_PER_CHANNEL];
+        for (int g = 0; g < guilds; g++) {
+            Guild guild = discord.guild(g);
+            for (int c = 0; c < CHANNELS_PER_GUILD; c++) {
+                int n = g * CHANNELS_PER_GUILD + c;
+                channels[n] = discord.textChannel(guild, n);
+            }
+        }
+        for (int u = 0; u < users.length; u++) users[u] = discord.user(u);
+
+        // A reset gives each channel a session without starting a game
+        for (int c = 0; c < channels.length; c++) {
+            User author = users[c * USERS_PER_CHANNEL];
+            manager.onMessageReceived(discord.event(channels[c], author, VirtualBot.RESET_COMMAND));
+        }
+        awaitHandled();
+
+        // The same messages in the same order every run
+        Random random = new Random(42);
+        events = new MessageReceivedEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            int c = random.nextInt(channels.length);
+            User author = users[c * USERS_PER_CHANNEL + random.nextInt(USERS_PER_CHANNEL)];
+            events[i] = discord.event(channels[c], author, "message " + i + " in a conversation");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    /**
+     * Replays a batch of chat messages spread randomly over all channels.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void chat() {
+        for (MessageReceivedEvent event : events) manager.onMessageReceived(event);
+        awaitHandled();
+    }
+
+    private void awaitHandled() {
+        while (manager.hasPendingEvents()) Thread.yield();
+    }
+}
@@ -0,0 +1,71 @@
+package hangman.bot;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single game, from setup to the last guess. Guessing always follows the same order of letters, from the
+ * most to the least common in english, so that every run plays exactly the same game.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameBenchmark {
+    private static final String LETTER_ORDER = "ETAOINSHRDLCUMWFGYPBVKJXQZ";
+
+    // A word, a sentence, and a sentence as long as most players bother to type
+    @Param({"HANGMAN", "THE QUICK BROWN FOX JUMPS OVER THE LAZY DOG",
+            "IT WAS THE BEST OF TIMES IT WAS THE WORST OF TIMES " +
+                    "IT WAS THE AGE OF WISDOM IT WAS THE AGE OF FOOLISHNESS"})
+    public String sentence;
+
+    /**
+     * Only creates the game, as a baseline for the benchmarks below.
+     */
+    @Benchmark
+    public Game newGame() {
+        return new Game(sentence, Game.MAX_ALLOWED_FAILS);
+    }
+
+    /**
+     * Plays a game by guessing letters until it is over, without looking at it in between.
+     */
+    @Benchmark
+    public Game guessChar() {
+        Game game = new Game(sentence, Game.MAX_ALLOWED_FAILS);
+        for (int i = 0; i < LETTER_ORDER.length() && !game.isWon() && !game.isLost(); i++) {
+            game.guessLetter(LETTER_ORDER.charAt(i));
+        }
+        return game;
+    }
+
+    /**
+     * Plays a game as a session does, sending the state of the game after every guess.
+     */
+    @Benchmark
+    public void guessCharAndDisplay(Blackhole bh) {
+        Game game = new Game(sentence, Game.MAX_ALLOWED_FAILS);
+        bh.consume(game.displayGameState());
+        for (int i = 0; i < LETTER_ORDER.length() && !game.isWon() && !game.isLost(); i++) {
+            game.guessLetter(LETTER_ORDER.charAt(i));
+            bh.consume(game.displayGameState());
+        }
+    }
+
+    /**
+     * Plays a game by guessing wrong words until it is lost.
+     */
+    @Benchmark
+    public Game guessWord() {
+        Game game = new Game(sentence, Game.MAX_ALLOWED_FAILS);
+        for (int i = 0; !game.isLost(); i++) {
+            game.guessWord(LETTER_ORDER.substring(i, i + 2));
+        }
+        return game;
+    }
+}
@@ -0,0 +1,68 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the content of messages, which happens once for every message in a channel with a game session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsedMessageBenchmark {
+    private MessageReceivedEvent chat;
+    private MessageReceivedEvent command;
+    private MessageReceivedEvent letter;
+    private MessageReceivedEvent setup;
+
+    @Setup
+    public void setUp() {
+        SyntheticDiscord discord = new SyntheticDiscord();
+        TextChannel channel = discord.textChannel(discord.guild(0), 0);
+        User user = discord.user(0);
+        chat = discord.event(channel, user, "  did anyone see the game last night?");
+        command = discord.event(channel, user, "  !HANGMAN-start now");
+        letter = discord.event(channel, user, " e ");
+        setup = discord.event(discord.privateChannel(user), user,
+                "  7   The quick, brown fox jumps over... the lazy dog!");
+    }
+
+    /**
+     * Rejects ordinary chat as a command.
+     */
+    @Benchmark
+    public boolean chat() {
+        return ParsedMessage.parse(chat).isCommand();
+    }
+
+    /**
+     * Recognises a command.
+     */
+    @Benchmark
+    public ParsedMessage.kind command() {
+        return ParsedMessage.parse(command).getKind();
+    }
+
+    /**
+     * Reads a guess of a single letter.
+     */
+    @Benchmark
+    public int letter() {
+        return ParsedMessage.parse(letter).getUpperCaseLetter();
+    }
+
+    /**
+     * Reads setup details sent in a private message.
+     */
+    @Benchmark
+    public ParsedMessage.SetupDetails setup() {
+        return ParsedMessage.parse(setup).parseSetup();
+    }
+}
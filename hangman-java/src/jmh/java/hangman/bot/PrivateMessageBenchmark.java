@@ -0,0 +1,76 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast private messages reach the sessions waiting for setup details from their author. Every user has
+ * started games in a number of guilds, and then sends details which fail to parse, so the sessions reply and keep
+ * waiting. Each invocation sends one private message per user and waits until all sessions have handled them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrivateMessageBenchmark {
+    private static final int USERS = 64;
+
+    @Param({"SINGLE_THREAD", "PINNED_EXECUTORS", "MAILBOXES"})
+    public DispatchMode mode;
+
+    // The number of guilds each user has started a game in
+    @Param({"1", "16", "256"})
+    public int sessionsPerUser;
+
+    private VirtualBotManager manager;
+    private MessageReceivedEvent[] events;
+
+    @Setup
+    public void setUp() {
+        SyntheticDiscord discord = new SyntheticDiscord();
+        manager = new VirtualBotManager(mode, VirtualBotManager.DEFAULT_MAILBOX_CAPACITY,
+                VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, Metrics.DISABLED, Journal.DISABLED, WordIndex.EMPTY,
+                GuessLimiter.DISABLED, GameStats.DISABLED, SessionTimeouts.DISABLED);
+
+        Guild[] guilds = new Guild[sessionsPerUser];
+        for (int g = 0; g < guilds.length; g++) guilds[g] = discord.guild(g);
+
+        events = new MessageReceivedEvent[USERS];
+        for (int u = 0; u < USERS; u++) {
+            User user = discord.user(u);
+            // Each user starts a game in a channel of their own in every guild
+            for (int g = 0; g < guilds.length; g++) {
+                int channel = u * sessionsPerUser + g;
+                manager.onMessageReceived(discord.event(discord.textChannel(guilds[g], channel), user,
+                        VirtualBot.START_COMMAND));
+            }
+            events[u] = discord.event(discord.privateChannel(user), user, "not a number");
+        }
+        awaitHandled();
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    /**
+     * Sends a private message from every user, each of which fans out to all of the sessions of the user.
+     */
+    @Benchmark
+    @OperationsPerInvocation(USERS)
+    public void fanOut() {
+        for (MessageReceivedEvent event : events) manager.onMessageReceived(event);
+        awaitHandled();
+    }
+
+    private void awaitHandled() {
+        while (manager.hasPendingEvents()) Thread.yield();
+    }
+}
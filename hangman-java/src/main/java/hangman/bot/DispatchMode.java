@@ -0,0 +1,26 @@
+package hangman.bot;
+
+/**
+ * The strategies the VirtualBotManager can use to run the virtual bots. Every strategy handles the events of a
+ * single game session, which is one text channel of a guild, one at a time and in the order they were received.
+ */
+public enum DispatchMode {
+    /**
+     * All events are handled directly on the thread that received them from the api.
+     */
+    SINGLE_THREAD,
+
+    /**
+     * Each session is pinned to one of n-1 single thread executors by the id of its channel, where n is the number
+     * of logical threads. A busy channel delays every other channel pinned to the same executor, including other
+     * channels of its own guild.
+     */
+    PINNED_EXECUTORS,
+
+    /**
+     * Each session has its own serial mailbox, and all mailboxes share a work-stealing pool of n-1 threads.
+     * A mailbox only occupies a thread while it has events, so a busy channel never delays another one, even in the
+     * same guild.
+     */
+    MAILBOXES
+}
@@ -1,55 +1,55 @@
 package hangman.bot;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.text.Normalizer;
 import java.util.*;
 
 /**
  * Class used to model a hangman game. Once instantiated, the methods for guessing are used
  * to model player guesses and the state of the game, including the current drawing, are queried for
- * using various methods. The games are case-sensitive and support all UTF-8 characters.
+ * using various methods. The games support all unicode characters, including those outside the basic multilingual
+ * plane such as emoji, and a letter is found whatever its case and accents: guessing E reveals both e and É.
  */
 public class Game {
-    private static String GRAPHICS_PATH = "hangman-ascii.txt";
+    // All frames of ascii art, loaded by the Launcher before the first game
+    private static final String[] GRAPHIC_STRINGS = HangmanArt.frames();
 
-    public static int MAX_ALLOWED_FAILS;
-    private static List<String> GRAPHIC_STRINGS;
+    // The maximum number of fails possible, as a game allowing n fails needs n + 2 frames
+    public static final int MAX_ALLOWED_FAILS = GRAPHIC_STRINGS.length - 2;
 
-    // strings are stored as arrays of chars rather than strings for efficiency reasons
-    private char[] actualString;
-    private char[] displayString;
+    // Letters up to here are folded by table lookup, which covers the latin, greek and cyrillic alphabets
+    private static final int[] FOLDED = new int[0x530];
+
+    static {
+        for (int c = 0; c < FOLDED.length; c++) FOLDED[c] = computeFold(c);
+    }
+
+    /* Strings are stored as arrays of code points rather than strings, so every letter takes one element whatever
+    its size in chars. The actual string is composed (NFC), so an accented letter is one code point however it was
+    typed, and foldedString holds the folded form of each of its letters. */
+    private int[] actualString;
+    private int[] foldedString;
+    private int[] displayString;
+
+    /* Index from each folded letter of the actual string to the positions it occurs in, built once per game so
+    that a guess only touches the positions of its letter. Each slot of the table holds a letter plus one (0 if
+    empty) and the group of the letter. The positions of group g are stored in positions, from index groupStart[g]
+    up to but not including groupStart[g + 1]. */
+    private int[] indexLetters;
+    private int[] indexGroups;
+    private int[] groupStart;
+    private int[] positions;
+
+    // Number of positions in the display string that differ from the actual string. The game is won at 0.
+    private int hiddenCount;
 
     private int nrFails;
     private int failsAllowed;
-    private List<String> currentGraphicStrings;
+    private int firstGraphic; // the frame drawn before any fail
     private Set<String> guessedWords;
-    private Set<Character> guessedLetters;
+    private LetterSet guessedLetters; // folded
 
-    /* Initialize list of all graphics strings,
-    and set the default number of fails allowed to the maximum number possible */
-    static {
-        GRAPHIC_STRINGS = new ArrayList<>();
-        try {
-            InputStream is = Game.class.getClassLoader().getResourceAsStream(GRAPHICS_PATH);
-            Scanner sc = new Scanner(is);
-            int height = Integer.parseInt(sc.nextLine());
-            int length = Integer.parseInt(sc.nextLine());
-            for(int i = 0; i < length; i++) {
-                StringBuilder sb = new StringBuilder();
-                for(int j = 0; j < height; j++) {
-                    sb.append(sc.nextLine());
-                    sb.append(j == height - 1 ? "" : "\n");
-                }
-                GRAPHIC_STRINGS.add(sb.toString());
-            }
-            MAX_ALLOWED_FAILS = GRAPHIC_STRINGS.size() - 2; // max number of fails possible
-        } catch (NullPointerException e) {
-            // Catastrophic failure
-            System.out.println("Failed to find ascii art file. Exiting...");
-            System.exit(0);
-        }
-    }
+    // Keeps the game state message up to date, so it is not rebuilt from scratch after every guess
+    private GameRenderer renderer;
 
     /**
      * Initialize a game.
@@ -76,31 +76,102 @@ public class Game {
                 + "[1, " + MAX_ALLOWED_FAILS + "]");
         }
 
-        guessedLetters = new HashSet<>();
-        guessedWords = new HashSet<>();
+        // Both are listed in the order they were guessed
+        guessedLetters = new LetterSet();
+        guessedWords = new LinkedHashSet<>();
 
         nrFails = 0;
         this.failsAllowed = failsAllowed;
 
-        // If we allow n fails, we need n + 2 graphics images
-        currentGraphicStrings = GRAPHIC_STRINGS.subList(
-                GRAPHIC_STRINGS.size() - (failsAllowed + 2), GRAPHIC_STRINGS.size());
+        // If we allow n fails, we need the last n + 2 graphics images
+        firstGraphic = GRAPHIC_STRINGS.length - (failsAllowed + 2);
 
-        actualString = gameString.toCharArray();
-        displayString = new char[gameString.length()];
+        actualString = Normalizer.normalize(gameString, Normalizer.Form.NFC).codePoints().toArray();
+        foldedString = new int[actualString.length];
+        for (int i = 0; i < actualString.length; i++) foldedString[i] = fold(actualString[i]);
+        displayString = new int[actualString.length];
         Arrays.fill(displayString, '_');
+        hiddenCount = 0;
         for(int i = 0; i < actualString.length; i++) {
             if(actualString[i] == ' ') displayString[i] = ' ';
+            if(displayString[i] != actualString[i]) hiddenCount++;
         }
+        buildIndex();
+        renderer = new GameRenderer(displayString);
+    }
+
+    // Builds the index from letters to positions. Only call in initialize.
+    private void buildIndex() {
+        int n = actualString.length;
+        int capacity = Integer.highestOneBit(Math.max(n, 1)) << 2; // power of two, at least twice n
+        indexLetters = new int[capacity];
+        indexGroups = new int[capacity];
+
+        // First pass assigns a group to each distinct letter and counts its occurrences
+        int[] groupOfPosition = new int[n];
+        int[] counts = new int[n];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            int slot = findSlot(foldedString[i]);
+            if (indexLetters[slot] == 0) {
+                indexLetters[slot] = foldedString[i] + 1;
+                indexGroups[slot] = groups++;
+            }
+            groupOfPosition[i] = indexGroups[slot];
+            counts[groupOfPosition[i]]++;
+        }
+
+        // Second pass lays out the positions of each group after each other
+        groupStart = new int[groups + 1];
+        for (int g = 0; g < groups; g++) groupStart[g + 1] = groupStart[g] + counts[g];
+        positions = new int[n];
+        int[] next = Arrays.copyOf(groupStart, groups);
+        for (int i = 0; i < n; i++) positions[next[groupOfPosition[i]]++] = i;
+    }
+
+    // The slot of the folded letter in the index, or the empty slot where it would be
+    private int findSlot(int letter) {
+        int mask = indexLetters.length - 1;
+        int i = (letter * 0x9E3779B9 >>> 7) & mask;
+        while (indexLetters[i] != 0 && indexLetters[i] != letter + 1) i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * The form a letter is matched in: without accents, and in upper case. Letters whose accents are part of the
+     * letter itself, such as Ø, are kept as they are.
+     * @param codePoint The letter.
+     * @return The folded letter.
+     */
+    static int fold(int codePoint) {
+        return codePoint >= 0 && codePoint < FOLDED.length ? FOLDED[codePoint] : computeFold(codePoint);
+    }
 
+    private static int computeFold(int codePoint) {
+        int base = codePoint;
+        if (Character.isValidCodePoint(codePoint)) {
+            // The decomposition of an accented letter is the letter followed by combining marks
+            String decomposed = Normalizer.normalize(new String(Character.toChars(codePoint)), Normalizer.Form.NFD);
+            base = decomposed.codePointAt(0);
+            for (int i = Character.charCount(base); i < decomposed.length(); ) {
+                int c = decomposed.codePointAt(i);
+                if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                    base = codePoint;
+                    break;
+                }
+                i += Character.charCount(c);
+            }
+        }
+        // Through lower case, so that title case letters such as ǅ fold like their upper and lower case
+        return Character.toUpperCase(Character.toLowerCase(base));
     }
 
     /**
-     * @return All letters guessed so far as strings.
+     * @return All letters guessed so far as strings, folded.
      */
     public List<String> getGuessedLetters() {
         List<String> r = new ArrayList<>();
-        for (char c : guessedLetters) r.add(""+c);
+        for (int i = 0; i < guessedLetters.size(); i++) r.add(new String(Character.toChars(guessedLetters.get(i))));
         return r;
     }
 
@@ -117,7 +188,8 @@ public class Game {
      * @return The ascii art string.
      */
     public String getGraphicString() {
-        return currentGraphicStrings.get(nrFails);
+        // A repeated wrong word counts as two fails, which may take a lost game one past the last frame
+        return GRAPHIC_STRINGS[Math.min(firstGraphic + nrFails, GRAPHIC_STRINGS.length - 1)];
     }
 
     /**
@@ -140,7 +212,7 @@ public class Game {
      * characters of the actual string are represented as underscores ('_').
      */
     public String getDisplayString() {
-        return new String(displayString);
+        return new String(displayString, 0, displayString.length);
     }
 
     /**
@@ -148,45 +220,47 @@ public class Game {
      * in progress or over and lost.
      */
     public boolean isWon() {
-        boolean won = new String(displayString).equals(new String(actualString));
-        if(won && isLost()) {
-            throw new IllegalStateException("Internal failure: game is both lost and won");
-        }
-        return won;
+        return hiddenCount == 0;
     }
 
     /**
      * @return True if the game is over and lost, false if the game is over and won or in progress.
      */
     public boolean isLost() {
-        boolean lost = nrFails > getFailsAllowed();
-        if (lost && isWon()) {
-            throw new IllegalStateException("Internal failure: game is both lost and won");
-        }
-        return lost;
+        // A game can not be both, since no guesses are accepted once either is true
+        return nrFails > failsAllowed;
     }
 
     /**
-     * Guess for a letter. Throws an UnsupportedOperationException if the game is over.
-     * @param guess The letter to guess for.
+     * Guess for a letter, which reveals every occurrence of the letter whatever its case and accents. Throws an
+     * UnsupportedOperationException if the game is over.
+     * @param guess The code point of the letter to guess for.
      * @return true if the guess produced new letters in the display string, false otherwise.
      */
-    public boolean guessChar(char guess) throws UnsupportedOperationException {
+    public boolean guessLetter(int guess) throws UnsupportedOperationException {
         checkGameOver();
+        int letter = fold(guess);
         // If already guessed, consider it a fail
-        if(!guessedLetters.add(guess)) {
+        if(!guessedLetters.add(letter)) {
             nrFails++;
             return false;
         }
-        boolean success = false;
-        for(int i = 0; i < actualString.length; i++) {
-            if (actualString[i] == guess) {
-                displayString[i] = guess;
-                success = true;
+        renderer.addLetter(letter);
+        int slot = findSlot(letter);
+        if (indexLetters[slot] == 0) {
+            nrFails++;
+            return false;
+        }
+        int group = indexGroups[slot];
+        for (int i = groupStart[group]; i < groupStart[group + 1]; i++) {
+            int p = positions[i];
+            if (displayString[p] != actualString[p]) {
+                displayString[p] = actualString[p];
+                renderer.reveal(p, actualString[p]);
+                hiddenCount--;
             }
         }
-        nrFails += success ? 0 : 1;
-        return success;
+        return true;
     }
 
     /**
@@ -199,38 +273,41 @@ public class Game {
         // If already guessed, consider it a failure
         if(!guessedWords.add(guess)) {
             nrFails++; // Return false if already guessed
+        } else {
+            renderer.addWord(guess);
+        }
+        boolean success = matches(guess);
+        if(success) {
+            System.arraycopy(actualString, 0, displayString, 0, actualString.length);
+            renderer.revealAll(displayString);
+            hiddenCount = 0;
         }
-        boolean success = new String(actualString).equals(guess);
-        if(success) displayString = Arrays.copyOf(actualString, actualString.length);
         nrFails += success ? 0 : 1;
         return success;
     }
 
     /**
      * @return A string representation of the game to be posted in a discord chat.
-     * Contains formatting for the ascii art and the status for fixed-width font.
+     * Contains formatting for the ascii art and the status for fixed-width font. The string is cached, so
+     * calling this again without guessing in between is free.
      */
     public String displayGameState() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("`Status: ").append(formatDisplayString()).append("`\n");
-        sb.append("Guessed letters: ").append(guessedLetters).append('\n');
-        sb.append("Guessed words: ").append(guessedWords).append('\n');
-        return sb.append(getGraphicString()).toString();
-    }
-
-    /* Returns a string with spaces between underscores and characters to make length of string and
-    spaces clearly visible */
-    private String formatDisplayString() {
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < displayString.length; i++) {
-            sb.append(displayString[i]).append(' ');
+        return renderer.render(getGraphicString());
+    }
+
+    // True if the word is the actual string, whatever the case and accents of its letters
+    private boolean matches(String word) {
+        if (!Normalizer.isNormalized(word, Normalizer.Form.NFC)) word = Normalizer.normalize(word, Normalizer.Form.NFC);
+        int i = 0;
+        for (int j = 0; j < word.length(); j += Character.charCount(word.codePointAt(j))) {
+            if (i == foldedString.length || fold(word.codePointAt(j)) != foldedString[i++]) return false;
         }
-        return sb.toString();
+        return i == foldedString.length;
     }
 
     // Noone should be calling methods if game is over
     private void checkGameOver() {
-        if (isWon() || isLost()) throw new UnsupportedOperationException("Game is over!");
+        if (hiddenCount == 0 || nrFails > failsAllowed) throw new UnsupportedOperationException("Game is over!");
     }
 
 }
@@ -0,0 +1,130 @@
+package hangman.bot;
+
+/**
+ * Keeps the text of the game state message of a Game up to date as guesses are made, so that rendering the
+ * message after a guess does not serialize the whole game again. The message is held in one buffer, and each change
+ * only patches its own part: a revealed character replaces its slot in the status line, a guess is inserted at the
+ * end of its list, and a new graphic replaces the old one at the end. The lists of guessed letters and words are
+ * therefore in the order of the guesses rather than in the order of a hash set as before. The rendered message is
+ * cached until something changes. Not thread safe.
+ */
+class GameRenderer {
+    private static final String STATUS_PREFIX = "`Status: ";
+    private static final String STATUS_SUFFIX = "`\n";
+    private static final String LETTERS_PREFIX = "Guessed letters: [";
+    private static final String WORDS_PREFIX = "Guessed words: [";
+    private static final String LIST_SUFFIX = "]\n";
+    private static final String SEPARATOR = ", ";
+
+    /* The status line, the lists and the graphic, in that order. Each letter of the display string is followed by a
+    space in the status line, to make length and spaces clearly visible. */
+    private final StringBuilder message;
+
+    /* Where each letter of the display string starts in the message. Only letters outside the basic plane, such as
+    emoji, take two chars, so the letters after one move when it is revealed. */
+    private final int[] slots;
+
+    // Where the next guess of each list is inserted, before its closing bracket, and where the graphic starts
+    private int lettersEnd;
+    private int wordsEnd;
+    private int graphicStart;
+    private int letterCount;
+    private int wordCount;
+
+    // The last message rendered, and the graphic it was rendered with. Null if it is out of date.
+    private String rendered;
+    private String renderedGraphic;
+
+    /**
+     * @param displayString The initial display string of the game, as code points.
+     */
+    GameRenderer(int[] displayString) {
+        message = new StringBuilder(512).append(STATUS_PREFIX);
+        slots = new int[displayString.length];
+        for (int i = 0; i < displayString.length; i++) {
+            slots[i] = message.length();
+            message.appendCodePoint(displayString[i]).append(' ');
+        }
+        message.append(STATUS_SUFFIX).append(LETTERS_PREFIX);
+        lettersEnd = message.length();
+        message.append(LIST_SUFFIX).append(WORDS_PREFIX);
+        wordsEnd = message.length();
+        message.append(LIST_SUFFIX);
+        graphicStart = message.length();
+    }
+
+    /**
+     * Shows a character of the display string which has been revealed.
+     * @param position The position of the character in the display string.
+     * @param c The code point of the revealed character.
+     */
+    void reveal(int position, int c) {
+        int start = slots[position];
+        int oldChars = Character.charCount(message.codePointAt(start));
+        if (oldChars == 1 && !Character.isSupplementaryCodePoint(c)) {
+            message.setCharAt(start, (char) c);
+        } else {
+            message.replace(start, start + oldChars, new String(Character.toChars(c)));
+            int moved = Character.charCount(c) - oldChars;
+            for (int i = position + 1; i < slots.length; i++) slots[i] += moved;
+            lettersEnd += moved;
+            wordsEnd += moved;
+            graphicStart += moved;
+        }
+        rendered = null;
+    }
+
+    /**
+     * Shows every character of the display string.
+     * @param displayString The fully revealed display string, as code points.
+     */
+    void revealAll(int[] displayString) {
+        for (int i = 0; i < displayString.length; i++) {
+            if (message.codePointAt(slots[i]) != displayString[i]) reveal(i, displayString[i]);
+        }
+    }
+
+    /**
+     * Adds a letter to the end of the list of guessed letters.
+     * @param letter The code point of the letter.
+     */
+    void addLetter(int letter) {
+        String text = new String(Character.toChars(letter));
+        int inserted = insert(lettersEnd, letterCount++ > 0, text);
+        lettersEnd += inserted;
+        wordsEnd += inserted;
+        graphicStart += inserted;
+    }
+
+    /**
+     * Adds a word to the end of the list of guessed words.
+     * @param word The word.
+     */
+    void addWord(String word) {
+        int inserted = insert(wordsEnd, wordCount++ > 0, word);
+        wordsEnd += inserted;
+        graphicStart += inserted;
+    }
+
+    /**
+     * @param graphic The current ascii art of the game.
+     * @return The game state message, the same instance as last time if nothing has changed.
+     */
+    String render(String graphic) {
+        if (rendered != null && graphic == renderedGraphic) return rendered;
+        if (graphic != renderedGraphic) {
+            message.replace(graphicStart, message.length(), graphic);
+            renderedGraphic = graphic;
+        }
+        rendered = message.toString();
+        return rendered;
+    }
+
+    // Inserts a guess into a list at the given index, after a separator unless it is the first, and returns its size
+    private int insert(int at, boolean separated, String text) {
+        message.insert(at, text);
+        if (separated) message.insert(at, SEPARATOR);
+        rendered = null;
+        return text.length() + (separated ? SEPARATOR.length() : 0);
+    }
+}
@@ -0,0 +1,502 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.*;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static hangman.bot.GameSession.state.*;
+
+/**
+ * A game session in a single text channel of a guild. Each session runs its own state machine, so every channel of
+ * a guild can have its own game. A session is not thread safe, but the events of a session are only ever handled
+ * by one thread at a time, through its mailbox.
+ */
+class GameSession {
+
+    /* A session starts in an idle state. The setup state is used when listening for setup details from
+    the user that used the start command. The playing state is used when a game is being played in the channel. */
+    enum state {IDLE, SETUP, PLAYING}
+
+    private final long guildId;
+    private final long channelId;
+
+    // Shared by all sessions of a manager, so that setup details sent in private messages reach the right sessions
+    private final PendingSetups pendingSetups;
+
+    // Shared by all sessions of a manager, merges the messages to each channel and keeps within the rate limits
+    private final OutboundPipeline outbound;
+
+    // Shared by all sessions of a manager, saves every change of state so that games survive a restart
+    private final Journal journal;
+
+    // Shared by all sessions of a manager, the words picked for random games
+    private final WordIndex words;
+
+    // Shared by all sessions of a manager, adds up the games which ended for the stats command
+    private final GameStats stats;
+
+    // Shared by all sessions of a manager, resets sessions left waiting for setup details or guesses
+    private final SessionTimeouts timeouts;
+
+    private state currentState;
+    private Game currentGame;
+
+    // The guesses of each user in the current game, handed to the stats when it ends. Null if not playing.
+    private GameTally tally;
+
+    // Everything the journal knows about the session, so that it can be handed to another process. Null if idle.
+    private SavedSession saved;
+
+    /* The user setting up or hosting the game, and where to send messages for the user and the channel. Only ids
+    and sinks are kept, so that a session restored from the journal works the same as one started by a command.
+    Random games have no host, which is a user id of 0. */
+    private long startingUserId;
+    private String startingUserName;
+    private MessageSink startingUserSink;
+    private MessageSink gameSink;
+
+    /* The host of the game while playing, 0 for a random game and -1 while not playing. Read by the threads passing
+    events to the session, so that they can drop guesses over the limits before the guesses are queued. */
+    private volatile long playingHostId = -1;
+
+    // Time in milliseconds of the last event handled, used to find sessions which are safe to evict
+    private long lastActivity;
+
+    /* Times out the current state, on the clock of the timeouts. The timer is armed for the warning first, and for
+    the deadline once warned. It only hands the check over to the mailbox, so that the check is handled in order with
+    the events of the session. The timer is null until first armed, or if timeouts are disabled. */
+    private TimingWheel.Timer timer;
+    private Runnable timeoutHandler;
+    private long deadline;
+    private boolean warned;
+
+    // Shared by all sessions of a manager
+    private final Metrics.Counter settingUp;
+    private final Metrics.Counter playing;
+    private final Metrics.Counter gamesStarted;
+    private final Metrics.Counter gamesWon;
+    private final Metrics.Counter gamesLost;
+    private final Metrics.Counter letterGuesses;
+    private final Metrics.Counter wordGuesses;
+    private final Metrics.Counter setupTimeouts;
+    private final Metrics.Counter playingTimeouts;
+
+    GameSession(long guildId, long channelId, PendingSetups pendingSetups, OutboundPipeline outbound,
+                Metrics metrics, Journal journal, WordIndex words, GameStats stats, SessionTimeouts timeouts) {
+        currentState = IDLE;
+        this.guildId = guildId;
+        this.channelId = channelId;
+        this.pendingSetups = pendingSetups;
+        this.outbound = outbound;
+        this.journal = journal;
+        this.words = words;
+        this.stats = stats;
+        this.timeouts = timeouts;
+        lastActivity = System.currentTimeMillis();
+        settingUp = metrics.upDownCounter("hangman_sessions_by_state{state=\"setup\"}");
+        playing = metrics.upDownCounter("hangman_sessions_by_state{state=\"playing\"}");
+        gamesStarted = metrics.counter("hangman_games_started_total");
+        gamesWon = metrics.counter("hangman_games_ended_total{result=\"won\"}");
+        gamesLost = metrics.counter("hangman_games_ended_total{result=\"lost\"}");
+        letterGuesses = metrics.counter("hangman_guesses_total{kind=\"letter\"}");
+        wordGuesses = metrics.counter("hangman_guesses_total{kind=\"word\"}");
+        setupTimeouts = metrics.counter("hangman_session_timeouts_total{state=\"setup\"}");
+        playingTimeouts = metrics.counter("hangman_session_timeouts_total{state=\"playing\"}");
+    }
+
+    /**
+     * @return The id of the guild of this session.
+     */
+    long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return The id of the channel of this session.
+     */
+    long getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * Restores the session to the state saved in the journal, replaying the guesses of its game. Only call on a new
+     * session, before it handles any event.
+     * @param saved The session as read from the journal.
+     * @param sinks Where to send messages to the channel and the starting user, found by their ids.
+     * @return True if the session was restored, false if its game was already over and the session stays idle.
+     */
+    boolean restore(SavedSession saved, SinkResolver sinks) {
+        Game game = saved.isPlaying() ? saved.replay() : null;
+        if (game != null && (game.isWon() || game.isLost())) {
+            // The game ended just before the journal was last written, so its reset was lost
+            journal.reset(guildId, channelId);
+            return false;
+        }
+        this.saved = saved;
+        startingUserId = saved.userId;
+        startingUserName = saved.userName;
+        startingUserSink = saved.userId == 0 ? null : sinks.user(saved.userId);
+        gameSink = sinks.channel(channelId);
+        if (game == null) {
+            currentState = SETUP;
+            settingUp.increment();
+            pendingSetups.add(startingUserId, guildId, channelId);
+            armTimeout(timeouts.setupMillis, timeouts.setupWarningMillis);
+        } else {
+            currentGame = game;
+            currentState = PLAYING;
+            playingHostId = startingUserId;
+            playing.increment();
+            // The guesses from before the restart are not known by user, so only later guesses count
+            tally = newTally();
+            armTimeout(timeouts.playingMillis, timeouts.playingWarningMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Hands the session over to another owner: returns its state as the journal would recover it, and resets the
+     * session, which the journal records. Only call once the mailbox of the session is retired.
+     * @return The state of the session, or null if it was idle.
+     */
+    SavedSession handOff() {
+        SavedSession s = saved;
+        reset();
+        return s;
+    }
+
+    /**
+     * Sets what the timer of the session calls once it is due, which should have checkTimeouts called after the events
+     * already posted to the session. Only call before the session handles any event.
+     * @param handler Called from the thread of the timing wheel.
+     */
+    void setTimeoutHandler(Runnable handler) {
+        timeoutHandler = handler;
+    }
+
+    /**
+     * Warns the channel or the starting user if the current state is about to time out, and resets the session if it
+     * has timed out. Called through the mailbox of the session once its timer is due.
+     */
+    void checkTimeouts() {
+        if (currentState == IDLE || timer == null) return;
+        long now = timeouts.now();
+        if (now >= deadline) {
+            expire();
+            return;
+        }
+        long warning = currentState == SETUP ? timeouts.setupWarningMillis : timeouts.playingWarningMillis;
+        if (now < deadline - warning) {
+            // Due for an earlier deadline, pushed back since
+            timer.arm(deadline - warning);
+            return;
+        }
+        if (!warned) {
+            warned = true;
+            if (currentState == SETUP) {
+                messageUser("I'll cancel your game in " + describe(deadline - now)
+                        + " unless you send me the details.");
+            } else {
+                sendToGame("Nobody has guessed for a while, the game ends in " + describe(deadline - now)
+                        + " without a guess.");
+            }
+        }
+        timer.arm(deadline);
+    }
+
+    /**
+     * Tells whether a message in the channel of the session is a guess, so that the guesses over the limits can be
+     * dropped before they are queued. May be called from any thread, and then answers for the session as it is
+     * after the events it has handled so far, not those still queued.
+     * @param message A message in the text channel of the session.
+     * @return True if the session is playing and the message is a guess from anyone but the host.
+     */
+    boolean isGuess(ParsedMessage message) {
+        long host = playingHostId;
+        return host >= 0 && !message.isCommand() && !message.isEmpty()
+                && message.getEvent().getAuthor().getIdLong() != host;
+    }
+
+    /**
+     * @return The current state of the session.
+     */
+    state getState() {
+        return currentState;
+    }
+
+    /**
+     * @return The time in milliseconds at which the session last handled an event, or was created if it has not.
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Handles an event from the channel of this session, or a private message from the user setting up its game.
+     * @param message The parsed MessageReceivedEvent we want this session to handle.
+     */
+    void handleMessageEvent(ParsedMessage message) {
+        lastActivity = System.currentTimeMillis();
+        MessageReceivedEvent event = message.getEvent();
+
+        // At any time, the session can be reset, either through DM or its text channel.
+        if (message.getKind() == ParsedMessage.kind.RESET) {
+            outbound.send(event.getChannel(), "I've been reset!");
+            reset();
+            return;
+        }
+
+        // The stats of the guild are given in any of its channels, whatever the state of the session
+        if (message.getKind() == ParsedMessage.kind.STATS) {
+            if (event.getChannelType() == ChannelType.TEXT) outbound.send(event.getChannel(), stats.describe(guildId));
+            return;
+        }
+
+        switch (currentState) {
+            case IDLE:
+                handleStart(message);
+                break;
+            case SETUP:
+                handleSetup(message);
+                break;
+            case PLAYING:
+                handlePlaying(message);
+                break;
+        }
+
+    }
+
+    // Resets all state of the session, effectively returning to its starting state after construction
+    private void reset() {
+        if (timer != null) timer.cancel();
+        if (currentState == SETUP) {
+            pendingSetups.remove(startingUserId, guildId, channelId);
+            settingUp.decrement();
+        } else if (currentState == PLAYING) {
+            playing.decrement();
+        }
+        if (currentState != IDLE) journal.reset(guildId, channelId);
+        currentGame = null;
+        tally = null;
+        saved = null;
+        startingUserId = 0;
+        startingUserName = null;
+        startingUserSink = null;
+        currentState = IDLE;
+        playingHostId = -1;
+        gameSink = null;
+    }
+
+    private void handlePlaying(ParsedMessage message) {
+        MessageReceivedEvent event = message.getEvent();
+        if(event.getChannel().getIdLong() == channelId) {
+            User author = event.getAuthor();
+            if (author.getIdLong() == startingUserId) {
+                sendToGame("No cheating, " + startingUserName + "! :angry:");
+                return;
+            }
+            // Messages without text, such as attachments, are not guesses
+            if (message.isEmpty()) return;
+            int letter = message.getUpperCaseLetter();
+            if (letter >= 0) {
+                boolean revealed = currentGame.guessLetter(letter);
+                if (tally != null) tally.guessed(author.getIdLong(), author.getName(), revealed);
+                journal.guessedLetter(guildId, channelId, letter);
+                saved.guessLetter(letter);
+                letterGuesses.increment();
+                sendToGame("You guessed: " + new String(Character.toChars(letter)));
+            } else {
+                String guess = message.upperCase();
+                boolean solved = currentGame.guessWord(guess);
+                if (tally != null) {
+                    tally.guessed(author.getIdLong(), author.getName(), false);
+                    if (solved) tally.solvedBy(author.getIdLong());
+                }
+                journal.guessedWord(guildId, channelId, guess);
+                saved.guessWord(guess);
+                wordGuesses.increment();
+                sendToGame("You guessed: " + guess);
+            }
+            sendStateToGame(currentGame.displayGameState());
+            if (currentGame.isWon() || currentGame.isLost()) {
+                sendToGame(currentGame.isWon() ? "Game won!" : "Game lost!");
+                (currentGame.isWon() ? gamesWon : gamesLost).increment();
+                if (tally != null) {
+                    tally.ended(currentGame.isWon());
+                    stats.ended(tally);
+                }
+                reset();
+            } else {
+                armTimeout(timeouts.playingMillis, timeouts.playingWarningMillis);
+            }
+        }
+    }
+
+    private void handleStart(ParsedMessage message) {
+        if (message.getKind() != ParsedMessage.kind.START) return;
+        MessageReceivedEvent event = message.getEvent();
+        ParsedMessage.StartDetails details = message.parseStart();
+        if (details.random) {
+            startRandom(event, details);
+            return;
+        }
+
+        if (!pendingSetups.isReachable()) {
+            outbound.send(channelId, MessageSink.of(event.getTextChannel()), "I can't receive the details of a game "
+                    + "by private message for this server, so only games with a random word can be started here. "
+                    + "Send " + VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM + " to start one.", false);
+            return;
+        }
+
+        User author = event.getAuthor();
+        startingUserId = author.getIdLong();
+        startingUserName = author.getName();
+        startingUserSink = MessageSink.of(author);
+        gameSink = MessageSink.of(event.getTextChannel());
+        currentState = SETUP;
+        settingUp.increment();
+        pendingSetups.add(startingUserId, guildId, channelId);
+        journal.started(guildId, channelId, startingUserId, startingUserName);
+        saved = new SavedSession(guildId, channelId, startingUserId, startingUserName);
+        armTimeout(timeouts.setupMillis, timeouts.setupWarningMillis);
+
+        String privateMessage = "Please respond with a single number in the range 1 to " +
+                Game.MAX_ALLOWED_FAILS + " of allowed fails followed by a space and a word or sentence to guess.";
+
+        sendToGame("Let's go! Send me a private message with the details, " + startingUserName + ".");
+        messageUser(privateMessage);
+    }
+
+    // Starts a game with a word picked by the bot, which everyone may guess. Stays idle if no word matches.
+    private void startRandom(MessageReceivedEvent event, ParsedMessage.StartDetails details) {
+        MessageSink channel = MessageSink.of(event.getTextChannel());
+        if (details.length < 0) {
+            outbound.send(channelId, channel, "The length of the word must be a number in the range 1 to "
+                    + WordIndex.MAX_WORD_LENGTH + ".", false);
+            return;
+        }
+        String word = words.pick(details.length, details.category, ThreadLocalRandom.current());
+        if (word == null) {
+            String categories = words.getCategories().isEmpty() ? "none" : String.join(", ", words.getCategories());
+            outbound.send(channelId, channel, "I don't know any such word. Categories: " + categories + ".", false);
+            return;
+        }
+
+        String sentence = word.toUpperCase();
+        gameSink = channel;
+        currentGame = new Game(sentence, Game.MAX_ALLOWED_FAILS);
+        tally = newTally();
+        journal.started(guildId, channelId, 0, "");
+        journal.setUp(guildId, channelId, Game.MAX_ALLOWED_FAILS, sentence);
+        saved = new SavedSession(guildId, channelId, 0, "");
+        saved.setUp(sentence, Game.MAX_ALLOWED_FAILS);
+        currentState = PLAYING;
+        playingHostId = 0;
+        playing.increment();
+        gamesStarted.increment();
+        armTimeout(timeouts.playingMillis, timeouts.playingWarningMillis);
+        sendToGame("I picked a word, everyone can guess! Game starting...");
+        sendStateToGame(currentGame.displayGameState());
+    }
+
+    private void handleSetup(ParsedMessage message) {
+        MessageReceivedEvent event = message.getEvent();
+        if (!(event.getChannelType() == ChannelType.PRIVATE
+                && event.getAuthor().getIdLong() == startingUserId)) return;
+
+        boolean success = true;
+
+        String errorMessage = "Failed to read your message. ";
+        ParsedMessage.SetupDetails details = message.parseSetup();
+
+        int fails = details.fails;
+        String guessingSentence = details.sentence;
+
+        if (!(1 <= fails && fails <= Game.MAX_ALLOWED_FAILS)) {
+            success = false;
+            errorMessage += "Start with a number in the range 1 to " + Game.MAX_ALLOWED_FAILS + ". ";
+        }
+
+        if (guessingSentence == null) {
+            success = false;
+            errorMessage += "Failed to identify a guessing sentence or word. ";
+        }
+
+        // If setup successful, start game. Else, remain in the setup state with the same user and inform that user.
+        if(success) {
+            currentGame = new Game(guessingSentence, fails);
+            tally = newTally();
+            journal.setUp(guildId, channelId, fails, guessingSentence);
+            saved.setUp(guessingSentence, fails);
+            currentState = PLAYING;
+            playingHostId = startingUserId;
+            settingUp.decrement();
+            playing.increment();
+            gamesStarted.increment();
+            pendingSetups.remove(startingUserId, guildId, channelId);
+            armTimeout(timeouts.playingMillis, timeouts.playingWarningMillis);
+            sendToGame("Setup complete, game starting...");
+            sendStateToGame(currentGame.displayGameState());
+        } else {
+            messageUser(errorMessage);
+        }
+
+    }
+
+    /* Times out the current state after the given time, replacing any earlier timeout. Pushing back the timer of a
+    game on each guess only writes its new time, the wheel moves it once its old time comes. */
+    private void armTimeout(long millis, long warningMillis) {
+        if (!timeouts.isEnabled()) return;
+        if (timer == null) timer = timeouts.newTimer(this::timerDue);
+        deadline = timeouts.now() + millis;
+        warned = false;
+        timer.arm(deadline - warningMillis);
+    }
+
+    // Called by the timer from the thread of the wheel, so it only hands the check over
+    private void timerDue() {
+        Runnable handler = timeoutHandler;
+        if (handler != null) handler.run();
+    }
+
+    // Resets a session which waited too long for setup details or a guess. Timed out games count in no stats.
+    private void expire() {
+        if (currentState == SETUP) {
+            setupTimeouts.increment();
+            messageUser("You took too long to send me the details, so I cancelled your game.");
+            sendToGame("The game was cancelled, " + startingUserName + " took too long to set it up.");
+        } else {
+            playingTimeouts.increment();
+            sendToGame("Nobody has guessed for " + describe(timeouts.playingMillis) + ", game over! The answer was: "
+                    + saved.getSentence());
+        }
+        reset();
+    }
+
+    // A time as a whole number of minutes, or of seconds if shorter than a minute
+    private static String describe(long millis) {
+        long seconds = (millis + 999) / 1000;
+        if (seconds < 60) return seconds + (seconds == 1 ? " second" : " seconds");
+        long minutes = (seconds + 30) / 60;
+        return minutes + (minutes == 1 ? " minute" : " minutes");
+    }
+
+    // A tally for a new game, or null if the stats count nothing
+    private GameTally newTally() {
+        return stats.isEnabled() ? new GameTally(guildId) : null;
+    }
+
+    // Send a private message to the starting user without response handling
+    private void messageUser(String message) {
+        startingUserSink.send(message);
+    }
+
+    private void sendToGame(String message) {
+        outbound.send(channelId, gameSink, message, false);
+    }
+
+    private void sendStateToGame(String state) {
+        outbound.send(channelId, gameSink, state, true);
+    }
+}
@@ -0,0 +1,440 @@
+package hangman.bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The games, wins, losses, guesses and correct letters of every user in every guild, and of every guild as a whole,
+ * which the stats command reports. A user plays a game by guessing in it, and wins it if the game is won after the
+ * user guessed a letter in the sentence or the whole sentence, so that only guessing wrong does not win games.
+ *
+ * A session counts the guesses of a game in its own GameTally and only hands it over once the game ends, by adding
+ * it to a queue, so guessing never waits for the stats. Every few seconds a background thread takes the ended games
+ * off the queue, adds them up, updates the ranking of the best guessers of each guild, and appends the totals which
+ * changed to the store, in one batch. The stats command only reads the ranking, never the store. Thread safe.
+ *
+ * The store is a file of records, each holding the totals of a user in a guild, or of a guild. A record replaces
+ * the earlier records of the same user and guild, so the store is rewritten with only the latest records when it
+ * is opened, and whenever most of its records have been replaced.
+ */
+class GameStats {
+    /**
+     * Stats which count nothing.
+     */
+    static final GameStats DISABLED = new GameStats();
+
+    // The number of users ranked in each guild
+    static final int TOP = 10;
+
+    static final long DEFAULT_FLUSH_MILLIS = 5000;
+
+    // The name of the thread adding up ended games
+    static final String THREAD = "hangman-stats";
+
+    // Every store starts with this, "HGS1"
+    private static final int MAGIC = 0x48475331;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final ConcurrentLinkedQueue<GameTally> ended; // null if disabled
+    private final StripedLongMap<GuildStats> guilds;
+    private final Path file; // null if the stats are only kept in memory
+    private final Metrics.Histogram flushLatency;
+    private final ScheduledExecutorService flusher;
+
+    // Only used while holding the lock of the stats
+    private DataOutputStream out; // null if not writing to the store
+    private long records; // in the store
+    private long live; // distinct users and guilds, the records left after rewriting the store
+    private boolean closed;
+
+    private GameStats() {
+        ended = null;
+        guilds = null;
+        file = null;
+        flushLatency = Metrics.DISABLED.histogram("");
+        flusher = null;
+        closed = true;
+    }
+
+    /**
+     * Creates stats which are only kept in memory, and are lost when the bot stops.
+     * @param metrics Where to record how long adding up ended games takes.
+     */
+    GameStats(Metrics metrics) {
+        this(null, DEFAULT_FLUSH_MILLIS, metrics);
+    }
+
+    private GameStats(Path file, long flushMillis, Metrics metrics) {
+        if (flushMillis < 1) throw new IllegalArgumentException("flushMillis must be positive");
+        this.file = file;
+        ended = new ConcurrentLinkedQueue<>();
+        guilds = new StripedLongMap<>();
+        flushLatency = metrics.histogram("hangman_stats_flush_seconds");
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, THREAD);
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the stats kept in a store file with the default flush interval, creating the file if needed.
+     * @param file The store.
+     * @param metrics Where to record how long adding up ended games takes.
+     * @return The stats read from the store, ready to count more games.
+     * @throws IOException If the store can not be read or rewritten.
+     */
+    static GameStats open(Path file, Metrics metrics) throws IOException {
+        return open(file, DEFAULT_FLUSH_MILLIS, metrics);
+    }
+
+    /**
+     * Opens the stats kept in a store file, creating the file if needed.
+     * @param file The store.
+     * @param flushMillis How often in milliseconds ended games are added up and written to the store.
+     * @param metrics Where to record how long adding up ended games takes.
+     * @return The stats read from the store, ready to count more games.
+     * @throws IOException If the store can not be read or rewritten.
+     */
+    static GameStats open(Path file, long flushMillis, Metrics metrics) throws IOException {
+        GameStats stats = new GameStats(file, flushMillis, metrics);
+        try {
+            synchronized (stats) {
+                stats.load();
+                // Also drops a record cut short when the bot last stopped, which later records would follow
+                stats.rewrite();
+            }
+        } catch (IOException e) {
+            stats.flusher.shutdown();
+            throw e;
+        }
+        return stats;
+    }
+
+    /**
+     * @return True if the stats count games.
+     */
+    boolean isEnabled() {
+        return ended != null;
+    }
+
+    /**
+     * Counts a game which has ended, in the next batch. Never waits.
+     * @param tally The guesses of the game, which must not be changed afterwards.
+     */
+    void ended(GameTally tally) {
+        if (ended != null && tally.size() > 0) ended.add(tally);
+    }
+
+    /**
+     * Describes the stats of a guild as the answer to the stats command: its games, and its best guessers ranked
+     * by games won, then by correct letters. Games which ended since the last batch are not counted yet.
+     * @param guildId The id of the guild.
+     * @return The answer to send.
+     */
+    String describe(long guildId) {
+        GuildStats g = guilds == null ? null : guilds.get(guildId);
+        // A guild is published at the end of the batch it was added in
+        Tally total = g == null ? null : g.summary;
+        if (total == null) return "No games have been played to the end in this server yet.";
+        Tally[] top = g.top;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Stats of this server: ").append(total.games).append(total.games == 1 ? " game, " : " games, ")
+                .append(total.wins).append(" won and ").append(total.losses).append(" lost, ")
+                .append(perGame(total)).append(" guesses per game.\nBest guessers:");
+        for (int i = 0; i < top.length; i++) {
+            Tally t = top[i];
+            sb.append('\n').append(i + 1).append(". ").append(t.name).append(": won ").append(t.wins)
+                    .append(" and lost ").append(t.losses).append(" of ").append(t.games).append(" games, ")
+                    .append(t.letters).append(" correct letters, ").append(perGame(t)).append(" guesses per game");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds up the games which ended since the last batch, and appends the totals which changed to the store.
+     * Called every flush interval by a background thread.
+     */
+    synchronized void flush() {
+        if (ended == null) return;
+        long start = flushLatency.start();
+        try {
+            List<Tally> changed = new ArrayList<>();
+            List<GuildStats> changedGuilds = new ArrayList<>();
+            for (GameTally game; (game = ended.poll()) != null; ) add(game, changed, changedGuilds);
+            for (GuildStats g : changedGuilds) g.publish();
+            if (out != null && !changed.isEmpty()) write(changed);
+            for (Tally t : changed) t.changed = false;
+        } catch (RuntimeException e) {
+            // Thrown out of the flusher it would stop all later batches
+            System.out.println("Failed to add up stats: " + e);
+        } finally {
+            flushLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Adds up the games still waiting, writes them to the store and closes it. Games ending afterwards are not
+     * counted.
+     */
+    void close() {
+        if (flusher == null) return;
+        flusher.shutdown();
+        flush();
+        synchronized (this) {
+            closed = true;
+            closeStore();
+        }
+    }
+
+    private void add(GameTally game, List<Tally> changed, List<GuildStats> changedGuilds) {
+        GuildStats g = guilds.computeIfAbsent(game.guildId, GuildStats::new);
+        if (!g.changed) {
+            g.changed = true;
+            changedGuilds.add(g);
+        }
+        boolean won = game.isWon();
+        long[] sums = new long[2];
+        game.forEachUser((userId, userName, guesses, letters, helped) -> {
+            Tally u = g.users.get(userId);
+            if (u == null) {
+                u = new Tally(g.guildId, userId);
+                g.users.put(userId, u);
+                live++;
+            }
+            u.name = userName;
+            u.add(won && helped, !won, guesses, letters);
+            g.touched(u);
+            if (!u.changed) {
+                u.changed = true;
+                changed.add(u);
+            }
+            sums[0] += guesses;
+            sums[1] += letters;
+        });
+        if (g.total.games == 0) live++;
+        g.total.add(won, !won, sums[0], sums[1]);
+        if (!g.total.changed) {
+            g.total.changed = true;
+            changed.add(g.total);
+        }
+    }
+
+    // Appends the tallies, and rewrites the store instead once most of its records are stale
+    private void write(List<Tally> changed) {
+        try {
+            if (records + changed.size() > 2 * live + 1024) {
+                rewrite();
+            } else {
+                for (Tally t : changed) write(out, t);
+                out.flush();
+                records += changed.size();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write stats to " + file + ", only keeping them in memory: " + e.getMessage());
+            closeStore();
+        }
+    }
+
+    // Reads the store into memory, up to the first record cut short
+    private void load() throws IOException {
+        InputStream is;
+        try {
+            is = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a stats store");
+            while (true) {
+                long guildId = in.readLong();
+                long userId = in.readLong();
+                Tally t = new Tally(guildId, userId);
+                t.games = in.readInt();
+                t.wins = in.readInt();
+                t.losses = in.readInt();
+                t.guesses = in.readLong();
+                t.letters = in.readLong();
+                t.name = in.readUTF();
+                GuildStats g = guilds.computeIfAbsent(guildId, GuildStats::new);
+                if (userId == 0) {
+                    g.total.set(t);
+                } else {
+                    g.users.put(userId, t);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the store, or a record cut short
+        }
+        live = 0;
+        guilds.forEachValue(g -> {
+            live += 1 + g.users.size();
+            g.rank();
+            g.publish();
+        });
+    }
+
+    // Replaces the store with one holding only the latest records, and keeps appending to it
+    private void rewrite() throws IOException {
+        closeStore();
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        long[] written = {0};
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            o.writeInt(MAGIC);
+            IOException[] failure = {null};
+            guilds.forEachValue(g -> {
+                if (failure[0] != null) return;
+                try {
+                    write(o, g.total);
+                    for (Tally u : g.users.values()) write(o, u);
+                    written[0] += 1 + g.users.size();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = written[0];
+        if (!closed) {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+        }
+    }
+
+    private static void write(DataOutputStream o, Tally t) throws IOException {
+        o.writeLong(t.guildId);
+        o.writeLong(t.userId);
+        o.writeInt(t.games);
+        o.writeInt(t.wins);
+        o.writeInt(t.losses);
+        o.writeLong(t.guesses);
+        o.writeLong(t.letters);
+        o.writeUTF(t.name);
+    }
+
+    private void closeStore() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the stats store: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    private static String perGame(Tally t) {
+        return String.format(Locale.ROOT, "%.1f", t.games == 0 ? 0.0 : (double) t.guesses / t.games);
+    }
+
+    /* The totals of a user in a guild, or of the guild itself with a user id of 0. Changed only while holding the
+    lock of the stats, and copied for the stats command. */
+    private static final class Tally {
+        final long guildId;
+        final long userId;
+        String name = "";
+        int games;
+        int wins;
+        int losses;
+        long guesses;
+        long letters;
+        boolean changed; // since the store was last written
+
+        Tally(long guildId, long userId) {
+            this.guildId = guildId;
+            this.userId = userId;
+        }
+
+        void add(boolean won, boolean lost, long guesses, long letters) {
+            games++;
+            if (won) wins++;
+            if (lost) losses++;
+            this.guesses += guesses;
+            this.letters += letters;
+        }
+
+        void set(Tally t) {
+            name = t.name;
+            games = t.games;
+            wins = t.wins;
+            losses = t.losses;
+            guesses = t.guesses;
+            letters = t.letters;
+        }
+
+        // True if this ranks above the other: more wins, then more correct letters
+        boolean beats(Tally other) {
+            if (wins != other.wins) return wins > other.wins;
+            if (letters != other.letters) return letters > other.letters;
+            return userId < other.userId;
+        }
+
+        Tally copy() {
+            Tally t = new Tally(guildId, userId);
+            t.set(this);
+            return t;
+        }
+    }
+
+    /* The totals of a guild and its users. The ranking only changes when the totals of a user go up, so the users
+    who may enter it are exactly those whose totals changed, and it is kept up to date without looking at the
+    others. What the stats command reads is published as copies. */
+    private static final class GuildStats {
+        final long guildId;
+        final Tally total;
+        final Map<Long, Tally> users = new HashMap<>();
+        final List<Tally> ranked = new ArrayList<>(TOP + 1);
+        boolean changed; // in the current batch
+
+        volatile Tally summary;
+        volatile Tally[] top;
+
+        GuildStats(long guildId) {
+            this.guildId = guildId;
+            total = new Tally(guildId, 0);
+        }
+
+        // Moves a user whose totals went up to its place in the ranking, if it has one
+        void touched(Tally u) {
+            ranked.remove(u);
+            int i = ranked.size();
+            while (i > 0 && u.beats(ranked.get(i - 1))) i--;
+            if (i < TOP) ranked.add(i, u);
+            if (ranked.size() > TOP) ranked.remove(TOP);
+        }
+
+        // Ranks all users from scratch
+        void rank() {
+            ranked.clear();
+            for (Tally u : users.values()) touched(u);
+        }
+
+        void publish() {
+            Tally[] copies = new Tally[ranked.size()];
+            for (int i = 0; i < copies.length; i++) copies[i] = ranked.get(i).copy();
+            top = copies;
+            summary = total.copy();
+            changed = false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package hangman.bot;
+
+/**
+ * What each user guessed in a single game, kept by the session of the game while it is played and handed to the
+ * GameStats once it ends. Only the session touches it until then, so counting a guess takes no lock and shares no
+ * memory with other sessions. Not thread safe.
+ */
+class GameTally {
+    private static final int INITIAL_CAPACITY = 8;
+
+    final long guildId;
+
+    // The users who guessed, in an open addressing table keyed by user id, where a null name marks an empty slot
+    private long[] users;
+    private String[] names;
+    private int[] guesses;
+    private int[] letters; // guesses of a letter which revealed it
+    private int size;
+
+    private boolean won;
+    private boolean solved;
+    private long solver; // the user who guessed the whole sentence, if solved
+
+    /**
+     * @param guildId The id of the guild the game is played in.
+     */
+    GameTally(long guildId) {
+        this.guildId = guildId;
+        users = new long[INITIAL_CAPACITY];
+        names = new String[INITIAL_CAPACITY];
+        guesses = new int[INITIAL_CAPACITY];
+        letters = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Counts a guess.
+     * @param userId The id of the user guessing.
+     * @param userName The name of the user guessing, kept from their first guess of the game.
+     * @param correctLetter True if the guess was for a letter which revealed part of the sentence.
+     */
+    void guessed(long userId, String userName, boolean correctLetter) {
+        int i = slot(userId);
+        if (names[i] == null) {
+            users[i] = userId;
+            names[i] = userName == null ? "" : userName;
+            if (++size > (users.length >> 1) + (users.length >> 2)) {
+                grow();
+                i = slot(userId);
+            }
+        }
+        guesses[i]++;
+        if (correctLetter) letters[i]++;
+    }
+
+    /**
+     * Records that a user guessed the whole sentence, after counting the guess.
+     * @param userId The id of the user.
+     */
+    void solvedBy(long userId) {
+        solved = true;
+        solver = userId;
+    }
+
+    /**
+     * Marks the game as over.
+     * @param won True if the game was won, false if it was lost.
+     */
+    void ended(boolean won) {
+        this.won = won;
+    }
+
+    /**
+     * @return True if the game was won, only valid once it has ended.
+     */
+    boolean isWon() {
+        return won;
+    }
+
+    /**
+     * @return The number of users who guessed.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visits every user who guessed.
+     * @param visitor Called once per user.
+     */
+    void forEachUser(UserVisitor visitor) {
+        for (int i = 0; i < users.length; i++) {
+            if (names[i] == null) continue;
+            boolean helped = letters[i] > 0 || (solved && solver == users[i]);
+            visitor.visit(users[i], names[i], guesses[i], letters[i], helped);
+        }
+    }
+
+    /**
+     * Receives the guesses of one user.
+     */
+    interface UserVisitor {
+        /**
+         * @param userId The id of the user.
+         * @param userName The name of the user.
+         * @param guesses The number of guesses of the user.
+         * @param correctLetters The number of guesses of the user for a letter which revealed it.
+         * @param helped True if the user guessed a letter which revealed it, or the whole sentence.
+         */
+        void visit(long userId, String userName, int guesses, int correctLetters, boolean helped);
+    }
+
+    // The slot of the user, or the empty slot where it would be
+    private int slot(long userId) {
+        int mask = users.length - 1;
+        int i = StripedLongMap.hash(userId) & mask;
+        while (names[i] != null && users[i] != userId) i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldUsers = users;
+        String[] oldNames = names;
+        int[] oldGuesses = guesses;
+        int[] oldLetters = letters;
+        int capacity = oldUsers.length << 1;
+        users = new long[capacity];
+        names = new String[capacity];
+        guesses = new int[capacity];
+        letters = new int[capacity];
+        for (int j = 0; j < oldUsers.length; j++) {
+            if (oldNames[j] == null) continue;
+            int i = slot(oldUsers[j]);
+            users[i] = oldUsers[j];
+            names[i] = oldNames[j];
+            guesses[i] = oldGuesses[j];
+            letters[i] = oldLetters[j];
+        }
+    }
+}
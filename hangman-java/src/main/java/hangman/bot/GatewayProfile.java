@@ -0,0 +1,66 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * The events the bot asks discord to send it, and what JDA keeps in memory about the guilds of the bot. The bot
+ * only reads messages in text channels and private messages, looks up text channels by id to reply, and finds the
+ * sessions waiting for setup details through its own PendingSetups, so it needs neither members, presences, voice
+ * states nor emotes.
+ */
+enum GatewayProfile {
+    /**
+     * Only the events of messages in text channels and private messages, and no cache of members, presences, voice
+     * states or emotes. JDA still keeps the guilds and channels of the bot, as well as its own member.
+     */
+    LEAN {
+        @Override
+        DefaultShardManagerBuilder builder(String token) {
+            return DefaultShardManagerBuilder.create(token, LEAN_INTENTS)
+                    .disableCache(EnumSet.allOf(CacheFlag.class))
+                    .setMemberCachePolicy(MemberCachePolicy.NONE)
+                    .setChunkingFilter(ChunkingFilter.NONE);
+        }
+    },
+
+    /**
+     * The defaults of JDA, which receive and cache much more than the bot uses. Kept to compare memory use and the
+     * number of events received with the lean profile.
+     */
+    DEFAULT {
+        @Override
+        DefaultShardManagerBuilder builder(String token) {
+            return DefaultShardManagerBuilder.createDefault(token);
+        }
+    };
+
+    private static final EnumSet<GatewayIntent> LEAN_INTENTS =
+            EnumSet.of(GatewayIntent.GUILD_MESSAGES, GatewayIntent.DIRECT_MESSAGES);
+
+    /**
+     * @param name The name of a profile in any case, such as default, or null or empty for the lean profile.
+     * @return The profile of the name, or the lean profile if there is none of that name.
+     */
+    static GatewayProfile named(String name) {
+        if (name == null || name.isEmpty()) return LEAN;
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown gateway profile " + name + ", using the lean one");
+            return LEAN;
+        }
+    }
+
+    /**
+     * @param token The token of the bot.
+     * @return A builder of the shard manager, configured with the intents and caches of the profile.
+     */
+    abstract DefaultShardManagerBuilder builder(String token);
+}
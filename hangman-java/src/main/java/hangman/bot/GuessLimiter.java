@@ -0,0 +1,180 @@
+package hangman.bot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits how fast each user, and each guild as a whole, may send guesses, so that a single user can not flood a
+ * channel with guesses and the replies to them. Each user and guild has a token bucket: every guess takes a token,
+ * a full bucket holds burst tokens, and one token comes back every refill interval. Guesses finding an empty bucket
+ * are dropped. Lock free and thread safe.
+ *
+ * A bucket is stored as a single long, the time at which it will be full again, so a guess updates it with a single
+ * compare and set. The buckets live in fixed size tables which only have to hold the buckets that are not full: a
+ * full bucket is the same as no bucket, so its slot is taken over by the next key which needs one. Memory therefore
+ * depends on the size of the tables and not on the number of users. Should every slot a key may use hold a bucket
+ * which is not full, the key is let through rather than delayed.
+ */
+class GuessLimiter {
+    /**
+     * A limiter which lets every guess through.
+     */
+    static final GuessLimiter DISABLED = new GuessLimiter();
+
+    // A user may guess 5 times in quick succession, then once a second
+    static final int DEFAULT_USER_BURST = 5;
+    static final long DEFAULT_USER_REFILL_MILLIS = 1000;
+
+    // All users of a guild together may guess 30 times in quick succession, then 10 times a second
+    static final int DEFAULT_GUILD_BURST = 30;
+    static final long DEFAULT_GUILD_REFILL_MILLIS = 100;
+
+    // Enough for every user guessing within the last few seconds in a large number of guilds
+    private static final int USER_SLOTS = 1 << 16;
+    private static final int GUILD_SLOTS = 1 << 12;
+
+    private final Buckets users; // null if disabled
+    private final Buckets guilds;
+    private final long origin;
+
+    private final Metrics.Counter limitedUsers;
+    private final Metrics.Counter limitedGuilds;
+    private final Metrics.Counter overflows;
+
+    private GuessLimiter() {
+        users = null;
+        guilds = null;
+        origin = 0;
+        limitedUsers = Metrics.DISABLED.counter("");
+        limitedGuilds = limitedUsers;
+        overflows = limitedUsers;
+    }
+
+    /**
+     * Creates a limiter with the default limits, which records its metrics in the given registry.
+     * @param metrics Where to count dropped guesses.
+     */
+    GuessLimiter(Metrics metrics) {
+        this(DEFAULT_USER_BURST, DEFAULT_USER_REFILL_MILLIS, DEFAULT_GUILD_BURST, DEFAULT_GUILD_REFILL_MILLIS, metrics);
+    }
+
+    /**
+     * @param userBurst The maximum number of guesses a user may send in quick succession.
+     * @param userRefillMillis How long it takes a user to earn back one guess.
+     * @param guildBurst The maximum number of guesses all users of a guild may send in quick succession.
+     * @param guildRefillMillis How long it takes a guild to earn back one guess.
+     * @param metrics Where to count dropped guesses.
+     */
+    GuessLimiter(int userBurst, long userRefillMillis, int guildBurst, long guildRefillMillis, Metrics metrics) {
+        users = new Buckets(USER_SLOTS, userBurst, userRefillMillis);
+        guilds = new Buckets(GUILD_SLOTS, guildBurst, guildRefillMillis);
+        // Times are kept in milliseconds from here, and 0 is the time of an unused slot
+        origin = System.nanoTime() - 1000000;
+        limitedUsers = metrics.counter("hangman_guesses_limited_total{scope=\"user\"}");
+        limitedGuilds = metrics.counter("hangman_guesses_limited_total{scope=\"guild\"}");
+        overflows = metrics.counter("hangman_guess_limiter_overflows_total");
+    }
+
+    /**
+     * @return True if the limiter may drop guesses.
+     */
+    boolean isEnabled() {
+        return users != null;
+    }
+
+    /**
+     * Takes a token from the bucket of the user, then from the bucket of the guild. A user over their limit does not
+     * use up the tokens of the guild.
+     * @param userId The id of the author of the guess.
+     * @param guildId The id of the guild the guess was sent in.
+     * @return True if the guess may be handled, false if it must be dropped.
+     */
+    boolean tryAcquire(long userId, long guildId) {
+        if (users == null) return true;
+        long now = (System.nanoTime() - origin) / 1000000;
+        if (!take(users, userId, now)) {
+            limitedUsers.increment();
+            return false;
+        }
+        if (!take(guilds, guildId, now)) {
+            limitedGuilds.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean take(Buckets buckets, long key, long now) {
+        int result = buckets.take(key, now);
+        if (result == Buckets.OVERFLOW) {
+            overflows.increment();
+            return true;
+        }
+        return result == Buckets.TAKEN;
+    }
+
+    /* An open addressing table of buckets. Each slot holds a tag of the key in its high bits, and the time at which
+    the bucket is full again in its low bits, in milliseconds from the origin of the limiter. That time is the
+    theoretical arrival time of the generic cell rate algorithm: a guess is allowed if the bucket is full again no
+    later than burst - 1 refill intervals from now, and then pushes that time one interval on. A key probes a few
+    consecutive slots, and uses the slot with its tag, else the first slot holding a full bucket. Keys with the
+    same tag in the same slots share a bucket, which is rare enough not to matter. */
+    private static final class Buckets {
+        static final int TAKEN = 0;
+        static final int EMPTY = 1;
+        static final int OVERFLOW = 2;
+
+        private static final int PROBES = 4;
+        private static final int TIME_BITS = 40; // about 34 years of milliseconds
+        private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+        private final AtomicLongArray slots;
+        private final int mask;
+        private final long refillMillis;
+        private final long tolerance; // how far ahead of now the full time may be and still allow a guess
+
+        Buckets(int size, int burst, long refillMillis) {
+            if (burst < 1 || refillMillis < 1) throw new IllegalArgumentException("burst and refill must be positive");
+            slots = new AtomicLongArray(size);
+            mask = size - 1;
+            this.refillMillis = refillMillis;
+            tolerance = (burst - 1) * refillMillis;
+        }
+
+        int take(long key, long now) {
+            int h = StripedLongMap.hash(key);
+            // Independent bits of the key for the tag, so keys of the same slot rarely share a tag
+            long tag = (StripedLongMap.hash(key * 0x9e3779b97f4a7c15L) & 0xffffffL) << TIME_BITS;
+            while (true) {
+                int free = -1;
+                long freeValue = 0;
+                for (int p = 0; p < PROBES; p++) {
+                    int i = (h + p) & mask;
+                    long value = slots.get(i);
+                    if ((value & ~TIME_MASK) == tag) {
+                        int result = take(i, value, tag, now);
+                        if (result >= 0) return result;
+                        free = -2; // taken over by another key meanwhile, start over
+                        break;
+                    }
+                    if (free == -1 && (value & TIME_MASK) <= now) {
+                        free = i;
+                        freeValue = value;
+                    }
+                }
+                if (free == -1) return OVERFLOW;
+                // A new bucket is full, and the guess takes a token from it
+                if (free >= 0 && slots.compareAndSet(free, freeValue, tag | (now + refillMillis))) return TAKEN;
+            }
+        }
+
+        // Takes a token from the bucket in slot i, or returns -1 if the slot no longer holds the bucket of the tag
+        private int take(int i, long value, long tag, long now) {
+            while (true) {
+                long full = value & TIME_MASK;
+                if (full - now > tolerance) return EMPTY;
+                if (slots.compareAndSet(i, value, tag | (Math.max(full, now) + refillMillis))) return TAKEN;
+                value = slots.get(i);
+                if ((value & ~TIME_MASK) != tag) return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package hangman.bot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The frames of ascii art drawn by the games, from an empty gallows to a hanged man. They are read from
+ * hangman-ascii.txt once, when first needed, and kept as a table of finished strings, so that drawing a frame never
+ * builds anything. The Launcher loads them before connecting, so that a missing or broken file stops the bot at
+ * startup rather than failing the first game. Thread safe.
+ */
+final class HangmanArt {
+    static final String PATH = "hangman-ascii.txt";
+
+    // Null until loaded, then never changed
+    private static volatile String[] frames;
+
+    private HangmanArt() {
+    }
+
+    /**
+     * Loads and checks the frames if they are not loaded yet.
+     * @throws IOException If the file is missing, can not be read or is not in the expected format.
+     */
+    static void load() throws IOException {
+        if (frames != null) return;
+        synchronized (HangmanArt.class) {
+            if (frames == null) frames = parse(read());
+        }
+    }
+
+    /**
+     * @return The frames, in the order they are drawn. Must not be modified.
+     * @throws IllegalStateException If the frames could not be loaded.
+     */
+    static String[] frames() {
+        String[] f = frames;
+        if (f != null) return f;
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load the ascii art: " + e.getMessage(), e);
+        }
+        return frames;
+    }
+
+    private static byte[] read() throws IOException {
+        InputStream is = HangmanArt.class.getClassLoader().getResourceAsStream(PATH);
+        if (is == null) throw new IOException(PATH + " not found");
+        try (InputStream in = is) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        }
+    }
+
+    /* The first line holds the number of lines of each frame, the second the number of frames. The frames follow,
+    and anything after them is ignored. Every line of every frame must have the same width, or the drawing breaks
+    apart in a fixed-width font. */
+    private static String[] parse(byte[] bytes) throws IOException {
+        String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\r?\n", -1);
+        if (lines.length < 2) throw new IOException(PATH + " has no header");
+        int height = number(lines[0], "number of lines per frame");
+        int count = number(lines[1], "number of frames");
+        // A game allows at least one fail, which needs an empty and a final frame besides the one fail
+        if (count < 3) throw new IOException(PATH + " has " + count + " frames, at least 3 are needed");
+        if (lines.length < 2 + height * count) {
+            throw new IOException(PATH + " ends after " + (lines.length - 2) + " lines of frames, expected "
+                    + height * count);
+        }
+        int width = lines[2].length();
+        String[] parsed = new String[count];
+        StringBuilder sb = new StringBuilder(height * (width + 1));
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            for (int j = 0; j < height; j++) {
+                String line = lines[2 + i * height + j];
+                if (line.length() != width) {
+                    throw new IOException(PATH + " line " + (3 + i * height + j) + " is " + line.length()
+                            + " characters wide, expected " + width);
+                }
+                if (j > 0) sb.append('\n');
+                sb.append(line);
+            }
+            parsed[i] = sb.toString();
+        }
+        return parsed;
+    }
+
+    private static int number(String line, String what) throws IOException {
+        try {
+            int n = Integer.parseInt(line.trim());
+            if (n > 0) return n;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IOException(PATH + " does not start with the " + what + ", found \"" + line + "\"");
+    }
+}
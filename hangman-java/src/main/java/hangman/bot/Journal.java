@@ -0,0 +1,550 @@
+package hangman.bot;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of every state change of every game session, so that games survive a restart of the bot.
+ * Sessions append records without waiting: the records are encoded on the calling thread and handed to a writer
+ * thread, which writes everything waiting in one go and forces it to disk at most once per force interval. A crash
+ * loses at most the records of that interval, and a record cut short by a crash is detected by its checksum.
+ *
+ * The journal is split into segments. Once a segment is full, a new one is started, and a background thread folds
+ * the previous snapshot and the full segments into a new snapshot which only holds the sessions still running,
+ * after which they are deleted. Only files are read to do so, so running sessions are never locked. When the
+ * journal is opened, the latest snapshot and the segments written after it are read back to recover the sessions.
+ * Thread safe.
+ */
+class Journal {
+    /**
+     * A journal which saves nothing and recovers nothing.
+     */
+    static final Journal DISABLED = new Journal();
+
+    static final long DEFAULT_SEGMENT_BYTES = 16 << 20;
+    static final long DEFAULT_FORCE_MILLIS = 1000;
+
+    // Every file starts with this, "HGJ1"
+    private static final int MAGIC = 0x48474A31;
+
+    // Record types, each followed by the guild and channel id of the session
+    private static final byte START = 1; // user id, user name
+    private static final byte SETUP = 2; // allowed fails, sentence
+    private static final byte WORD = 4; // word
+    private static final byte RESET = 5;
+    private static final byte CODE_POINT = 6; // letter as a code point
+
+    // Records are framed by the length of the body before it and a checksum of the body after it
+    private static final int FRAME_BYTES = 8;
+    private static final int HEADER_BYTES = 17;
+
+    private static final String SEGMENT = "journal-";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    // Tells the writer to finish
+    private static final byte[] CLOSE = new byte[0];
+
+    /* Any other empty record asks the writer to force everything before it to disk at once, and then to release
+    the thread waiting for it in flush. */
+    private final Map<byte[], CountDownLatch> flushes;
+
+    private final Path dir; // null if disabled
+    private final long segmentBytes;
+    private final long forceMillis;
+    private final LinkedBlockingQueue<byte[]> queue;
+    private List<SavedSession> recovered;
+    private volatile boolean closed;
+    private Thread writer;
+    private ExecutorService compactor;
+
+    // Only used by the writer thread once started
+    private FileChannel segment;
+    private long segmentSeq;
+    private long segmentSize;
+    private ByteBuffer buffer;
+
+    private Journal() {
+        dir = null;
+        segmentBytes = 0;
+        forceMillis = 0;
+        queue = null;
+        flushes = null;
+        recovered = Collections.emptyList();
+        closed = true;
+    }
+
+    private Journal(Path dir, long segmentBytes, long forceMillis, List<SavedSession> recovered) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.forceMillis = forceMillis;
+        this.recovered = recovered;
+        queue = new LinkedBlockingQueue<>();
+        flushes = new ConcurrentHashMap<>();
+        buffer = ByteBuffer.allocateDirect(1 << 16);
+    }
+
+    /**
+     * Opens the journal in a directory with the default segment size and force interval, and recovers the sessions
+     * saved in it. The directory is created if needed.
+     * @param dir The directory of the journal.
+     * @return The journal, ready to append to.
+     * @throws IOException If the journal can not be read or a new segment can not be created.
+     */
+    static Journal open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_FORCE_MILLIS);
+    }
+
+    /**
+     * Opens the journal in a directory and recovers the sessions saved in it. The directory is created if needed.
+     * @param dir The directory of the journal.
+     * @param segmentBytes The size in bytes after which a segment is full and compacted into a snapshot.
+     * @param forceMillis The longest time in milliseconds a record may be written but not forced to disk.
+     * @return The journal, ready to append to.
+     * @throws IOException If the journal can not be read or a new segment can not be created.
+     */
+    static Journal open(Path dir, long segmentBytes, long forceMillis) throws IOException {
+        if (segmentBytes < 1 || forceMillis < 1) {
+            throw new IllegalArgumentException("segmentBytes and forceMillis must be positive");
+        }
+        Files.createDirectories(dir);
+        long lastSegment = lastSeq(dir, SEGMENT, SEGMENT_SUFFIX);
+        long last = Math.max(lastSegment, lastSeq(dir, SNAPSHOT, SNAPSHOT_SUFFIX));
+        Map<Long, SavedSession> sessions = load(dir, last);
+        Journal journal = new Journal(dir, segmentBytes, forceMillis, new ArrayList<>(sessions.values()));
+        journal.start(last + 1);
+        // Earlier segments are never appended to again, only compacted
+        if (lastSegment >= 0) journal.compactor.execute(() -> journal.compact(last));
+        return journal;
+    }
+
+    /**
+     * @return The sessions which were running when the journal was last written, as read when it was opened.
+     * Only returned once, so that they can be garbage collected once they are restored.
+     */
+    synchronized List<SavedSession> takeRecovered() {
+        List<SavedSession> sessions = recovered;
+        recovered = Collections.emptyList();
+        return sessions;
+    }
+
+    /**
+     * Records that a user started setting up a game.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     * @param userId The id of the user setting up the game.
+     * @param userName The name of the user setting up the game.
+     */
+    void started(long guildId, long channelId, long userId, String userName) {
+        if (closed) return;
+        byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = record(START, guildId, channelId, 8 + 4 + name.length);
+        b.putLong(userId).putInt(name.length).put(name);
+        append(b);
+    }
+
+    /**
+     * Records that a game was set up and started.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     * @param failsAllowed The number of fails allowed in the game.
+     * @param sentence The sentence to guess.
+     */
+    void setUp(long guildId, long channelId, int failsAllowed, String sentence) {
+        if (closed) return;
+        byte[] s = sentence.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = record(SETUP, guildId, channelId, 4 + 4 + s.length);
+        b.putInt(failsAllowed).putInt(s.length).put(s);
+        append(b);
+    }
+
+    /**
+     * Records a guess for a letter.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     * @param letter The code point of the letter guessed.
+     */
+    void guessedLetter(long guildId, long channelId, int letter) {
+        if (closed) return;
+        append(record(CODE_POINT, guildId, channelId, 4).putInt(letter));
+    }
+
+    /**
+     * Records a guess for a word.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     * @param word The word guessed.
+     */
+    void guessedWord(long guildId, long channelId, String word) {
+        if (closed) return;
+        byte[] w = word.getBytes(StandardCharsets.UTF_8);
+        append(record(WORD, guildId, channelId, 4 + w.length).putInt(w.length).put(w));
+    }
+
+    /**
+     * Records that a session returned to the idle state, because it was reset or its game ended.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     */
+    void reset(long guildId, long channelId) {
+        if (closed) return;
+        append(record(RESET, guildId, channelId, 0));
+    }
+
+    /**
+     * Records every state change of a session at once, for a session taken over from another journal.
+     * @param session The session as read from the other journal.
+     */
+    void restored(SavedSession session) {
+        if (closed) return;
+        for (byte[] r : records(session)) queue.add(r);
+    }
+
+    /**
+     * Waits until every record appended so far is forced to disk.
+     * @return True if the records are on disk, false if the journal is disabled, closed or failed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    boolean flush() throws InterruptedException {
+        if (closed) return false;
+        byte[] marker = new byte[0];
+        CountDownLatch forced = new CountDownLatch(1);
+        flushes.put(marker, forced);
+        queue.add(marker);
+        // Released without forcing if the writer stops first
+        while (!forced.await(forceMillis, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) break;
+        }
+        return flushes.remove(marker) == null && !closed;
+    }
+
+    /**
+     * Writes sessions to a file in the format of a snapshot, which appears complete or not at all.
+     * @param file The file to write, replaced if it exists.
+     * @param sessions The sessions to write.
+     * @throws IOException If the file can not be written.
+     */
+    static void writeSnapshot(Path file, Collection<SavedSession> sessions) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream os = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+            os.write(ByteBuffer.allocate(4).putInt(MAGIC).array());
+            for (SavedSession s : sessions) {
+                for (byte[] r : records(s)) os.write(r);
+            }
+            os.flush();
+            out.force(true);
+        }
+        // The snapshot only counts once it is complete
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the sessions of a file written by writeSnapshot.
+     * @param file The file to read.
+     * @return The sessions in the file, up to the first damaged record.
+     * @throws IOException If the file can not be read.
+     */
+    static List<SavedSession> readSnapshot(Path file) throws IOException {
+        Map<Long, SavedSession> sessions = new LinkedHashMap<>();
+        read(file, sessions);
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * Writes and forces every record appended so far, and stops the threads of the journal. Records appended
+     * afterwards are dropped. Waits for a running compaction to finish.
+     */
+    void close() {
+        if (dir == null) return;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        queue.add(CLOSE);
+        try {
+            writer.join();
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start(long seq) throws IOException {
+        openSegment(seq);
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "hangman-journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        writer = new Thread(this::writeLoop, "hangman-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // A record with its header written, to be filled with a body of the given size and then appended
+    private static ByteBuffer record(byte type, long guildId, long channelId, int bodyBytes) {
+        ByteBuffer b = ByteBuffer.allocate(FRAME_BYTES + HEADER_BYTES + bodyBytes);
+        b.putInt(HEADER_BYTES + bodyBytes).put(type).putLong(guildId).putLong(channelId);
+        return b;
+    }
+
+    // Adds the checksum and hands the record to the writer
+    private void append(ByteBuffer b) {
+        queue.add(seal(b));
+    }
+
+    private static byte[] seal(ByteBuffer b) {
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 4, b.position() - 4);
+        b.putInt((int) crc.getValue());
+        return b.array();
+    }
+
+    // Writes records as they come, in batches, and forces them to disk at most once per interval
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        boolean closing = false;
+        try {
+            while (!closing) {
+                byte[] first = queue.poll(forceMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    // Anything appended after closing is dropped
+                    int close = batch.indexOf(CLOSE);
+                    if (close >= 0) {
+                        batch.subList(close, batch.size()).clear();
+                        closing = true;
+                    }
+                    write(batch);
+                    unforced = true;
+                }
+                long now = System.nanoTime();
+                boolean flushing = hasFlushes(batch);
+                boolean due = now - lastForce >= TimeUnit.MILLISECONDS.toNanos(forceMillis);
+                if (unforced && (closing || flushing || due)) {
+                    segment.force(false);
+                    unforced = false;
+                    lastForce = now;
+                }
+                if (flushing) releaseFlushes(batch);
+                batch.clear();
+            }
+            segment.close();
+        } catch (IOException e) {
+            // Games go on without the journal rather than stopping the bot
+            System.out.println("Failed to write the journal, games will no longer be saved: " + e.getMessage());
+            closed = true;
+            queue.clear();
+            flushes.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean hasFlushes(List<byte[]> batch) {
+        for (byte[] r : batch) if (r.length == 0 && r != CLOSE) return true;
+        return false;
+    }
+
+    private void releaseFlushes(List<byte[]> batch) {
+        for (byte[] r : batch) {
+            CountDownLatch forced = r.length == 0 ? flushes.remove(r) : null;
+            if (forced != null) forced.countDown();
+        }
+    }
+
+    private void write(List<byte[]> records) throws IOException {
+        int total = 0;
+        for (byte[] r : records) total += r.length;
+        if (buffer.capacity() < total) buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(total) << 1);
+        buffer.clear();
+        for (byte[] r : records) buffer.put(r);
+        buffer.flip();
+        while (buffer.hasRemaining()) segment.write(buffer);
+        segmentSize += total;
+        if (segmentSize >= segmentBytes) {
+            long full = segmentSeq;
+            segment.force(false);
+            segment.close();
+            openSegment(full + 1);
+            compactor.execute(() -> compact(full));
+        }
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segment = FileChannel.open(file(dir, SEGMENT, seq, SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC);
+        magic.flip();
+        while (magic.hasRemaining()) segment.write(magic);
+        segmentSeq = seq;
+        segmentSize = 4;
+    }
+
+    // Folds the latest snapshot and the segments up to seq into a snapshot, and deletes what it replaces
+    private void compact(long seq) {
+        try {
+            Map<Long, SavedSession> sessions = load(dir, seq);
+            writeSnapshot(file(dir, SNAPSHOT, seq, SNAPSHOT_SUFFIX), sessions.values());
+            for (long old : seqs(dir, SEGMENT, SEGMENT_SUFFIX)) {
+                if (old <= seq) Files.deleteIfExists(file(dir, SEGMENT, old, SEGMENT_SUFFIX));
+            }
+            for (long old : seqs(dir, SNAPSHOT, SNAPSHOT_SUFFIX)) {
+                if (old < seq) Files.deleteIfExists(file(dir, SNAPSHOT, old, SNAPSHOT_SUFFIX));
+            }
+        } catch (IOException e) {
+            // Nothing is lost, the segments are simply kept until the next compaction
+            System.out.println("Failed to compact the journal: " + e.getMessage());
+        }
+    }
+
+    // The records which recreate a session
+    private static List<byte[]> records(SavedSession s) {
+        List<byte[]> records = new ArrayList<>(2 + s.getGuesses().size());
+        byte[] name = s.userName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = record(START, s.guildId, s.channelId, 8 + 4 + name.length);
+        records.add(seal(b.putLong(s.userId).putInt(name.length).put(name)));
+        if (!s.isPlaying()) return records;
+        byte[] sentence = s.getSentence().getBytes(StandardCharsets.UTF_8);
+        b = record(SETUP, s.guildId, s.channelId, 4 + 4 + sentence.length);
+        records.add(seal(b.putInt(s.getFailsAllowed()).putInt(sentence.length).put(sentence)));
+        for (Object guess : s.getGuesses()) {
+            if (guess instanceof Integer) {
+                records.add(seal(record(CODE_POINT, s.guildId, s.channelId, 4).putInt((Integer) guess)));
+            } else {
+                byte[] w = ((String) guess).getBytes(StandardCharsets.UTF_8);
+                records.add(seal(record(WORD, s.guildId, s.channelId, 4 + w.length).putInt(w.length).put(w)));
+            }
+        }
+        return records;
+    }
+
+    // Reads the latest snapshot up to seq and the segments after it up to seq, keyed by channel id
+    private static Map<Long, SavedSession> load(Path dir, long seq) throws IOException {
+        long snapshot = -1;
+        for (long s : seqs(dir, SNAPSHOT, SNAPSHOT_SUFFIX)) if (s <= seq) snapshot = Math.max(snapshot, s);
+        Map<Long, SavedSession> sessions = new LinkedHashMap<>();
+        if (snapshot >= 0) read(file(dir, SNAPSHOT, snapshot, SNAPSHOT_SUFFIX), sessions);
+        for (long s : seqs(dir, SEGMENT, SEGMENT_SUFFIX)) {
+            if (s > snapshot && s <= seq) read(file(dir, SEGMENT, s, SEGMENT_SUFFIX), sessions);
+        }
+        return sessions;
+    }
+
+    // Applies the records of a file, up to the first one which is cut short or damaged
+    private static void read(Path file, Map<Long, SavedSession> sessions) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (b.remaining() < 4 || b.getInt() != MAGIC) {
+            System.out.println("Skipping " + file + ", it is not a journal file");
+            return;
+        }
+        CRC32 crc = new CRC32();
+        while (b.remaining() >= FRAME_BYTES) {
+            int length = b.getInt();
+            if (length < HEADER_BYTES || length > b.remaining() - 4) break;
+            crc.reset();
+            crc.update(b.array(), b.position(), length);
+            if ((int) crc.getValue() != b.getInt(b.position() + length)) break;
+            int end = b.position() + length;
+            apply(b, sessions);
+            b.position(end + 4);
+        }
+        if (b.hasRemaining()) System.out.println("Ignoring a damaged or incomplete end of " + file);
+    }
+
+    private static void apply(ByteBuffer b, Map<Long, SavedSession> sessions) {
+        byte type = b.get();
+        long guildId = b.getLong();
+        long channelId = b.getLong();
+        SavedSession s = sessions.get(channelId);
+        switch (type) {
+            case START:
+                long userId = b.getLong();
+                sessions.put(channelId, new SavedSession(guildId, channelId, userId, string(b)));
+                break;
+            case SETUP:
+                int failsAllowed = b.getInt();
+                String sentence = string(b);
+                if (s != null && !s.isPlaying()) s.setUp(sentence, failsAllowed);
+                break;
+            case CODE_POINT:
+                int letter = b.getInt();
+                if (s != null && s.isPlaying()) s.guessLetter(letter);
+                break;
+            case WORD:
+                String word = string(b);
+                if (s != null && s.isPlaying()) s.guessWord(word);
+                break;
+            case RESET:
+                sessions.remove(channelId);
+                break;
+            default:
+                System.out.println("Ignoring a journal record of unknown type " + type);
+        }
+    }
+
+    private static String string(ByteBuffer b) {
+        int length = b.getInt();
+        String s = new String(b.array(), b.position(), length, StandardCharsets.UTF_8);
+        b.position(b.position() + length);
+        return s;
+    }
+
+    private static Path file(Path dir, String prefix, long seq, String suffix) {
+        return dir.resolve(prefix + String.format("%016d", seq) + suffix);
+    }
+
+    private static long lastSeq(Path dir, String prefix, String suffix) throws IOException {
+        long last = -1;
+        for (long seq : seqs(dir, prefix, suffix)) last = Math.max(last, seq);
+        return last;
+    }
+
+    // The sequence numbers of the files of a kind, in ascending order
+    private static List<Long> seqs(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+}
@@ -1,19 +1,68 @@
 package hangman.bot;
 
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
 
 import javax.security.auth.login.LoginException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * This class initializes a JDA API and creates a virtual bot manager to handle incoming messages.
+ * This class initializes a JDA shard manager for the shards of this process, and creates a virtual bot manager to
+ * handle the incoming messages of their guilds.
  */
 public class Launcher {
     private static String BOT_TOKEN;
     private static String BOT_TOKEN_PATH = "token.txt";
 
+    // Metrics are only recorded if they are reported, on a local port and/or printed every given number of seconds
+    private static final String METRICS_PORT_PROPERTY = "hangman.metrics.port";
+    private static final String METRICS_LOG_PROPERTY = "hangman.metrics.logSeconds";
+
+    // Games are only saved, and restored after a restart, if given a directory for the journal
+    private static final String JOURNAL_PROPERTY = "hangman.journal";
+
+    // The stats of users and guilds are kept in memory only, unless given a file to store them in
+    private static final String STATS_PROPERTY = "hangman.stats";
+
+    // A word list to pick random words from instead of the bundled one
+    private static final String WORDS_PROPERTY = "hangman.words";
+
+    // The number of synthetic games played while connecting, to warm up the code handling messages. Off if not set.
+    private static final String WARMUP_PROPERTY = "hangman.warmupGames";
+
+    /* The shards of the bot are split evenly between processes, numbered from 0. Processes which hand shards over
+    to each other when the split changes share a handoff directory. */
+    private static final String SHARDS_PROPERTY = "hangman.shards";
+    private static final String PROCESS_PROPERTY = "hangman.process";
+    private static final String PROCESSES_PROPERTY = "hangman.processes";
+    private static final String HANDOFF_PROPERTY = "hangman.handoff";
+
+    // Records the messages received to a trace file for the LoadSimulator, for an hour unless told otherwise
+    private static final String TRACE_PROPERTY = "hangman.trace";
+    private static final String TRACE_MINUTES_PROPERTY = "hangman.traceMinutes";
+
+    // What the bot receives from discord and JDA caches, lean unless set to DEFAULT to compare with the JDA defaults
+    private static final String GATEWAY_PROPERTY = "hangman.gateway";
+
+    // Minutes a game may wait for its setup details, or for a guess, before it is reset. Never if set to 0.
+    private static final String SETUP_TIMEOUT_PROPERTY = "hangman.setupTimeoutMinutes";
+    private static final String PLAYING_TIMEOUT_PROPERTY = "hangman.playingTimeoutMinutes";
+
+    private static final DispatchMode DISPATCH_MODE = DispatchMode.PINNED_EXECUTORS;
+
     // throwing these exceptions from main method is fine, no point in trying to start if we cant start
     public static void main(String[] args) throws LoginException, InterruptedException {
         try {
@@ -24,9 +73,202 @@ public class Launcher {
             System.out.println("Failed to read bot token. Exiting...");
             System.exit(0);
         }
-        JDA api = JDABuilder.createDefault(BOT_TOKEN)
-                .addEventListeners(new VirtualBotManager(true))
-                .build();
-        api.awaitStatus(JDA.Status.CONNECTED); // Wait for login to complete
+        // Checked before connecting, so that the bot never joins with games it can not draw
+        try {
+            HangmanArt.load();
+        } catch (IOException e) {
+            System.out.println("Failed to load ascii art: " + e.getMessage() + ". Exiting...");
+            System.exit(0);
+        }
+        Metrics metrics = startMetrics();
+        Journal journal = openJournal();
+        GameStats stats = openStats(metrics);
+        VirtualBotManager manager = new VirtualBotManager(DISPATCH_MODE, metrics, journal, loadWords(),
+                new GuessLimiter(metrics), stats, sessionTimeouts(metrics));
+
+        ShardLayout layout = ShardLayout.forProcess(Integer.getInteger(SHARDS_PROPERTY, 1),
+                Integer.getInteger(PROCESS_PROPERTY, 0), Integer.getInteger(PROCESSES_PROPERTY, 1));
+        String handoff = System.getProperty(HANDOFF_PROPERTY);
+        Path handoffDir = handoff == null || handoff.isEmpty() ? null : Paths.get(handoff);
+        ShardRouter router = new ShardRouter(manager, layout, handoffDir, metrics);
+
+        // Sessions are restored before connecting, so that no event reaches a channel whose game is not back yet
+        AtomicReference<ShardManager> shards = new AtomicReference<>();
+        Collection<SavedSession> saved = journal.takeRecovered();
+        long start = System.nanoTime();
+        try {
+            int restored = router.start(saved, new JdaSinks(shards));
+            if (restored > 0) {
+                System.out.println("Restored " + restored + " sessions, " + saved.size() + " from the journal, in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to hand over sessions: " + e.getMessage());
+        }
+        TraceRecorder recorder = startTrace();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (recorder != null) recorder.stop();
+            // Without a handoff directory, the journal keeps the sessions for the next start of this process
+            if (handoffDir != null) {
+                try {
+                    router.releaseAll();
+                } catch (IOException e) {
+                    System.out.println("Failed to hand over sessions: " + e.getMessage());
+                }
+            }
+            stats.close();
+            journal.close();
+        }, "hangman-shutdown"));
+
+        GatewayProfile profile = GatewayProfile.named(System.getProperty(GATEWAY_PROPERTY));
+        System.out.println("Running " + layout + " with the " + profile.name().toLowerCase() + " gateway profile");
+        DefaultShardManagerBuilder builder = profile.builder(BOT_TOKEN)
+                .setShardsTotal(layout.getTotal())
+                .setShards(layout.getFirst(), layout.getLast());
+        // Listeners are called in the order they were added, so the recorder sees messages as they arrive
+        if (recorder != null) builder.addEventListeners(recorder);
+        ShardManager api = builder.addEventListeners(router).build();
+        shards.set(api);
+        // Logging in takes a while, which is time enough to warm up
+        int warmupGames = Integer.getInteger(WARMUP_PROPERTY, 0);
+        WarmupGames.Discord discord = warmupGames > 0 ? WarmupGames.findDiscord() : null;
+        if (discord != null) {
+            start = System.nanoTime();
+            long sent = WarmupGames.run(warmupGames, DISPATCH_MODE, discord);
+            System.out.println("Warmed up with " + warmupGames + " games and " + sent + " messages in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } else if (warmupGames > 0) {
+            System.out.println("Not warming up, " + WarmupGames.DISCORD_CLASS + " is not on the class path. "
+                    + "Add the jar of the fixtures to it to warm up.");
+        }
+        for (JDA shard : api.getShards()) shard.awaitStatus(JDA.Status.CONNECTED); // Wait for login to complete
+    }
+
+    // Timeouts of the durations given by the system properties, or the defaults, or none if set to 0
+    private static SessionTimeouts sessionTimeouts(Metrics metrics) {
+        long setup = Long.getLong(SETUP_TIMEOUT_PROPERTY,
+                TimeUnit.MILLISECONDS.toMinutes(SessionTimeouts.DEFAULT_SETUP_MILLIS));
+        long playing = Long.getLong(PLAYING_TIMEOUT_PROPERTY,
+                TimeUnit.MILLISECONDS.toMinutes(SessionTimeouts.DEFAULT_PLAYING_MILLIS));
+        if (setup <= 0 || playing <= 0) return SessionTimeouts.DISABLED;
+        setup = TimeUnit.MINUTES.toMillis(setup);
+        playing = TimeUnit.MINUTES.toMillis(playing);
+        // The warnings come a fifth of the way before short timeouts, so they are never right after the start
+        return new SessionTimeouts(setup, Math.min(SessionTimeouts.DEFAULT_SETUP_WARNING_MILLIS, setup / 5), playing,
+                Math.min(SessionTimeouts.DEFAULT_PLAYING_WARNING_MILLIS, playing / 5), new TimingWheel(metrics));
+    }
+
+    // Starts recording a trace to the file given by the system property, if any
+    private static TraceRecorder startTrace() {
+        String file = System.getProperty(TRACE_PROPERTY);
+        if (file == null || file.isEmpty()) return null;
+        long minutes = Long.getLong(TRACE_MINUTES_PROPERTY, 60);
+        try {
+            TraceRecorder recorder = new TraceRecorder(Paths.get(file), minutes);
+            System.out.println("Recording a trace to " + file + " for " + minutes + " minutes");
+            return recorder;
+        } catch (IOException e) {
+            System.out.println("Failed to record a trace to " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Loads the words of random games from the file given by the system property, or the bundled list if not set
+    private static WordIndex loadWords() {
+        String file = System.getProperty(WORDS_PROPERTY);
+        long start = System.nanoTime();
+        try {
+            WordIndex words = file == null || file.isEmpty() ? WordIndex.load() : WordIndex.load(Paths.get(file));
+            System.out.println("Loaded " + words.size() + " words in " + words.getCategories().size()
+                    + " categories in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return words;
+        } catch (IOException e) {
+            System.out.println("Failed to load words, random games are off: " + e.getMessage());
+            return WordIndex.EMPTY;
+        }
+    }
+
+    // Opens the journal in the directory given by the system property, the bot runs without it if it fails
+    private static Journal openJournal() {
+        String dir = System.getProperty(JOURNAL_PROPERTY);
+        if (dir == null || dir.isEmpty()) return Journal.DISABLED;
+        try {
+            return Journal.open(Paths.get(dir));
+        } catch (IOException e) {
+            System.out.println("Failed to open the journal in " + dir + ", games will not be saved: " + e.getMessage());
+            return Journal.DISABLED;
+        }
+    }
+
+    // Opens the stats in the file given by the system property, they are only kept in memory if not set or it fails
+    private static GameStats openStats(Metrics metrics) {
+        String file = System.getProperty(STATS_PROPERTY);
+        if (file == null || file.isEmpty()) return new GameStats(metrics);
+        try {
+            return GameStats.open(Paths.get(file), metrics);
+        } catch (IOException e) {
+            System.out.println("Failed to open the stats in " + file + ", they will not be saved: " + e.getMessage());
+            return new GameStats(metrics);
+        }
+    }
+
+    // Starts reporting metrics as configured by the system properties, the bot runs without them if they fail
+    private static Metrics startMetrics() {
+        Integer port = Integer.getInteger(METRICS_PORT_PROPERTY);
+        Long logSeconds = Long.getLong(METRICS_LOG_PROPERTY);
+        if (port == null && (logSeconds == null || logSeconds <= 0)) return Metrics.DISABLED;
+
+        Metrics metrics = new Metrics();
+        // The heap in use after the last collection of each pool, which is mostly what the bot and JDA keep
+        metrics.gauge("hangman_heap_live_bytes", () -> {
+            long live = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+                if (usage != null) live += usage.getUsed();
+            }
+            return live;
+        });
+        MetricsReporter reporter = new MetricsReporter(metrics);
+        if (port != null) {
+            try {
+                reporter.startHttp(port);
+                System.out.println("Serving metrics at http://localhost:" + port + MetricsReporter.PATH);
+            } catch (IOException e) {
+                System.out.println("Failed to serve metrics on port " + port + ": " + e.getMessage());
+            }
+        }
+        if (logSeconds != null && logSeconds > 0) reporter.startLog(logSeconds);
+        return metrics;
+    }
+
+    /* Finds channels and users through the api once it is set. Restored sessions send messages in reply to events,
+    which come after the api is set, and when the timing wheel of the SessionTimeouts finds them waiting too long,
+    which hands the check to their mailbox. Their timeouts start over when restored, so those are due minutes later.
+    The sinks therefore look up their target when sending, and drop anything sent before the api is set. */
+    private static class JdaSinks implements SinkResolver {
+        private final AtomicReference<ShardManager> shards;
+
+        JdaSinks(AtomicReference<ShardManager> shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        public MessageSink channel(long channelId) {
+            return content -> {
+                ShardManager api = shards.get();
+                TextChannel channel = api == null ? null : api.getTextChannelById(channelId);
+                if (channel != null) channel.sendMessage(content).queue();
+            };
+        }
+
+        @Override
+        public MessageSink user(long userId) {
+            return content -> {
+                ShardManager api = shards.get();
+                if (api == null) return;
+                api.retrieveUserById(userId).queue(
+                        u -> u.openPrivateChannel().queue(c -> c.sendMessage(content).queue()));
+            };
+        }
     }
 }
@@ -0,0 +1,123 @@
+package hangman.bot;
+
+import java.util.Arrays;
+
+/**
+ * A set of letters stored as primitive code points, which remembers the order in which letters were added.
+ * Letters below 256 are kept in a bitset and all others in a small open addressing table, so membership checks
+ * and insertions neither box nor allocate except when the set grows. Not thread safe.
+ */
+class LetterSet {
+    private static final int INITIAL_CAPACITY = 32;
+
+    // One bit per letter in the range [0, 256)
+    private final long[] lowBits;
+
+    // Letters from 256 and up, offset by one so that 0 marks an empty slot
+    private int[] highTable;
+    private int highCount;
+
+    // All letters in the order they were added
+    private int[] order;
+    private int size;
+
+    LetterSet() {
+        lowBits = new long[4];
+        highTable = new int[INITIAL_CAPACITY];
+        order = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @param letter The code point to add.
+     * @return True if the letter was added, false if it already was in the set.
+     */
+    boolean add(int letter) {
+        if (letter < 0) throw new IllegalArgumentException("Not a code point: " + letter);
+        if (letter < 256) {
+            long bit = 1L << letter;
+            if ((lowBits[letter >>> 6] & bit) != 0) return false;
+            lowBits[letter >>> 6] |= bit;
+        } else if (!addHigh(letter)) {
+            return false;
+        }
+        if (size == order.length) order = Arrays.copyOf(order, size << 1);
+        order[size++] = letter;
+        return true;
+    }
+
+    /**
+     * @param letter The code point to look for.
+     * @return True if the letter is in the set.
+     */
+    boolean contains(int letter) {
+        if (letter < 0) return false;
+        if (letter < 256) return (lowBits[letter >>> 6] & (1L << letter)) != 0;
+        int mask = highTable.length - 1;
+        for (int i = mix(letter) & mask; highTable[i] != 0; i = (i + 1) & mask) {
+            if (highTable[i] == letter + 1) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of letters in the set.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i The position of the letter in the order of addition, in the range [0, size).
+     * @return The i:th letter added to the set.
+     */
+    int get(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        return order[i];
+    }
+
+    /**
+     * Appends the letters in the order they were added, formatted as a list like [A, B, C].
+     * @param sb The builder to append to.
+     * @return The same builder.
+     */
+    StringBuilder appendTo(StringBuilder sb) {
+        sb.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.appendCodePoint(order[i]);
+        }
+        return sb.append(']');
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+
+    private boolean addHigh(int letter) {
+        int mask = highTable.length - 1;
+        int i = mix(letter) & mask;
+        for (; highTable[i] != 0; i = (i + 1) & mask) {
+            if (highTable[i] == letter + 1) return false;
+        }
+        highTable[i] = letter + 1;
+        if (++highCount > highTable.length >> 1) growHigh();
+        return true;
+    }
+
+    private void growHigh() {
+        int[] old = highTable;
+        highTable = new int[old.length << 1];
+        int mask = highTable.length - 1;
+        for (int v : old) {
+            if (v == 0) continue;
+            int i = mix(v - 1) & mask;
+            while (highTable[i] != 0) i = (i + 1) & mask;
+            highTable[i] = v;
+        }
+    }
+
+    private static int mix(int letter) {
+        return letter * 0x9E3779B9 >>> 7;
+    }
+}
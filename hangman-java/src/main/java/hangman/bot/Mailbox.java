@@ -0,0 +1,282 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * A bounded, serial mailbox of parsed message events for a single game session. Events are handled one at a time and in
+ * the order they were posted, but the mailbox is only scheduled on its executor while it has events to handle.
+ * This lets a large number of mailboxes share a few threads. Once the mailbox is full, events are shed according
+ * to its overflow policy, so a flood of messages in one guild cannot use an unbounded amount of memory.
+ * A mailbox whose session has been idle for long enough can be retired, after which it refuses all events and
+ * the session may be discarded.
+ */
+class Mailbox implements Runnable {
+    // Events handled in one go before the thread is handed over to other mailboxes waiting for it
+    private static final int BATCH_SIZE = 16;
+
+    // The time from when a message reaches the bot until its session has handled it, including any time queued
+    static final String EVENT_LATENCY = "hangman_event_latency_seconds";
+
+    private final GameSession session;
+    private final Executor executor; // null if events are handled directly on the posting thread
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Metrics.Histogram handleLatency;
+    private final Metrics.Histogram eventLatency;
+    private final Metrics.Counter shedMetric;
+    private final Metrics.Counter coalescedMetric;
+
+    // All state below is guarded by the lock of the mailbox
+    private final ArrayDeque<ParsedMessage> queue;
+
+    // True while the mailbox is queued on or running in the executor
+    private boolean scheduled;
+
+    // True once the timer of the session is due, until the session has checked its timeouts
+    private boolean timeoutDue;
+
+    private long shedCount;
+    private long coalescedCount;
+
+    // Once retired, the mailbox refuses all events
+    private boolean retired;
+
+    /**
+     * @param session The session which handles the events of this mailbox.
+     * @param executor The executor the mailbox is run on. May be shared between many mailboxes. If null, events
+     *                 are handled directly by the thread posting them.
+     * @param capacity The maximum number of events waiting to be handled.
+     * @param overflowPolicy What to do with events posted while the mailbox is full.
+     * @param metrics Where to record how long events take to handle and how many are shed.
+     */
+    Mailbox(GameSession session, Executor executor, int capacity, OverflowPolicy overflowPolicy, Metrics metrics) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.session = session;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        queue = new ArrayDeque<>();
+        scheduled = false;
+        handleLatency = metrics.histogram("hangman_session_handle_seconds");
+        eventLatency = metrics.histogram(EVENT_LATENCY);
+        shedMetric = metrics.counter("hangman_mailbox_shed_total");
+        coalescedMetric = metrics.counter("hangman_mailbox_coalesced_total");
+        session.setTimeoutHandler(this::postTimeout);
+    }
+
+    /**
+     * @return The session which handles the events of this mailbox.
+     */
+    GameSession getSession() {
+        return session;
+    }
+
+    /**
+     * Adds an event to the mailbox, and schedules the mailbox on its executor unless it already is. If the
+     * mailbox is full, the overflow policy decides which event is shed. If the mailbox has no executor, the event
+     * is instead handled directly by the calling thread. May be called from any thread.
+     * @param event The parsed event to hand to the session.
+     * @return False if the mailbox is retired and the event was refused, true otherwise.
+     */
+    boolean post(ParsedMessage event) {
+        if (executor == null) return handleDirectly(event);
+        synchronized (this) {
+            if (retired) return false;
+            if (queue.size() < capacity) {
+                queue.addLast(event);
+            } else {
+                overflow(event);
+            }
+            if (scheduled) return true;
+            scheduled = true;
+        }
+        executor.execute(this);
+        return true;
+    }
+
+    /**
+     * Has the session check its timeouts once it has handled the events already posted, so that a timeout never
+     * overtakes a guess. Schedules the mailbox on its executor unless it already is, or checks directly on the calling
+     * thread if the mailbox has no executor. Does nothing once the mailbox is retired. May be called from any thread.
+     */
+    void postTimeout() {
+        if (executor == null) {
+            checkTimeoutsDirectly();
+            return;
+        }
+        synchronized (this) {
+            if (retired) return;
+            timeoutDue = true;
+            if (scheduled) return;
+            scheduled = true;
+        }
+        executor.execute(this);
+    }
+
+    /**
+     * Handles a batch of events, then checks the timeouts of the session if due and no event is left. Only to be
+     * called by the executor.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ParsedMessage event;
+            synchronized (this) {
+                event = queue.pollFirst();
+            }
+            if (event == null) break;
+            long start = handleLatency.start();
+            try {
+                session.handleMessageEvent(event);
+            } catch (RuntimeException e) {
+                // One bad event should not stop the session from handling the rest
+                System.out.println("Failed to handle an event of " + describeSession() + ": " + e);
+            }
+            handleLatency.recordSince(start);
+            if (event.getReceivedNanos() != 0) eventLatency.recordSince(event.getReceivedNanos());
+        }
+        boolean checkTimeouts;
+        synchronized (this) {
+            checkTimeouts = timeoutDue && queue.isEmpty();
+            if (checkTimeouts) timeoutDue = false;
+        }
+        if (checkTimeouts) {
+            try {
+                session.checkTimeouts();
+            } catch (RuntimeException e) {
+                System.out.println("Failed to check the timeouts of " + describeSession() + ": " + e);
+            }
+        }
+        synchronized (this) {
+            // Events posted after the last poll would otherwise be stranded
+            scheduled = !queue.isEmpty() || timeoutDue;
+            if (!scheduled) return;
+        }
+        executor.execute(this);
+    }
+
+    /**
+     * Retires the mailbox if its session is idle, has no events waiting or being handled, and has not handled an
+     * event for at least the given time. A retired mailbox refuses all events, so its session can safely be
+     * discarded.
+     * @param now The current time in milliseconds.
+     * @param idleMillis The minimum time in milliseconds since the session handled an event.
+     * @return True if the mailbox is now retired.
+     */
+    synchronized boolean retireIfIdle(long now, long idleMillis) {
+        if (retired) return true;
+        if (scheduled || session.getState() != GameSession.state.IDLE
+                || now - session.getLastActivity() < idleMillis) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    /**
+     * Retires the mailbox once it has no events waiting or being handled, whatever the state of its session. The
+     * session then belongs to the calling thread.
+     * @return True if the mailbox is now retired, false if it is still busy.
+     */
+    synchronized boolean retireIfDone() {
+        if (!scheduled) retired = true;
+        return retired;
+    }
+
+    /**
+     * @return The number of events waiting to be handled.
+     */
+    synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return True if events are waiting or being handled, false once every event posted so far has been handled.
+     */
+    synchronized boolean isBusy() {
+        return scheduled;
+    }
+
+    /**
+     * @return The number of events dropped because the mailbox was full, including coalesced ones.
+     */
+    synchronized long getShedCount() {
+        return shedCount;
+    }
+
+    /**
+     * @return The number of queued guesses replaced by a newer guess from the same user.
+     */
+    synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    // Holding the lock makes handling atomic with respect to retirement
+    private synchronized boolean handleDirectly(ParsedMessage event) {
+        if (retired) return false;
+        long start = handleLatency.start();
+        try {
+            session.handleMessageEvent(event);
+        } finally {
+            handleLatency.recordSince(start);
+            if (event.getReceivedNanos() != 0) eventLatency.recordSince(event.getReceivedNanos());
+        }
+        return true;
+    }
+
+    // Holding the lock makes the check atomic with respect to retirement and to events handled directly
+    private synchronized void checkTimeoutsDirectly() {
+        if (!retired) session.checkTimeouts();
+    }
+
+    // The session for failure messages, by the ids of its guild and channel
+    private String describeSession() {
+        return "the session of channel " + session.getChannelId() + " in guild " + session.getGuildId();
+    }
+
+    // Makes room for the event or drops it. Only call while holding the lock and the queue is full.
+    private void overflow(ParsedMessage event) {
+        shedCount++;
+        shedMetric.increment();
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                queue.pollFirst();
+                queue.addLast(event);
+                break;
+            case DROP_NEWEST:
+                break;
+            case COALESCE_GUESSES:
+                if (isGuess(event) && removeQueuedGuess(event)) {
+                    queue.addLast(event);
+                    coalescedCount++;
+                    coalescedMetric.increment();
+                }
+                break;
+        }
+    }
+
+    // Removes a guess from the same user in the same channel as the event, if there is one
+    private boolean removeQueuedGuess(ParsedMessage event) {
+        long userId = event.getEvent().getAuthor().getIdLong();
+        long channelId = event.getEvent().getChannel().getIdLong();
+        for (Iterator<ParsedMessage> it = queue.iterator(); it.hasNext(); ) {
+            ParsedMessage queued = it.next();
+            if (queued.getEvent().getAuthor().getIdLong() == userId
+                    && queued.getEvent().getChannel().getIdLong() == channelId && isGuess(queued)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Guesses are messages in text channels that are not commands to the bot
+    private static boolean isGuess(ParsedMessage event) {
+        return event.getEvent().getChannelType() == ChannelType.TEXT && !event.isCommand();
+    }
+}
@@ -0,0 +1,33 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.User;
+
+/**
+ * Somewhere messages can be sent, normally a discord channel. Kept separate from the api so that outbound
+ * messages can be handled without a connection to discord.
+ */
+interface MessageSink {
+
+    /**
+     * Sends a message without response handling.
+     * @param content The content of the message, at most OutboundPipeline.MAX_MESSAGE_LENGTH characters.
+     */
+    void send(String content);
+
+    /**
+     * @param channel A discord channel.
+     * @return A sink which queues messages to the channel through the api.
+     */
+    static MessageSink of(MessageChannel channel) {
+        return content -> channel.sendMessage(content).queue();
+    }
+
+    /**
+     * @param user A discord user.
+     * @return A sink which opens a private channel with the user and queues messages to it through the api.
+     */
+    static MessageSink of(User user) {
+        return content -> user.openPrivateChannel().queue(channel -> channel.sendMessage(content).queue());
+    }
+}
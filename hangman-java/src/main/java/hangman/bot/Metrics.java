@@ -0,0 +1,305 @@
+package hangman.bot;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A registry of counters, gauges and latency histograms, reported in the text format read by Prometheus. Parts of
+ * the bot get their instruments from the registry when they are created, and update them as they work. A disabled
+ * registry hands out instruments which do nothing, so the cost of updating them is a single null check, and
+ * latency is not even timed. Thread safe.
+ */
+class Metrics {
+    /**
+     * A registry which records nothing and reports nothing.
+     */
+    static final Metrics DISABLED = new Metrics(false);
+
+    // Instruments handed out by the disabled registry
+    private static final Counter NO_COUNTER = new Counter(null);
+    private static final Histogram NO_HISTOGRAM = new Histogram(null);
+
+    private final boolean enabled;
+
+    // Guarded by the lock of the registry, sorted by name so that reports are easy to read
+    private final Map<String, Object> instruments;
+    private final Map<String, String> types;
+    private final List<Consumer<StringBuilder>> collectors;
+
+    /**
+     * Creates an enabled registry.
+     */
+    Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        instruments = new TreeMap<>();
+        types = new TreeMap<>();
+        collectors = new ArrayList<>();
+    }
+
+    /**
+     * @return True if the registry records anything.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param name The name of the counter, optionally followed by labels, such as name{label="value"}.
+     * @return The counter of the name, which only goes up. The same counter is returned for the same name.
+     */
+    Counter counter(String name) {
+        return enabled ? register(name, "counter", Counter.class, () -> new Counter(new LongAdder())) : NO_COUNTER;
+    }
+
+    /**
+     * @param name The name of the counter, optionally followed by labels, such as name{label="value"}.
+     * @return A counter of the name which goes both up and down, reported as a gauge. The same counter is returned
+     * for the same name.
+     */
+    Counter upDownCounter(String name) {
+        return enabled ? register(name, "gauge", Counter.class, () -> new Counter(new LongAdder())) : NO_COUNTER;
+    }
+
+    /**
+     * Registers a counter which is kept elsewhere, and read every time the registry is reported.
+     * @param name The name of the counter, optionally followed by labels, such as name{label="value"}.
+     * @param value Supplies the current count. Called from the thread reporting the registry.
+     */
+    synchronized void counter(String name, LongSupplier value) {
+        if (!enabled) return;
+        instruments.put(name, value);
+        types.put(family(name), "counter");
+    }
+
+    /**
+     * @return A counter which is not reported, for counts reported through a collector. Does nothing if the
+     * registry is disabled.
+     */
+    Counter detachedCounter() {
+        return enabled ? new Counter(new LongAdder()) : NO_COUNTER;
+    }
+
+    /**
+     * @param name The name of the histogram, without labels.
+     * @return The latency histogram of the name. The same histogram is returned for the same name.
+     */
+    Histogram histogram(String name) {
+        return enabled ? register(name, "histogram", Histogram.class, () -> new Histogram(newBuckets())) : NO_HISTOGRAM;
+    }
+
+    /**
+     * Registers a gauge, which is read every time the registry is reported. Replaces any gauge of the same name.
+     * @param name The name of the gauge, optionally followed by labels, such as name{label="value"}.
+     * @param value Supplies the current value of the gauge. Called from the thread reporting the registry.
+     */
+    synchronized void gauge(String name, LongSupplier value) {
+        if (!enabled) return;
+        instruments.put(name, value);
+        types.put(family(name), "gauge");
+    }
+
+    /**
+     * Registers a collector, which appends lines of its own to every report, after all instruments.
+     * @param collector Appends lines in the text format to the report. Called from the thread reporting the registry.
+     */
+    synchronized void collector(Consumer<StringBuilder> collector) {
+        if (enabled) collectors.add(collector);
+    }
+
+    /**
+     * Appends the current value of every instrument, in the text format read by Prometheus.
+     * @param sb Where to append the report.
+     */
+    void report(StringBuilder sb) {
+        Map<String, Object> snapshot;
+        Map<String, String> typeSnapshot;
+        List<Consumer<StringBuilder>> collectorSnapshot;
+        synchronized (this) {
+            snapshot = new TreeMap<>(instruments);
+            typeSnapshot = new TreeMap<>(types);
+            collectorSnapshot = new ArrayList<>(collectors);
+        }
+        Set<String> typed = new HashSet<>();
+        for (Map.Entry<String, Object> e : snapshot.entrySet()) {
+            String name = e.getKey();
+            String family = family(name);
+            if (typed.add(family)) {
+                sb.append("# TYPE ").append(family).append(' ').append(typeSnapshot.get(family)).append('\n');
+            }
+            Object instrument = e.getValue();
+            if (instrument instanceof Counter) {
+                sb.append(name).append(' ').append(((Counter) instrument).get()).append('\n');
+            } else if (instrument instanceof LongSupplier) {
+                sb.append(name).append(' ').append(((LongSupplier) instrument).getAsLong()).append('\n');
+            } else {
+                ((Histogram) instrument).report(name, sb);
+            }
+        }
+        for (Consumer<StringBuilder> collector : collectorSnapshot) collector.accept(sb);
+    }
+
+    /**
+     * @return The current value of every instrument, in the text format read by Prometheus.
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        report(sb);
+        return sb.toString();
+    }
+
+    private synchronized <T> T register(String name, String type, Class<T> kind, Supplier<T> create) {
+        Object instrument = instruments.get(name);
+        if (instrument == null) {
+            instrument = create.get();
+            instruments.put(name, instrument);
+            types.put(family(name), type);
+        } else if (!kind.isInstance(instrument) || !type.equals(types.get(family(name)))) {
+            throw new IllegalArgumentException(
+                    "Metric " + name + " is already registered as a " + types.get(family(name)));
+        }
+        return kind.cast(instrument);
+    }
+
+    // The name without labels
+    private static String family(String name) {
+        int labels = name.indexOf('{');
+        return labels < 0 ? name : name.substring(0, labels);
+    }
+
+    private static LongAdder[] newBuckets() {
+        LongAdder[] buckets = new LongAdder[Histogram.BUCKETS + 1];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        return buckets;
+    }
+
+    /**
+     * A count which is cheap to update from many threads at once.
+     */
+    static final class Counter {
+        private final LongAdder adder; // null if disabled
+
+        private Counter(LongAdder adder) {
+            this.adder = adder;
+        }
+
+        void increment() {
+            if (adder != null) adder.increment();
+        }
+
+        void decrement() {
+            if (adder != null) adder.decrement();
+        }
+
+        void add(long n) {
+            if (adder != null) adder.add(n);
+        }
+
+        /**
+         * @return The current count, 0 if disabled.
+         */
+        long get() {
+            return adder == null ? 0 : adder.sum();
+        }
+    }
+
+    /**
+     * A histogram of latencies, with buckets doubling from one microsecond up to about a second. Time a piece of
+     * work by calling start before it and recordSince after it.
+     */
+    static final class Histogram {
+        // The upper bound of bucket i is 2^i microseconds, the last bucket has no upper bound
+        private static final int BUCKETS = 21;
+        private static final String[] BOUNDS = new String[BUCKETS]; // in seconds, as reported
+
+        static {
+            for (int i = 0; i < BUCKETS; i++) BOUNDS[i] = BigDecimal.valueOf(1L << i, 6).toPlainString();
+        }
+
+        private final LongAdder[] buckets; // null if disabled
+        private final LongAdder sumNanos;
+
+        private Histogram(LongAdder[] buckets) {
+            this.buckets = buckets;
+            sumNanos = buckets == null ? null : new LongAdder();
+        }
+
+        /**
+         * @return The time to pass to recordSince, 0 if disabled.
+         */
+        long start() {
+            return buckets == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Records the time since a call to start.
+         * @param start The value returned by start.
+         */
+        void recordSince(long start) {
+            if (buckets != null) record(System.nanoTime() - start);
+        }
+
+        /**
+         * @param nanos A latency in nanoseconds.
+         */
+        void record(long nanos) {
+            if (buckets == null) return;
+            // The smallest i such that the latency is at most 2^i microseconds
+            long micros = (Math.max(0, nanos) + 999) / 1000;
+            int bucket = micros <= 1 ? 0 : Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(micros - 1));
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Estimates a quantile of the latencies recorded so far, by interpolating linearly within the bucket holding
+         * it, as histogram_quantile of Prometheus does. Latencies beyond the last bucket are reported as its bound.
+         * @param q The quantile, from 0 to 1, such as 0.99.
+         * @return The estimated latency in nanoseconds, 0 if nothing was recorded or the histogram is disabled.
+         */
+        long quantileNanos(double q) {
+            if (buckets == null) return 0;
+            long[] counts = new long[BUCKETS + 1];
+            long total = 0;
+            for (int i = 0; i <= BUCKETS; i++) total += counts[i] = buckets[i].sum();
+            if (total == 0) return 0;
+            double rank = q * total;
+            long below = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0 && below + counts[i] >= rank) {
+                    long lower = i == 0 ? 0 : 1000L << (i - 1);
+                    long upper = 1000L << i;
+                    return lower + (long) ((upper - lower) * ((rank - below) / counts[i]));
+                }
+                below += counts[i];
+            }
+            return 1000L << (BUCKETS - 1);
+        }
+
+        // Buckets are cumulative in the text format, with bounds in seconds
+        private void report(String name, StringBuilder sb) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets[i].sum();
+                sb.append(name).append("_bucket{le=\"").append(BOUNDS[i]).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += buckets[BUCKETS].sum();
+            sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum ").append(sumNanos.sum() / 1e9).append('\n');
+            sb.append(name).append("_count ").append(cumulative).append('\n');
+        }
+    }
+}
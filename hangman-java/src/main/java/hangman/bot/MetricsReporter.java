@@ -0,0 +1,77 @@
+package hangman.bot;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the metrics of the bot visible outside the process, either on a local HTTP endpoint which Prometheus can
+ * scrape, or by printing them periodically, or both.
+ */
+class MetricsReporter {
+    static final String PATH = "/metrics";
+
+    private final Metrics metrics;
+    private HttpServer server;
+    private ScheduledExecutorService logger;
+
+    /**
+     * @param metrics The metrics to report.
+     */
+    MetricsReporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Serves the metrics at http://localhost:port/metrics. The endpoint only listens on the loopback address, so it
+     * is not reachable from other machines.
+     * @param port The port to listen on.
+     * @throws IOException If the port can not be bound.
+     */
+    synchronized void startHttp(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("Already serving metrics");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, exchange -> {
+            byte[] body = metrics.report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        // Scrapes are rare, so the thread of the server is enough
+        server.start();
+    }
+
+    /**
+     * Prints the metrics to standard out with a fixed period.
+     * @param periodSeconds The time between reports, in seconds.
+     */
+    synchronized void startLog(long periodSeconds) {
+        if (logger != null) throw new IllegalStateException("Already logging metrics");
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hangman-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.scheduleAtFixedRate(() -> System.out.print(metrics.report()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops serving and printing the metrics.
+     */
+    synchronized void stop() {
+        if (server != null) server.stop(0);
+        if (logger != null) logger.shutdown();
+        server = null;
+        logger = null;
+    }
+}
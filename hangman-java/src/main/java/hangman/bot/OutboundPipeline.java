@@ -0,0 +1,283 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the messages of the virtual bots to their channels. Discord limits how many messages a bot may send per
+ * channel, and a single guess used to produce up to three messages. Instead, messages to a channel are collected
+ * for a short window and then sent as one message. If a newer game state is sent within the window, the older one
+ * is dropped. Each channel also has a budget of messages, refilled over time, and payloads wait for the budget
+ * before they are handed to the api. Thread safe.
+ */
+class OutboundPipeline {
+    // Discord refuses longer messages
+    static final int MAX_MESSAGE_LENGTH = 2000;
+
+    // Starts and ends a code block, such as the one around the hangman art
+    private static final String FENCE = "```";
+
+    // Defaults matching the documented per-channel limit of discord, 5 messages per 5 seconds
+    static final long DEFAULT_WINDOW_MILLIS = 150;
+    static final int DEFAULT_BURST = 5;
+    static final long DEFAULT_REFILL_MILLIS = 1000;
+
+    private final long windowMillis;
+    private final int burst;
+    private final long refillMillis;
+
+    private final StripedLongMap<Outbox> outboxes;
+    private final ScheduledExecutorService scheduler;
+
+    private final Metrics.Counter queuedMessages;
+    private final Metrics.Counter sentPayloads;
+
+    /**
+     * Creates a pipeline with the default window and rate limit.
+     */
+    OutboundPipeline() {
+        this(Metrics.DISABLED);
+    }
+
+    /**
+     * Creates a pipeline with the default window and rate limit, which records its metrics in the given registry.
+     * @param metrics Where to record how many messages are waiting and sent.
+     */
+    OutboundPipeline(Metrics metrics) {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_BURST, DEFAULT_REFILL_MILLIS, metrics);
+    }
+
+    /**
+     * @param windowMillis How long messages to a channel are collected before they are sent.
+     * @param burst The maximum number of messages sent to a channel in quick succession.
+     * @param refillMillis How long it takes to earn back one message of the budget of a channel.
+     * @param metrics Where to record how many messages are waiting and sent.
+     */
+    OutboundPipeline(long windowMillis, int burst, long refillMillis, Metrics metrics) {
+        if (windowMillis < 0 || burst < 1 || refillMillis < 1) {
+            throw new IllegalArgumentException("windowMillis must be non-negative, burst and refillMillis positive");
+        }
+        this.windowMillis = windowMillis;
+        this.burst = burst;
+        this.refillMillis = refillMillis;
+        outboxes = new StripedLongMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hangman-outbound");
+            t.setDaemon(true);
+            return t;
+        });
+        queuedMessages = metrics.upDownCounter("hangman_outbound_queued_messages");
+        sentPayloads = metrics.counter("hangman_outbound_sent_total");
+        metrics.gauge("hangman_outbound_channels", this::getChannelCount);
+    }
+
+    /**
+     * Queues a message to a channel.
+     * @param channel The channel to send the message to.
+     * @param text The message.
+     */
+    void send(MessageChannel channel, String text) {
+        send(channel.getIdLong(), MessageSink.of(channel), text, false);
+    }
+
+    /**
+     * Queues a game state message to a channel. A newer game state sent before this one is sent replaces it.
+     * @param channel The channel to send the message to.
+     * @param state The game state message.
+     */
+    void sendState(MessageChannel channel, String state) {
+        send(channel.getIdLong(), MessageSink.of(channel), state, true);
+    }
+
+    /**
+     * Queues a message to a channel, which is sent through the sink given the first time the channel is used.
+     * @param channelId The id of the channel.
+     * @param sink Where to send messages to the channel.
+     * @param text The message.
+     * @param isState True if the message is a game state, which is replaced by a newer game state.
+     */
+    void send(long channelId, MessageSink sink, String text, boolean isState) {
+        Outbox o = outboxes.computeIfAbsent(channelId, id -> new Outbox(id, sink));
+        while (!o.add(text, isState)) {
+            // The outbox was closed after we got it, so replace it with a fresh one
+            outboxes.remove(channelId, o);
+            o = outboxes.computeIfAbsent(channelId, id -> new Outbox(id, sink));
+        }
+    }
+
+    /**
+     * @return The number of channels with messages waiting or a budget that is not full.
+     */
+    int getChannelCount() {
+        return outboxes.size();
+    }
+
+    /**
+     * Stops the thread sending delayed messages. Messages still waiting are dropped.
+     */
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /* The messages waiting to be sent to a single channel, and its budget. All state is guarded by
+    the lock of the outbox. */
+    private final class Outbox {
+        private final long channelId;
+        private final MessageSink sink;
+        private final List<String> pending;
+        private int stateIndex; // index of the game state in pending, -1 if there is none
+        private boolean flushScheduled;
+        private ScheduledFuture<?> release; // checks if the outbox can be let go of once its budget is full
+        private boolean closed;
+
+        // The budget is a token bucket, refilled lazily when used
+        private double tokens;
+        private long lastRefill;
+
+        Outbox(long channelId, MessageSink sink) {
+            this.channelId = channelId;
+            this.sink = sink;
+            pending = new ArrayList<>(4);
+            stateIndex = -1;
+            tokens = burst;
+            lastRefill = System.nanoTime();
+        }
+
+        // Returns false if the outbox is closed and the message was refused
+        synchronized boolean add(String text, boolean isState) {
+            if (closed) return false;
+            if (isState) {
+                if (stateIndex >= 0) {
+                    pending.remove(stateIndex);
+                    queuedMessages.decrement();
+                }
+                stateIndex = pending.size();
+            }
+            pending.add(text);
+            queuedMessages.increment();
+            if (!flushScheduled) {
+                flushScheduled = true;
+                if (release != null) {
+                    release.cancel(false);
+                    release = null;
+                }
+                scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        // Sends as much as the budget allows, and schedules itself again for the rest
+        private void flush() {
+            List<String> payloads = new ArrayList<>(1);
+            synchronized (this) {
+                flushScheduled = false;
+                refill();
+                while (tokens >= 1 && !pending.isEmpty()) {
+                    payloads.add(takePayload());
+                    tokens--;
+                }
+                if (!pending.isEmpty()) {
+                    // Wait until the next message is earned back
+                    flushScheduled = true;
+                    scheduler.schedule(this::flush, millisUntil(1), TimeUnit.MILLISECONDS);
+                } else {
+                    releaseIfFull();
+                }
+            }
+            // The scheduler has a single thread, so payloads to a channel are handed over in order
+            for (String payload : payloads) sink.send(payload);
+            sentPayloads.add(payloads.size());
+        }
+
+        // Lets go of the outbox if nothing is pending and the budget is full, or checks back once it is
+        private synchronized void releaseIfFull() {
+            release = null;
+            if (flushScheduled || closed) return;
+            refill();
+            if (tokens >= burst) {
+                closed = true;
+                outboxes.remove(channelId, this);
+            } else {
+                release = scheduler.schedule(this::releaseIfFull, millisUntil(burst), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // The time until the budget has the given number of messages
+        private long millisUntil(int target) {
+            return Math.max(1, (long) Math.ceil((target - tokens) * refillMillis));
+        }
+
+        // Joins as many pending messages as fit in one message, splitting a single message if it is too long
+        private String takePayload() {
+            StringBuilder sb = new StringBuilder();
+            int taken = 0;
+            while (taken < pending.size()) {
+                String next = pending.get(taken);
+                int length = sb.length() + (taken > 0 ? 1 : 0) + next.length();
+                if (length > MAX_MESSAGE_LENGTH) {
+                    if (taken > 0) break;
+                    int cut = cutPoint(next);
+                    sb.append(next, 0, cut);
+                    // The newline cut at is dropped, since each payload starts on a line of its own anyway
+                    String rest = next.substring(next.charAt(cut) == '\n' ? cut + 1 : cut);
+                    if (openFence(next, cut) >= 0) {
+                        // Each part is sent as a message of its own, so each needs a whole code block
+                        sb.append('\n').append(FENCE);
+                        rest = FENCE + "\n" + rest;
+                    }
+                    pending.set(0, rest);
+                    // Only the rest of the game state is left, which a newer one must not replace on its own
+                    if (stateIndex == 0) stateIndex = -1;
+                    return sb.toString();
+                }
+                if (taken > 0) sb.append('\n');
+                sb.append(next);
+                taken++;
+            }
+            pending.subList(0, taken).clear();
+            queuedMessages.add(-taken);
+            stateIndex = stateIndex >= taken ? stateIndex - taken : -1;
+            return sb.toString();
+        }
+
+        /* Where to split a message too long to send whole: at its last newline within the limit, so that no line,
+        such as one of the hangman art, is cut in two, or else at the limit, but never within a surrogate pair. A cut
+        within a code block leaves room to close the block, and keeps some of its content before the cut. */
+        private int cutPoint(String text) {
+            int cut = cutPoint(text, MAX_MESSAGE_LENGTH, 0);
+            int open = openFence(text, cut);
+            if (open < 0) return cut;
+            return cutPoint(text, MAX_MESSAGE_LENGTH - 1 - FENCE.length(), open + FENCE.length());
+        }
+
+        // Cuts at the last newline after from and within the limit, or else at the limit
+        private int cutPoint(String text, int limit, int from) {
+            int newline = text.lastIndexOf('\n', limit);
+            if (newline > from) return newline;
+            return Character.isSurrogatePair(text.charAt(limit - 1), text.charAt(limit)) ? limit - 1 : limit;
+        }
+
+        // The start of the code block left open by text[0, end), or -1 if every code block there is closed
+        private int openFence(String text, int end) {
+            int open = -1;
+            for (int i = text.indexOf(FENCE); i >= 0 && i + FENCE.length() <= end;
+                 i = text.indexOf(FENCE, i + FENCE.length())) {
+                open = open < 0 ? i : -1;
+            }
+            return open;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            double earned = (double) (now - lastRefill) / TimeUnit.MILLISECONDS.toNanos(refillMillis);
+            tokens = Math.min(burst, tokens + earned);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package hangman.bot;
+
+/**
+ * What a mailbox does with an event posted while it is full. Whatever the policy, the number of events
+ * queued for a game session never exceeds the capacity of its mailbox. Each channel with a session has a mailbox of
+ * its own, so the events queued for a guild are bounded by the capacity times the number of its sessions.
+ */
+public enum OverflowPolicy {
+    /**
+     * The oldest queued event is dropped to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new event is dropped.
+     */
+    DROP_NEWEST,
+
+    /**
+     * If the same user already has a guess queued in the same channel, it is replaced by the new one. Otherwise,
+     * the new event is dropped.
+     */
+    COALESCE_GUESSES
+}
@@ -0,0 +1,280 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+import java.text.Normalizer;
+
+/**
+ * A message event together with the result of parsing its content, which is done once when the message arrives and
+ * then shared by every handler. Most messages are ordinary chat, so recognising a command only looks at the first few
+ * characters, and neither regular expressions nor intermediate strings are used. Everything beyond the command is
+ * parsed on demand by the handler that needs it.
+ */
+class ParsedMessage {
+
+    /* Messages are either one of the commands, or text which may be a guess or setup details
+    depending on the state of the game session. */
+    enum kind {START, RESET, STATS, TEXT}
+
+    // Asks for a random word when following the start command
+    static final String RANDOM = "random";
+
+    private final MessageReceivedEvent event;
+    private final String content;
+    private final kind messageKind;
+
+    // The content without leading and trailing whitespace is content[start, end)
+    private final int start;
+    private final int end;
+
+    // When the message reached the bot, in the time of System.nanoTime, or 0 if not timed
+    private final long receivedNanos;
+
+    private ParsedMessage(MessageReceivedEvent event, String content, kind messageKind, int start, int end,
+                          long receivedNanos) {
+        this.event = event;
+        this.content = content;
+        this.messageKind = messageKind;
+        this.start = start;
+        this.end = end;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * @param event The event of a received message.
+     * @return The event with its content parsed.
+     */
+    static ParsedMessage parse(MessageReceivedEvent event) {
+        return parse(event, 0);
+    }
+
+    /**
+     * @param event The event of a received message.
+     * @param receivedNanos When the message reached the bot, as given by System.nanoTime, or 0 if not timed.
+     * @return The event with its content parsed.
+     */
+    static ParsedMessage parse(MessageReceivedEvent event, long receivedNanos) {
+        String content = event.getMessage().getContentRaw();
+        int start = 0;
+        int end = content.length();
+        while (start < end && content.charAt(start) <= ' ') start++;
+        while (end > start && content.charAt(end - 1) <= ' ') end--;
+        return new ParsedMessage(event, content, kindOf(content, start, end), start, end, receivedNanos);
+    }
+
+    // A command is its first word, compared without case
+    private static kind kindOf(String content, int start, int end) {
+        if (start == end || content.charAt(start) != '!') return kind.TEXT;
+        if (isWord(content, start, end, VirtualBot.START_COMMAND)) return kind.START;
+        if (isWord(content, start, end, VirtualBot.RESET_COMMAND)) return kind.RESET;
+        if (isWord(content, start, end, VirtualBot.STATS_COMMAND)) return kind.STATS;
+        return kind.TEXT;
+    }
+
+    // True if the word at start is the given lower case word, followed by whitespace or the end
+    private static boolean isWord(String content, int start, int end, String word) {
+        int wordEnd = start + word.length();
+        return wordEnd <= end && content.regionMatches(true, start, word, 0, word.length())
+                && (wordEnd == end || isWhitespace(content.charAt(wordEnd)));
+    }
+
+    /**
+     * @return The event of the message.
+     */
+    MessageReceivedEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * @return When the message reached the bot, as given by System.nanoTime, or 0 if not timed.
+     */
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * @return The kind of the message.
+     */
+    kind getKind() {
+        return messageKind;
+    }
+
+    /**
+     * @return True if the message is one of the commands of the bot.
+     */
+    boolean isCommand() {
+        return messageKind != kind.TEXT;
+    }
+
+    /**
+     * @return True if the message has no text but whitespace, such as a message with only an attachment or a sticker.
+     */
+    boolean isEmpty() {
+        return start == end;
+    }
+
+    /**
+     * Reads the message as a guess for a single letter: one code point, which may take two chars, such as an emoji,
+     * or a letter followed by combining accents which compose into one code point.
+     * @return The code point of the letter in upper case, or -1 if the message is not a single letter.
+     */
+    int getUpperCaseLetter() {
+        int length = end - start;
+        if (length == 0) return -1;
+        if (length == 1) {
+            char c = content.charAt(start);
+            if (c >= 'a' && c <= 'z') return c - 'a' + 'A';
+            return c < 0x80 ? c : Character.toUpperCase(c);
+        }
+        int c = content.codePointAt(start);
+        if (Character.charCount(c) == length) return Character.toUpperCase(c);
+        // Only messages with combining marks can compose into fewer code points, others are words
+        if (Character.getType(content.codePointAt(start + Character.charCount(c))) != Character.NON_SPACING_MARK) {
+            return -1;
+        }
+        String composed = Normalizer.normalize(content.substring(start, end), Normalizer.Form.NFC);
+        c = composed.codePointAt(0);
+        return Character.charCount(c) == composed.length() ? Character.toUpperCase(c) : -1;
+    }
+
+    /**
+     * @return The message without surrounding whitespace, in upper case.
+     */
+    String upperCase() {
+        return content.substring(start, end).toUpperCase();
+    }
+
+    /**
+     * Reads the message as setup details: a number of allowed fails followed by a word or sentence to guess.
+     * Punctuation is ignored, and any whitespace between words becomes a single space.
+     * @return The setup details, which may be incomplete.
+     */
+    SetupDetails parseSetup() {
+        int i = start;
+        int fails = -1;
+        boolean digitsOnly = true;
+
+        // The first word is the number of fails
+        int value = 0;
+        boolean hasDigits = false;
+        for (; i < end && !isWhitespace(content.charAt(i)); i++) {
+            char c = content.charAt(i);
+            if (isPunctuation(c)) continue;
+            int digit = Character.digit(c, 10);
+            if (digit < 0) {
+                digitsOnly = false;
+            } else {
+                hasDigits = true;
+                // Capped so that long numbers stay out of range instead of overflowing
+                value = Math.min(value * 10 + digit, 10000);
+            }
+        }
+        if (hasDigits && digitsOnly) fails = value;
+
+        // The rest of the words are the sentence
+        StringBuilder sb = new StringBuilder(end - i);
+        boolean space = false;
+        for (; i < end; i++) {
+            char c = content.charAt(i);
+            if (isPunctuation(c)) continue;
+            if (isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        String sentence = sb.length() == 0 ? null : sb.toString().toUpperCase();
+        return new SetupDetails(fails, sentence);
+    }
+
+    /**
+     * Reads the words after the start command: random, optionally followed by a word length and a category, asks for
+     * a game with a random word. Anything else asks for a game set up by the user.
+     * @return The start details, with a length of -1 if the length was not a number in range.
+     */
+    StartDetails parseStart() {
+        int i = start + VirtualBot.START_COMMAND.length();
+        int[] word = new int[2];
+        i = nextWord(i, word);
+        boolean random = word[1] - word[0] == RANDOM.length()
+                && content.regionMatches(true, word[0], RANDOM, 0, RANDOM.length());
+        if (!random) return new StartDetails(false, 0, null);
+
+        int length = 0;
+        String category = null;
+        i = nextWord(i, word);
+        if (word[0] < word[1] && Character.isDigit(content.charAt(word[0]))) {
+            length = -1;
+            int value = 0;
+            for (int j = word[0]; j < word[1]; j++) {
+                int digit = Character.digit(content.charAt(j), 10);
+                if (digit < 0) {
+                    value = -1;
+                    break;
+                }
+                value = Math.min(value * 10 + digit, 10000);
+            }
+            if (1 <= value && value <= WordIndex.MAX_WORD_LENGTH) length = value;
+            nextWord(i, word);
+        }
+        if (word[0] < word[1]) category = content.substring(word[0], word[1]);
+        return new StartDetails(true, length, category);
+    }
+
+    // Finds the next word from i, storing its start and end in word, and returns the end. Both are end if none.
+    private int nextWord(int i, int[] word) {
+        while (i < end && isWhitespace(content.charAt(i))) i++;
+        word[0] = i;
+        while (i < end && !isWhitespace(content.charAt(i))) i++;
+        word[1] = i;
+        return i;
+    }
+
+    /**
+     * What kind of game a start command asks for.
+     */
+    static class StartDetails {
+        // True for a game with a word picked by the bot, false for a game set up by the user
+        final boolean random;
+
+        // The length of the random word, 0 for any length and -1 if it was not a valid length
+        final int length;
+
+        // The category of the random word, null for any category
+        final String category;
+
+        StartDetails(boolean random, int length, String category) {
+            this.random = random;
+            this.length = length;
+            this.category = category;
+        }
+    }
+
+    /**
+     * The setup details of a game as sent by the user setting it up.
+     */
+    static class SetupDetails {
+        // -1 if the message did not start with a number
+        final int fails;
+
+        // null if the message had no sentence
+        final String sentence;
+
+        SetupDetails(int fails, String sentence) {
+            this.fails = fails;
+            this.sentence = sentence;
+        }
+    }
+
+    // The characters matched by \p{Punct}
+    private static boolean isPunctuation(char c) {
+        return c >= '!' && c <= '/' || c >= ':' && c <= '@' || c >= '[' && c <= '`' || c >= '{' && c <= '~';
+    }
+
+    // The characters matched by \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,99 @@
+package hangman.bot;
+
+/**
+ * An index from users to the game sessions waiting for them to send setup details in a private message. Private
+ * messages carry no guild or channel, so this is how the VirtualBotManager finds the sessions which need one. A user
+ * only appears in the index while at least one session is in the setup state with that user as the starting user.
+ * Thread safe.
+ */
+class PendingSetups {
+    private static final long[] NONE = new long[0];
+
+    /* The sessions of a user are stored as pairs of guild and channel ids, in an array which is replaced,
+    never modified, so readers need no lock. */
+    private final StripedLongMap<long[]> sessionsByUser;
+
+    // False while private messages go to another process, so setup details would never arrive
+    private volatile boolean reachable;
+
+    PendingSetups() {
+        sessionsByUser = new StripedLongMap<>();
+        reachable = true;
+    }
+
+    /**
+     * @param reachable False if private messages are not received by this process, so that sessions can not wait
+     *                  for setup details, true otherwise.
+     */
+    void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    /**
+     * @return True if setup details sent by private message reach the sessions of this index.
+     */
+    boolean isReachable() {
+        return reachable;
+    }
+
+    /**
+     * Records that a session is waiting for setup details from a user. Adding the same session twice has no effect.
+     * @param userId The id of the user who started the setup.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     */
+    void add(long userId, long guildId, long channelId) {
+        sessionsByUser.compute(userId, (u, sessions) -> {
+            if (sessions == null) return new long[]{guildId, channelId};
+            for (int i = 0; i < sessions.length; i += 2) {
+                if (sessions[i] == guildId && sessions[i + 1] == channelId) return sessions;
+            }
+            long[] r = new long[sessions.length + 2];
+            System.arraycopy(sessions, 0, r, 0, sessions.length);
+            r[sessions.length] = guildId;
+            r[sessions.length + 1] = channelId;
+            return r;
+        });
+    }
+
+    /**
+     * Records that a session is no longer waiting for setup details from a user. Has no effect if it was not.
+     * @param userId The id of the user who started the setup.
+     * @param guildId The id of the guild of the session.
+     * @param channelId The id of the channel of the session.
+     */
+    void remove(long userId, long guildId, long channelId) {
+        sessionsByUser.compute(userId, (u, sessions) -> {
+            if (sessions == null) return null;
+            int n = 0;
+            long[] r = new long[sessions.length];
+            for (int i = 0; i < sessions.length; i += 2) {
+                if (sessions[i] == guildId && sessions[i + 1] == channelId) continue;
+                r[n++] = sessions[i];
+                r[n++] = sessions[i + 1];
+            }
+            if (n == sessions.length) return sessions;
+            if (n == 0) return null;
+            long[] trimmed = new long[n];
+            System.arraycopy(r, 0, trimmed, 0, n);
+            return trimmed;
+        });
+    }
+
+    /**
+     * @param userId The id of a user.
+     * @return The sessions waiting for setup details from the user, as pairs of guild and channel ids in
+     * consecutive elements. Must not be modified.
+     */
+    long[] sessionsFor(long userId) {
+        long[] sessions = sessionsByUser.get(userId);
+        return sessions == null ? NONE : sessions;
+    }
+
+    /**
+     * @return The number of users with at least one pending setup.
+     */
+    int userCount() {
+        return sessionsByUser.size();
+    }
+}
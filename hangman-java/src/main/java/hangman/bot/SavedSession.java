@@ -0,0 +1,88 @@
+package hangman.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a game session as read back from the journal: who started it, and if the game has been set up, the
+ * sentence, the number of allowed fails and every guess made so far. Replaying the guesses on a new Game gives the
+ * exact game that was being played. Sessions in the IDLE state are never saved, since they have nothing to restore.
+ */
+class SavedSession {
+    final long guildId;
+    final long channelId;
+    final long userId;
+    final String userName;
+
+    // Only set once the game has been set up
+    private String sentence;
+    private int failsAllowed;
+
+    // Letters are Integer code points and words are Strings, in the order they were guessed
+    private final List<Object> guesses;
+
+    SavedSession(long guildId, long channelId, long userId, String userName) {
+        this.guildId = guildId;
+        this.channelId = channelId;
+        this.userId = userId;
+        this.userName = userName;
+        guesses = new ArrayList<>();
+    }
+
+    /**
+     * @return True if the game has been set up, false if the session waits for setup details.
+     */
+    boolean isPlaying() {
+        return sentence != null;
+    }
+
+    /**
+     * @return The sentence to guess, or null if the game has not been set up.
+     */
+    String getSentence() {
+        return sentence;
+    }
+
+    /**
+     * @return The number of fails allowed in the game, only valid if it has been set up.
+     */
+    int getFailsAllowed() {
+        return failsAllowed;
+    }
+
+    /**
+     * @return The guesses made so far, Integer code points for letters and Strings for words. Must not be
+     * modified.
+     */
+    List<Object> getGuesses() {
+        return guesses;
+    }
+
+    void setUp(String sentence, int failsAllowed) {
+        this.sentence = sentence;
+        this.failsAllowed = failsAllowed;
+    }
+
+    void guessLetter(int letter) {
+        guesses.add(letter);
+    }
+
+    void guessWord(String word) {
+        guesses.add(word);
+    }
+
+    /**
+     * @return A new game in the state the saved game was in.
+     */
+    Game replay() {
+        Game game = new Game(sentence, failsAllowed);
+        for (Object guess : guesses) {
+            if (guess instanceof Integer) {
+                game.guessLetter((Integer) guess);
+            } else {
+                game.guessWord((String) guess);
+            }
+        }
+        return game;
+    }
+}
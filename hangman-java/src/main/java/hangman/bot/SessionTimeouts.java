@@ -0,0 +1,86 @@
+package hangman.bot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a game session may wait for its setup details, or for the next guess of its game, before it is reset,
+ * and how long before that it warns the channel. Every session of a manager arms its timer on the same timing
+ * wheel, so a session being played only writes a new time to its timer on each guess, and the wheel needs a single
+ * thread however many sessions there are. Thread safe.
+ */
+class SessionTimeouts {
+    static final long DEFAULT_SETUP_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final long DEFAULT_SETUP_WARNING_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    static final long DEFAULT_PLAYING_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    static final long DEFAULT_PLAYING_WARNING_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // Sessions never time out, and arm no timer
+    static final SessionTimeouts DISABLED = new SessionTimeouts(0, 0, 0, 0, null);
+
+    // How long a session may wait in each state, and how long before it times out it warns, in milliseconds
+    final long setupMillis;
+    final long setupWarningMillis;
+    final long playingMillis;
+    final long playingWarningMillis;
+
+    private final TimingWheel wheel; // null if disabled
+
+    /**
+     * Creates timeouts of the default durations, on a timing wheel of its own.
+     * @param metrics Where to report the number of timers in the wheel.
+     */
+    SessionTimeouts(Metrics metrics) {
+        this(DEFAULT_SETUP_MILLIS, DEFAULT_SETUP_WARNING_MILLIS, DEFAULT_PLAYING_MILLIS,
+                DEFAULT_PLAYING_WARNING_MILLIS, new TimingWheel(metrics));
+    }
+
+    /**
+     * @param setupMillis How long a session may wait for the setup details of its game.
+     * @param setupWarningMillis How long before the setup times out to warn the starting user, 0 to not warn.
+     * @param playingMillis How long a game may go without a guess.
+     * @param playingWarningMillis How long before the game times out to warn the channel, 0 to not warn.
+     * @param wheel The wheel the timers of the sessions are armed on, which should tick a lot more often than the
+     *              warnings are apart from the timeouts.
+     */
+    SessionTimeouts(long setupMillis, long setupWarningMillis, long playingMillis, long playingWarningMillis,
+                    TimingWheel wheel) {
+        if (wheel != null && (setupMillis <= setupWarningMillis || playingMillis <= playingWarningMillis
+                || setupWarningMillis < 0 || playingWarningMillis < 0)) {
+            throw new IllegalArgumentException("timeouts must be positive and longer than their warnings");
+        }
+        this.setupMillis = setupMillis;
+        this.setupWarningMillis = setupWarningMillis;
+        this.playingMillis = playingMillis;
+        this.playingWarningMillis = playingWarningMillis;
+        this.wheel = wheel;
+    }
+
+    /**
+     * @return False if sessions never time out.
+     */
+    boolean isEnabled() {
+        return wheel != null;
+    }
+
+    /**
+     * @return The time in milliseconds on the clock the timers are armed with. Only call if enabled.
+     */
+    long now() {
+        return wheel.now();
+    }
+
+    /**
+     * @param task Run on the thread of the wheel each time the timer is due, which must only hand the work over.
+     * @return A timer which is not armed yet, or null if disabled.
+     */
+    TimingWheel.Timer newTimer(Runnable task) {
+        return wheel == null ? null : wheel.newTimer(task);
+    }
+
+    /**
+     * Stops the thread of the wheel, after which no session times out.
+     */
+    void shutdown() {
+        if (wheel != null) wheel.shutdown();
+    }
+}
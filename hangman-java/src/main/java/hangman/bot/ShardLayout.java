@@ -0,0 +1,119 @@
+package hangman.bot;
+
+/**
+ * Which shards of the bot a process runs. Discord splits the guilds of a bot over its shards by the creation time
+ * in the id of each guild, so the shard of a guild only depends on the id and the total number of shards, and every
+ * process agrees on which process owns a guild without asking the others. A process owns a range of consecutive
+ * shards, which may be empty. Immutable.
+ */
+final class ShardLayout {
+    private final int total;
+    private final int first;
+    private final int last; // first - 1 if the range is empty
+
+    /**
+     * @param total The total number of shards of the bot, over all processes.
+     * @param first The first shard owned.
+     * @param last The last shard owned, or first - 1 to own none.
+     */
+    ShardLayout(int total, int first, int last) {
+        if (total < 1 || first < 0 || last < first - 1 || last >= total) {
+            throw new IllegalArgumentException("Shards " + first + " to " + last + " are not a range of 0 to "
+                    + (total - 1));
+        }
+        this.total = total;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Splits the shards as evenly as possible between processes, each getting a consecutive range.
+     * @param total The total number of shards of the bot.
+     * @param process The number of this process, from 0.
+     * @param processes The number of processes, at most the number of shards.
+     * @return The shards owned by the process.
+     */
+    static ShardLayout forProcess(int total, int process, int processes) {
+        if (processes < 1 || processes > total || process < 0 || process >= processes) {
+            throw new IllegalArgumentException("Process " + process + " of " + processes + " can not share "
+                    + total + " shards");
+        }
+        return new ShardLayout(total, (int) ((long) process * total / processes),
+                (int) ((long) (process + 1) * total / processes) - 1);
+    }
+
+    /**
+     * @param guildId The id of a guild.
+     * @param total The total number of shards.
+     * @return The shard which receives the events of the guild, as computed by discord.
+     */
+    static int shardOf(long guildId, int total) {
+        return (int) ((guildId >>> 22) % total);
+    }
+
+    /**
+     * @return A layout of the same shards, owning none of them.
+     */
+    ShardLayout none() {
+        return new ShardLayout(total, 0, -1);
+    }
+
+    /**
+     * @param other A layout with the same total number of shards.
+     * @return A layout owning the shards owned by both layouts.
+     */
+    ShardLayout intersect(ShardLayout other) {
+        checkSameTotal(other);
+        int f = Math.max(first, other.first);
+        int l = Math.min(last, other.last);
+        return l < f ? none() : new ShardLayout(total, f, l);
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    int getFirst() {
+        return first;
+    }
+
+    int getLast() {
+        return last;
+    }
+
+    /**
+     * @param guildId The id of a guild.
+     * @return The shard of the guild.
+     */
+    int shardOf(long guildId) {
+        return shardOf(guildId, total);
+    }
+
+    /**
+     * @param shard A shard of the bot.
+     * @return True if the shard is owned.
+     */
+    boolean owns(int shard) {
+        return first <= shard && shard <= last;
+    }
+
+    /**
+     * @param guildId The id of a guild.
+     * @return True if the shard of the guild is owned.
+     */
+    boolean ownsGuild(long guildId) {
+        return owns(shardOf(guildId));
+    }
+
+    private void checkSameTotal(ShardLayout other) {
+        if (other.total != total) {
+            throw new IllegalArgumentException("Layouts of " + total + " and " + other.total + " shards");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (last < first) return "none of " + total + " shards";
+        return "shards " + first + " to " + last + " of " + total;
+    }
+}
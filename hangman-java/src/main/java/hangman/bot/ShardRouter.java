@@ -0,0 +1,243 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the events of the shards owned by this process to its VirtualBotManager, which is the partition of the
+ * guilds of those shards, and drops events of guilds owned by other processes. Ownership follows the ShardLayout,
+ * so it is decided by the guild id alone. Private messages carry no guild, and are always passed on: the manager
+ * only hands them to sessions waiting for setup details from their author. Discord only sends them to shard 0, so
+ * the manager of a process without shard 0 only starts games with a random word.
+ *
+ * When shards move between processes, the sessions of their guilds are handed over through files in a directory
+ * shared by the processes, in the format of the journal. The previous owner writes them when it releases the
+ * shards, and the next owner reads them when it acquires the shards, before it receives their events. Each file is
+ * claimed by renaming it before it is read, so a session is only ever taken over by one process. Thread safe.
+ */
+class ShardRouter extends ListenerAdapter {
+    private static final String HANDOFF = "handoff-";
+    private static final String HANDOFF_SUFFIX = ".snap";
+    private static final String CLAIMED_SUFFIX = ".claimed";
+
+    private final VirtualBotManager manager;
+    private final Path handoffDir; // null if sessions are not handed over
+    private final Metrics.Counter notOwned;
+    private final Metrics.Counter events;
+
+    /* Handoff files written again for shards of this process, since its journal could not keep the sessions taken
+    over from them. Left for the next start of the process, and deleted once the shards are handed over again. */
+    private final List<Path> unsaved;
+
+    // Written while holding the lock of the router, read by the threads delivering events
+    private volatile ShardLayout layout;
+
+    /**
+     * @param manager The partition of the guilds owned by this process.
+     * @param layout The shards owned by this process at first.
+     * @param handoffDir The directory shared by all processes to hand sessions over, or null to drop the sessions of
+     *                   released shards.
+     * @param metrics Where to count the events received, and those of guilds which are not owned.
+     */
+    ShardRouter(VirtualBotManager manager, ShardLayout layout, Path handoffDir, Metrics metrics) {
+        this.manager = manager;
+        this.layout = layout;
+        this.handoffDir = handoffDir;
+        notOwned = metrics.counter("hangman_messages_not_owned_total");
+        events = metrics.counter("hangman_gateway_events_total");
+        unsaved = new ArrayList<>();
+        manager.setReceivesPrivateMessages(layout.owns(0));
+    }
+
+    /**
+     * Counts every event received from the api, most of which the bot has no use for unless the gateway profile
+     * leaves them out.
+     * @param event The event received from the api.
+     */
+    @Override
+    public void onGenericEvent(GenericEvent event) {
+        events.increment();
+    }
+
+    /**
+     * Passes events from owned guilds and private messages on to the manager.
+     * @param event The event received from the api.
+     */
+    @Override
+    public void onMessageReceived(MessageReceivedEvent event) {
+        if (event.getChannelType() == ChannelType.TEXT && !layout.ownsGuild(event.getGuild().getIdLong())) {
+            notOwned.increment();
+            return;
+        }
+        manager.onMessageReceived(event);
+    }
+
+    /**
+     * @return The shards currently owned.
+     */
+    ShardLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Restores the sessions recovered from the journal of this process, and takes over the sessions handed over for
+     * its shards. Recovered sessions of guilds this process no longer owns are handed over in turn. Must be called
+     * before any event is received.
+     * @param recovered The sessions recovered from the journal.
+     * @param sinks Where to send messages to channels and users, found by their ids.
+     * @return The number of sessions restored or taken over.
+     * @throws IOException If the handoff directory can not be read or written.
+     */
+    synchronized int start(Collection<SavedSession> recovered, SinkResolver sinks) throws IOException {
+        ShardLayout current = layout;
+        int restored = manager.restore(recovered, sinks);
+        List<SavedSession> others = manager.handOff(g -> !current.ownsGuild(g));
+        release(others);
+        return restored - others.size() + acquire(current, sinks);
+    }
+
+    /**
+     * Moves to a new set of owned shards: hands over the sessions of the shards no longer owned, then takes over the
+     * sessions handed over for the shards newly owned. The shards given up must no longer deliver events to this
+     * process, and the shards gained must not deliver events to any other process once this returns.
+     * @param next The shards to own, with the same total number of shards.
+     * @param sinks Where to send messages to channels and users, found by their ids.
+     * @return The number of sessions taken over.
+     * @throws IOException If the handoff directory can not be read or written.
+     */
+    synchronized int rebalance(ShardLayout next, SinkResolver sinks) throws IOException {
+        ShardLayout previous = layout;
+        // Stop routing the shards given up before handing them over, and only route the new ones once taken over
+        layout = previous.intersect(next);
+        release(manager.handOff(g -> !next.ownsGuild(g)));
+        dropUnsaved(next);
+        int adopted = acquire(next, sinks);
+        layout = next;
+        manager.setReceivesPrivateMessages(next.owns(0));
+        return adopted;
+    }
+
+    /**
+     * Hands over the sessions of every shard, for the next owner of the shards to take over. The router owns no
+     * shards afterwards.
+     * @throws IOException If the handoff directory can not be written.
+     */
+    synchronized void releaseAll() throws IOException {
+        layout = layout.none();
+        manager.setReceivesPrivateMessages(false);
+        release(manager.handOff(g -> true));
+        dropUnsaved(layout);
+    }
+
+    // Deletes the files written again for shards no longer owned, whose sessions have just been handed over anew
+    private void dropUnsaved(ShardLayout owned) throws IOException {
+        for (Iterator<Path> it = unsaved.iterator(); it.hasNext(); ) {
+            Path f = it.next();
+            if (owned.owns(shardOf(f))) continue;
+            Files.deleteIfExists(f);
+            it.remove();
+        }
+    }
+
+    // Writes one file per shard, which the next owner of the shard takes over
+    private void release(List<SavedSession> sessions) throws IOException {
+        if (sessions.isEmpty()) return;
+        if (handoffDir == null) {
+            System.out.println("Dropped " + sessions.size() + " sessions of released shards, no handoff directory");
+            return;
+        }
+        write(sessions);
+    }
+
+    // Writes the sessions in one file per shard
+    private List<Path> write(List<SavedSession> sessions) throws IOException {
+        int total = layout.getTotal();
+        Map<Integer, List<SavedSession>> byShard = new HashMap<>();
+        for (SavedSession s : sessions) {
+            byShard.computeIfAbsent(ShardLayout.shardOf(s.guildId, total), k -> new ArrayList<>()).add(s);
+        }
+        Files.createDirectories(handoffDir);
+        List<Path> files = new ArrayList<>();
+        for (Map.Entry<Integer, List<SavedSession>> e : byShard.entrySet()) {
+            Path f = handoffFile(total, e.getKey());
+            Journal.writeSnapshot(f, e.getValue());
+            files.add(f);
+        }
+        return files;
+    }
+
+    /* Claims and reads every handoff file which may hold sessions of owned shards. Files written for another total
+    number of shards may hold sessions of any shard, so sessions of other shards are written back in a new file. */
+    private int acquire(ShardLayout owned, SinkResolver sinks) throws IOException {
+        if (handoffDir == null || !Files.isDirectory(handoffDir)) return 0;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(handoffDir, HANDOFF + "*" + HANDOFF_SUFFIX)) {
+            for (Path f : dir) if (mayHold(f, owned) && !unsaved.contains(f)) files.add(f);
+        }
+        int adopted = 0;
+        for (Path f : files) {
+            Path claimed = f.resolveSibling(f.getFileName() + CLAIMED_SUFFIX);
+            try {
+                Files.move(f, claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                continue; // claimed by another process
+            }
+            List<SavedSession> mine = new ArrayList<>();
+            List<SavedSession> others = new ArrayList<>();
+            for (SavedSession s : Journal.readSnapshot(claimed)) (owned.ownsGuild(s.guildId) ? mine : others).add(s);
+            adopted += manager.adopt(mine, sinks);
+            if (!others.isEmpty()) release(others);
+            // The file is only deleted once the sessions are safe in the journal of this process, or in a new file
+            boolean saved;
+            try {
+                saved = manager.flushJournal();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while taking over " + f);
+            }
+            if (!saved && !mine.isEmpty()) {
+                System.out.println("Kept the sessions taken over from " + f + ", the journal could not save them");
+                unsaved.addAll(write(mine));
+            }
+            Files.delete(claimed);
+        }
+        return adopted;
+    }
+
+    // Files are named by the total number of shards and the shard their sessions belong to
+    private static boolean mayHold(Path file, ShardLayout owned) {
+        String[] parts = file.getFileName().toString().split("-");
+        try {
+            return Integer.parseInt(parts[1]) != owned.getTotal() || owned.owns(Integer.parseInt(parts[2]));
+        } catch (RuntimeException e) {
+            return false; // not one of ours
+        }
+    }
+
+    // Only for files written by this process, for its current total number of shards
+    private static int shardOf(Path file) {
+        return Integer.parseInt(file.getFileName().toString().split("-")[2]);
+    }
+
+    private Path handoffFile(int total, int shard) {
+        String unique = Long.toHexString(System.currentTimeMillis()) + Long.toHexString(
+                ThreadLocalRandom.current().nextLong());
+        return handoffDir.resolve(HANDOFF + total + "-" + shard + "-" + unique + HANDOFF_SUFFIX);
+    }
+}
@@ -0,0 +1,20 @@
+package hangman.bot;
+
+/**
+ * Finds where to send messages to a channel or a user from the id alone, used for sessions restored from the
+ * journal, which were started before the bot had any event from the channel.
+ */
+interface SinkResolver {
+
+    /**
+     * @param channelId The id of a text channel.
+     * @return A sink sending messages to the channel.
+     */
+    MessageSink channel(long channelId);
+
+    /**
+     * @param userId The id of a user.
+     * @return A sink sending private messages to the user.
+     */
+    MessageSink user(long userId);
+}
@@ -0,0 +1,243 @@
+package hangman.bot;
+
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A concurrent hash map from primitive long keys (such as discord snowflake ids) to values. The key space is
+ * split into a fixed number of stripes, each an open addressing table guarded by its own lock. Threads working on
+ * keys in different stripes never contend, and keys are never boxed. Null values are not supported.
+ * @param <V> The type of the values.
+ */
+class StripedLongMap<V> {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int DEFAULT_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * Creates a map sized for a large number of keys and threads.
+     */
+    StripedLongMap() {
+        this(DEFAULT_STRIPES, DEFAULT_STRIPE_CAPACITY);
+    }
+
+    /**
+     * @param stripes The number of stripes, a power of two. More stripes means less contention but more memory.
+     * @param stripeCapacity The initial capacity of each stripe, a power of two of at least 2.
+     */
+    StripedLongMap(int stripes, int stripeCapacity) {
+        if (Integer.bitCount(stripes) != 1 || Integer.bitCount(stripeCapacity) != 1 || stripeCapacity < 2) {
+            throw new IllegalArgumentException("stripes and stripeCapacity must be powers of two");
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe(stripeCapacity);
+        stripeShift = 32 - Integer.numberOfTrailingZeros(stripes);
+    }
+
+    /**
+     * Spreads the bits of a key so that both the stripe and the slot within a stripe are well distributed.
+     * Snowflakes have a timestamp in the high bits and mostly constant low bits, so they need mixing.
+     * @param key The key to hash.
+     * @return A well mixed 32 bit hash of the key.
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * @param key The key to look up.
+     * @return The value mapped to the key, or null if there is none.
+     */
+    V get(long key) {
+        int h = hash(key);
+        return stripeFor(h).get(key, h);
+    }
+
+    /**
+     * Returns the value mapped to the key, creating and inserting one with the factory if there is none. The check
+     * and the insertion are atomic, so at most one value is ever created for a key. The factory is called while
+     * holding the lock of a stripe and should be cheap.
+     * @param key The key to look up.
+     * @param factory Creates the value if the key is absent. Must not return null.
+     * @return The value now mapped to the key.
+     */
+    V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        int h = hash(key);
+        return stripeFor(h).computeIfAbsent(key, h, factory);
+    }
+
+    /**
+     * Atomically replaces the value mapped to a key with the result of the remapping function. The function is
+     * called while holding the lock of a stripe and should be cheap.
+     * @param key The key to remap.
+     * @param remapper Given the key and its current value, or null if absent, returns the new value, or null to
+     *                 remove the mapping.
+     * @return The new value mapped to the key, or null if there is none.
+     */
+    V compute(long key, Remapper<V> remapper) {
+        int h = hash(key);
+        return stripeFor(h).compute(key, h, remapper);
+    }
+
+    /**
+     * Removes the mapping for a key, but only if it is currently mapped to the expected value.
+     * @param key The key to remove.
+     * @param expected The value the key must be mapped to, compared by identity.
+     * @return True if the mapping was removed.
+     */
+    boolean remove(long key, V expected) {
+        int h = hash(key);
+        return stripeFor(h).remove(key, h, expected);
+    }
+
+    /**
+     * @return The number of mappings. Not atomic with respect to concurrent modification.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe s : stripes) size += s.size();
+        return size;
+    }
+
+    /**
+     * Visits every value in the map. Each stripe is copied while locked and visited after the lock is released,
+     * so the action may freely modify the map. Values added or removed concurrently may or may not be visited.
+     * @param action Called once per visited value.
+     */
+    void forEachValue(Consumer<? super V> action) {
+        for (Stripe s : stripes) {
+            for (Object v : s.values()) action.accept(cast(v));
+        }
+    }
+
+    /**
+     * A function computing a new value for a key from its current value.
+     * @param <V> The type of the values.
+     */
+    interface Remapper<V> {
+        V apply(long key, V value);
+    }
+
+    private Stripe stripeFor(int hash) {
+        // High bits for the stripe, low bits for the slot
+        return stripeShift == 32 ? stripes[0] : stripes[hash >>> stripeShift];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object o) {
+        return (V) o;
+    }
+
+    /* A linear probing table. A slot is empty iff its value is null, and removal shifts later entries
+    of the probe sequence backwards so that no tombstones are needed. */
+    private static final class Stripe {
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        synchronized <V> V get(long key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return cast(values[i]);
+            }
+            return null;
+        }
+
+        synchronized <V> V computeIfAbsent(long key, int hash, LongFunction<? extends V> factory) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return cast(values[i]);
+            }
+            V value = factory.apply(key);
+            if (value == null) throw new NullPointerException("factory returned null for key " + key);
+            keys[i] = key;
+            values[i] = value;
+            if (++size > (keys.length >> 1) + (keys.length >> 2)) grow();
+            return value;
+        }
+
+        synchronized <V> V compute(long key, int hash, Remapper<V> remapper) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) break;
+            }
+            V old = cast(values[i]);
+            V value = remapper.apply(key, old);
+            if (value != null) {
+                keys[i] = key;
+                values[i] = value;
+                if (old == null && ++size > (keys.length >> 1) + (keys.length >> 2)) grow();
+            } else if (old != null) {
+                removeAt(i);
+            }
+            return value;
+        }
+
+        synchronized boolean remove(long key, int hash, Object expected) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) break;
+            }
+            if (values[i] == null || values[i] != expected) return false;
+            removeAt(i);
+            return true;
+        }
+
+        private void removeAt(int i) {
+            int mask = keys.length - 1;
+            // Shift back any entry whose probe sequence passes through the freed slot
+            int free = i;
+            for (int j = (free + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - free) & mask)) {
+                    keys[free] = keys[j];
+                    values[free] = values[j];
+                    free = j;
+                }
+            }
+            values[free] = null;
+            size--;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized Object[] values() {
+            Object[] r = new Object[size];
+            int n = 0;
+            for (Object v : values) if (v != null) r[n++] = v;
+            return r;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length << 1];
+            values = new Object[oldValues.length << 1];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package hangman.bot;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A hashed timing wheel: a single thread running the tasks of a large number of timers, each at about the time it is
+ * due, to the precision of a tick. The wheel is a ring of slots, one per tick, and a timer waits in the slot of the
+ * tick it is due in, modulo the number of slots. Each tick, the thread walks the timers of one slot, runs those which
+ * are due and leaves the others for a later turn of the wheel. Arming and cancelling a timer take constant time,
+ * however many timers there are.
+ *
+ * Only the thread of the wheel links and unlinks timers, so the slots need no lock. Arming a timer which is already
+ * in the wheel for a time no earlier than before, which is how a timer is usually pushed back, only writes the new
+ * time: the timer is moved to its new slot when the thread next walks its old one. Only a timer which is not in the
+ * wheel, or is brought forward, is handed to the thread through a queue. Cancelling a timer likewise only clears its
+ * time, and the thread drops it when it walks its slot. Thread safe.
+ */
+class TimingWheel {
+    static final long DEFAULT_TICK_MILLIS = 1000;
+    static final int DEFAULT_SLOTS = 512;
+    static final String THREAD = "hangman-timers";
+
+    // The due time of a timer which is not armed
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final long tickMillis;
+    private final Timer[] slots; // the first timer of each slot, in a doubly linked list
+    private final int mask;
+    private final long origin;
+
+    // Timers armed while not in the wheel, or brought forward, waiting for the thread to put them in their slot
+    private final ConcurrentLinkedQueue<Timer> arrivals;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    // Only used by the thread of the wheel, apart from the count of timers which the metrics read
+    private long tick; // the next tick to walk
+    private volatile int size;
+
+    /**
+     * Creates a wheel with the default tick and number of slots, and starts its thread.
+     * @param metrics Where to report the number of timers in the wheel.
+     */
+    TimingWheel(Metrics metrics) {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_SLOTS, metrics);
+    }
+
+    /**
+     * Creates a wheel and starts its thread.
+     * @param tickMillis The length of a tick in milliseconds, the precision of the timers.
+     * @param slots The number of slots, a power of two. A turn of the wheel takes this many ticks, and timers due
+     *              later than a turn from now are walked past once every turn.
+     * @param metrics Where to report the number of timers in the wheel.
+     */
+    TimingWheel(long tickMillis, int slots, Metrics metrics) {
+        if (tickMillis < 1 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("tickMillis must be positive and slots a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[slots];
+        mask = slots - 1;
+        origin = System.nanoTime();
+        arrivals = new ConcurrentLinkedQueue<>();
+        metrics.gauge("hangman_timers", this::size);
+        thread = new Thread(this::run, THREAD);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return The time in milliseconds on the clock of the wheel, which timers are armed with.
+     */
+    long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - origin);
+    }
+
+    /**
+     * @param task Run by the thread of the wheel each time the timer is due. Must be quick, and must not throw.
+     * @return A timer which is not armed yet.
+     */
+    Timer newTimer(Runnable task) {
+        return new Timer(this, task);
+    }
+
+    /**
+     * @return The number of timers in the wheel, including cancelled ones not yet dropped.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Stops the thread of the wheel. Timers are no longer run afterwards.
+     */
+    void shutdown() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    // Walks the slot of each tick once it is over, so timers run at most a tick after they are due
+    private void run() {
+        long next = origin + TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        while (!stopped) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            for (Timer t; (t = arrivals.poll()) != null; ) place(t);
+            walk((int) (tick & mask), (tick + 1) * tickMillis);
+            tick++;
+            next = origin + TimeUnit.MILLISECONDS.toNanos((tick + 1) * tickMillis);
+        }
+    }
+
+    // Runs the timers of a slot due before the end of the tick, and moves those due in another slot
+    private void walk(int slot, long end) {
+        Timer t = slots[slot];
+        while (t != null) {
+            Timer next = t.next;
+            long due = t.due;
+            if (due == NONE) {
+                unlink(t);
+                t.leave();
+            } else if (due < end) {
+                unlink(t);
+                // If armed again meanwhile, it does not run now and leaving hands it over to be placed at its new time
+                boolean run = Timer.DUE.compareAndSet(t, due, NONE);
+                t.leave();
+                if (run) {
+                    try {
+                        t.task.run();
+                    } catch (RuntimeException e) {
+                        System.out.println("A timer failed: " + e);
+                    }
+                }
+            } else if (slotOf(due) != slot) {
+                unlink(t);
+                link(t);
+            }
+            t = next;
+        }
+    }
+
+    // Puts an armed timer in its slot, or moves it there if it already is in one
+    private void place(Timer t) {
+        if (t.slot >= 0) unlink(t);
+        if (t.due == NONE) {
+            t.leave();
+        } else {
+            link(t);
+        }
+    }
+
+    // Links the timer into the slot of its due time, or the slot about to be walked if it is already due
+    private void link(Timer t) {
+        long due = t.due;
+        int slot = due < (tick + 1) * tickMillis ? (int) (tick & mask) : slotOf(due);
+        t.slot = slot;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) t.next.prev = t;
+        slots[slot] = t;
+        size++;
+    }
+
+    private void unlink(Timer t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            slots[t.slot] = t.next;
+        }
+        if (t.next != null) t.next.prev = t.prev;
+        t.next = null;
+        t.prev = null;
+        t.slot = -1;
+        size--;
+    }
+
+    private int slotOf(long due) {
+        return (int) ((due / tickMillis) & mask);
+    }
+
+    /**
+     * A timer of the wheel, which runs its task once each time it is armed and becomes due. Thread safe.
+     */
+    static final class Timer {
+        private static final AtomicLongFieldUpdater<Timer> DUE = AtomicLongFieldUpdater.newUpdater(Timer.class, "due");
+        private static final AtomicIntegerFieldUpdater<Timer> QUEUED =
+                AtomicIntegerFieldUpdater.newUpdater(Timer.class, "queued");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+
+        private volatile long due = NONE;
+        // 1 from when the timer is handed to the wheel until the wheel drops it, so it is handed over only once
+        private volatile int queued;
+
+        // Only used by the thread of the wheel
+        private int slot = -1;
+        private Timer prev;
+        private Timer next;
+
+        private Timer(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Arms the timer to run its task at the given time, replacing any time it was armed for before.
+         * @param dueMillis When to run the task, in milliseconds on the clock of the wheel.
+         */
+        void arm(long dueMillis) {
+            long before = DUE.getAndSet(this, Math.min(dueMillis, NONE - 1));
+            // A timer in the wheel finds its new slot when its old one is walked, unless that is too late
+            if (queued == 0 ? QUEUED.compareAndSet(this, 0, 1) : dueMillis < before) wheel.arrivals.add(this);
+        }
+
+        /**
+         * Cancels the timer, unless its task is already running. It may be armed again afterwards.
+         */
+        void cancel() {
+            due = NONE;
+        }
+
+        // Called by the thread of the wheel once the timer is out of the wheel, hands it over again if armed since
+        private void leave() {
+            queued = 0;
+            if (due != NONE && QUEUED.compareAndSet(this, 0, 1)) wheel.arrivals.add(this);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Records the messages received by the bot to a trace file for a while, so that the traffic can be replayed later by
+ * the LoadSimulator. Messages from bots are left out, since the bot ignores them. The trace holds the content of
+ * every message, so it should be kept as private as the messages themselves. Thread safe.
+ */
+class TraceRecorder extends ListenerAdapter {
+    private final TraceWriter writer;
+    private final long stopNanos;
+    private volatile boolean stopped;
+
+    /**
+     * Starts recording to a new trace file, which replaces any file of the same name.
+     * @param file The trace file.
+     * @param minutes How long to record for.
+     * @throws IOException If the file can not be created.
+     */
+    TraceRecorder(Path file, long minutes) throws IOException {
+        writer = new TraceWriter(file);
+        stopNanos = System.nanoTime() + minutes * 60000000000L;
+    }
+
+    /**
+     * Records a message in a text channel or a private message.
+     * @param event The event received from the api.
+     */
+    @Override
+    public void onMessageReceived(MessageReceivedEvent event) {
+        if (stopped || event.getAuthor().isBot()) return;
+        if (System.nanoTime() - stopNanos > 0) {
+            stop();
+            return;
+        }
+        try {
+            ChannelType t = event.getChannelType();
+            String content = event.getMessage().getContentRaw();
+            if (t == ChannelType.TEXT) {
+                writer.text(event.getGuild().getIdLong(), event.getChannel().getIdLong(),
+                        event.getAuthor().getIdLong(), content);
+            } else if (t == ChannelType.PRIVATE) {
+                writer.privateMessage(event.getAuthor().getIdLong(), content);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to record a trace, stopped recording: " + e.getMessage());
+            stop();
+        }
+    }
+
+    /**
+     * Stops recording and finishes the trace file. Does nothing if already stopped.
+     */
+    void stop() {
+        stopped = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Failed to finish the trace: " + e.getMessage());
+        }
+    }
+}
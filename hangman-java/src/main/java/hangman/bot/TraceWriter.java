@@ -0,0 +1,189 @@
+package hangman.bot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a trace of the messages received by the bot, in order and with their timing, for the LoadSimulator to
+ * replay. Thread safe, records from several threads are written in the order the writer gets them.
+ *
+ * The file is compressed with gzip, and holds a header followed by one record per message. Guilds, channels and
+ * users are not stored by id, but numbered in the order they first appear, so a number one higher than any before
+ * it is a new one. Short contents, such as guesses and commands, are numbered the same way, and written out in full
+ * only the first time. Numbers and times are written as variable length integers, so most records take a few bytes.
+ *
+ *     header:  int MAGIC, byte VERSION
+ *     text:    byte TEXT, varint micros since the previous record, varint guild, varint channel, varint user,
+ *              content
+ *     private: byte PRIVATE, varint micros since the previous record, varint user, content
+ *     content: varint 0 followed by a UTF string for content written in full,
+ *              or varint n > 0 for short content number n, followed by a UTF string if it is new
+ */
+class TraceWriter implements Closeable {
+    static final int MAGIC = 0x484d5452; // "HMTR"
+    static final byte VERSION = 1;
+    static final byte TEXT = 1;
+    static final byte PRIVATE = 2;
+
+    // Longer contents are rarely repeated, and are always written in full
+    private static final int MAX_SHARED_LENGTH = 32;
+    private static final int MAX_SHARED_CONTENTS = 1 << 16;
+
+    private final DataOutputStream out;
+    private final long startNanos;
+    private long lastMicros;
+
+    // The numbers given so far, by id or content
+    private final StripedLongMap<Integer> guilds;
+    private final StripedLongMap<Integer> channels;
+    private final StripedLongMap<Integer> users;
+    private final Map<String, Integer> shared;
+
+    private boolean closed;
+
+    /**
+     * Creates or replaces a trace file.
+     * @param file The file to write.
+     * @throws IOException If the file can not be created.
+     */
+    TraceWriter(Path file) throws IOException {
+        this(Files.newOutputStream(file));
+    }
+
+    /**
+     * @param out Where to write the trace, closed with the writer.
+     * @throws IOException If the header can not be written.
+     */
+    TraceWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out, 1 << 16), 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        startNanos = System.nanoTime();
+        guilds = new StripedLongMap<>(1, 64);
+        channels = new StripedLongMap<>(1, 64);
+        users = new StripedLongMap<>(1, 64);
+        shared = new HashMap<>();
+    }
+
+    /**
+     * Records a message in a text channel, received now.
+     * @param guildId The id of the guild of the channel.
+     * @param channelId The id of the channel.
+     * @param userId The id of the author.
+     * @param content The raw content of the message.
+     * @throws IOException If the record can not be written.
+     */
+    synchronized void text(long guildId, long channelId, long userId, String content) throws IOException {
+        text(micros(), guildId, channelId, userId, content);
+    }
+
+    /**
+     * Records a private message, received now.
+     * @param userId The id of the author.
+     * @param content The raw content of the message.
+     * @throws IOException If the record can not be written.
+     */
+    synchronized void privateMessage(long userId, String content) throws IOException {
+        privateMessage(micros(), userId, content);
+    }
+
+    /**
+     * Records a message in a text channel, received at a given time.
+     * @param atMicros When the message was received, in microseconds since the start of the trace. Not before
+     *                 the previous record.
+     * @param guildId The id of the guild of the channel.
+     * @param channelId The id of the channel.
+     * @param userId The id of the author.
+     * @param content The raw content of the message.
+     * @throws IOException If the record can not be written.
+     */
+    synchronized void text(long atMicros, long guildId, long channelId, long userId, String content)
+            throws IOException {
+        if (closed) return;
+        out.writeByte(TEXT);
+        writeTime(atMicros);
+        writeVarLong(number(guilds, guildId));
+        writeVarLong(number(channels, channelId));
+        writeVarLong(number(users, userId));
+        writeContent(content);
+    }
+
+    /**
+     * Records a private message, received at a given time.
+     * @param atMicros When the message was received, in microseconds since the start of the trace. Not before
+     *                 the previous record.
+     * @param userId The id of the author.
+     * @param content The raw content of the message.
+     * @throws IOException If the record can not be written.
+     */
+    synchronized void privateMessage(long atMicros, long userId, String content) throws IOException {
+        if (closed) return;
+        out.writeByte(PRIVATE);
+        writeTime(atMicros);
+        writeVarLong(number(users, userId));
+        writeContent(content);
+    }
+
+    /**
+     * Finishes the file. Later records are ignored.
+     * @throws IOException If the file can not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        out.close();
+    }
+
+    private long micros() {
+        return Math.max(lastMicros, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    private void writeTime(long atMicros) throws IOException {
+        if (atMicros < lastMicros) throw new IllegalArgumentException("Records must be written in order");
+        writeVarLong(atMicros - lastMicros);
+        lastMicros = atMicros;
+    }
+
+    private static int number(StripedLongMap<Integer> numbers, long id) {
+        return numbers.computeIfAbsent(id, k -> numbers.size());
+    }
+
+    private void writeContent(String content) throws IOException {
+        // The length of the UTF encoding is at most three bytes per char, and writeUTF is limited to 65535
+        if (content.length() > 21845) content = content.substring(0, 21845);
+        if (content.length() > MAX_SHARED_LENGTH) {
+            writeVarLong(0);
+            out.writeUTF(content);
+            return;
+        }
+        Integer n = shared.get(content);
+        if (n != null) {
+            writeVarLong(n);
+            return;
+        }
+        if (shared.size() < MAX_SHARED_CONTENTS) {
+            shared.put(content, shared.size() + 1);
+            writeVarLong(shared.size());
+        } else {
+            writeVarLong(0);
+        }
+        out.writeUTF(content);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
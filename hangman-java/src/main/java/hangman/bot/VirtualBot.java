@@ -4,182 +4,275 @@ import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 
-import static hangman.bot.VirtualBot.state.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This class represents a virtual bot, communicating through the hangman bot but acting as though it was only
- * working within a single guild (discord server). Upon construction, a guild is supplied to make sure the virtual bot
- * can detect if it is handling messages from the wrong guild.
+ * working within a single guild (discord server). Upon construction, the id of a guild is supplied to make sure the
+ * virtual bot can detect if it is handling messages from the wrong guild. Every text channel of the guild can have
+ * its own game session, and the sessions of different channels are run in parallel through their own mailboxes.
+ * Thread safe.
  */
 public class VirtualBot extends ListenerAdapter {
 
-    /* The bot starts in an idle state. The setup state is used when listening for setup details from
-    the user that used the start command. The playing state is used when a game is being played in a channel. */
-    enum state {IDLE, SETUP, PLAYING}
-
     public static final String START_COMMAND = "!hangman-start";
     public static final String RESET_COMMAND = "!hangman-reset";
-    private final Guild guild;
+    public static final String STATS_COMMAND = "!hangman-stats";
+    private final long guildId;
+
+    // Shared by all bots of a manager, so that setup details sent in private messages reach the right sessions
+    private final PendingSetups pendingSetups;
+
+    // Shared by all bots of a manager, merges the messages to each channel and keeps within the rate limits
+    private final OutboundPipeline outbound;
+
+    // Creates the mailbox of a new session, which decides what thread the session runs on
+    private final Function<GameSession, Mailbox> mailboxFactory;
+
+    /* The mailbox of the session of each channel, keyed by channel id. Lookups never lock across channels, but
+    sessions are only created or removed while holding the lock of the bot, so that a retired bot stays empty. */
+    private final StripedLongMap<Mailbox> sessions;
+    private boolean retired;
 
-    private state currentState;
-    private Game currentGame;
-    private User startingUser;
-    private TextChannel gameChannel;
+    // Shared by all bots of a manager, drops guesses sent faster than the limits allow before they are queued
+    private final GuessLimiter limiter;
 
-    public VirtualBot(Guild g) {
-        currentState = IDLE;
-        guild = g;
+    // Shared by all bots of a manager, and passed on to the sessions
+    private final Journal journal;
+    private final WordIndex words;
+    private final GameStats stats;
+    private final SessionTimeouts timeouts;
+    private final Metrics metrics;
+    private final Metrics.Histogram dispatchLatency;
+    private final Metrics.Counter messageCount; // reported by the manager, to find the busiest guilds
+
+    VirtualBot(long guildId, PendingSetups pendingSetups, OutboundPipeline outbound, Metrics metrics,
+               Journal journal, WordIndex words, GuessLimiter limiter, GameStats stats, SessionTimeouts timeouts,
+               Function<GameSession, Mailbox> mailboxFactory) {
+        this.guildId = guildId;
+        this.pendingSetups = pendingSetups;
+        this.outbound = outbound;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.words = words;
+        this.limiter = limiter;
+        this.stats = stats;
+        this.timeouts = timeouts;
+        this.mailboxFactory = mailboxFactory;
+        dispatchLatency = metrics.histogram("hangman_bot_dispatch_seconds");
+        messageCount = metrics.detachedCounter();
+        // Few guilds play in more than a handful of channels at once
+        sessions = new StripedLongMap<>(4, 4);
+    }
+
+    /**
+     * @return The id of the guild of this bot.
+     */
+    public long getGuildId() {
+        return guildId;
     }
 
     /**
-     * Sends a MessageReceivedEvent to this bot for it to handle. Individual bots do not implement the
-     * ListenerAdapter interface as this would be inefficient.
+     * Sends a MessageReceivedEvent to the game session it belongs to. Messages in text channels go to the session of
+     * their channel, which is created by a command if there is none, unless they are guesses over the limits.
+     * Private messages go to the sessions waiting for setup details from their author. Individual bots do not
+     * implement the ListenerAdapter interface as this would be inefficient. May be called from any thread.
      * @param event The MessageReceivedEvent we want this bot to handle.
+     * @return False if the bot is retired and the event was refused, true otherwise.
      */
-    public void handleMessageEvent(MessageReceivedEvent event) {
-        if (shouldIgnore(event)) return;
-        checkGuild(event);
+    public boolean handleMessageEvent(MessageReceivedEvent event) {
+        return handleMessage(ParsedMessage.parse(event));
+    }
 
-        // At any time, the bot can be reset, either through DM or text channels.
-        String[] words = event.getMessage().getContentRaw().toLowerCase().trim().split("\\s+");
-        if (words.length > 0 && words[0].equals(RESET_COMMAND)) {
-            event.getChannel().sendMessage("I've been reset!").queue();
-            reset();
-            return;
+    /**
+     * Sends a message event that has already been parsed to the game session it belongs to, as handleMessageEvent.
+     * @param message The parsed MessageReceivedEvent we want this bot to handle.
+     * @return False if the bot is retired and the event was refused, true otherwise.
+     */
+    boolean handleMessage(ParsedMessage message) {
+        long start = dispatchLatency.start();
+        try {
+            return route(message);
+        } finally {
+            dispatchLatency.recordSince(start);
         }
+    }
+
+    // Does the work of handleMessage, which times it
+    private boolean route(ParsedMessage message) {
+        MessageReceivedEvent event = message.getEvent();
+        if (shouldIgnore(event)) return true;
+        checkGuild(event);
+        messageCount.increment();
 
-        switch (currentState) {
-            case IDLE:
-                handleStart(event);
-                break;
-            case SETUP:
-                handleSetup(event);
-                break;
-            case PLAYING:
-                handlePlaying(event);
-                break;
+        if (event.getChannelType() == ChannelType.PRIVATE) {
+            long[] pending = pendingSetups.sessionsFor(event.getAuthor().getIdLong());
+            for (int i = 0; i < pending.length; i += 2) {
+                if (pending[i] != guildId) continue;
+                Mailbox m = sessions.get(pending[i + 1]);
+                // Sessions waiting for setup are never retired
+                if (m != null) m.post(message);
+            }
+            return true;
         }
 
+        long channelId = event.getChannel().getIdLong();
+        Mailbox m = sessions.get(channelId);
+        /* Only guesses count against the limits, so chat in channels without a game uses none of them, and a user
+        sending guesses too fast can not fill the mailbox and push out the guesses of others */
+        if (m != null && m.getSession().isGuess(message)
+                && !limiter.tryAcquire(event.getAuthor().getIdLong(), guildId)) {
+            return true;
+        }
+        while (m == null || !m.post(message)) {
+            if (m != null) removeSession(channelId, m); // retired after we got it, so replace it
+            // Ordinary chat in channels without a session is not worth a session
+            if (!message.isCommand()) return true;
+            m = createSession(channelId);
+            if (m == null) return false;
+        }
+        return true;
     }
 
-    // We should ignore events from bots, and messages from channels other than
-    private boolean shouldIgnore(MessageReceivedEvent event) {
-        return ((event.getChannelType() != ChannelType.TEXT ) && (event.getChannelType() != ChannelType.PRIVATE)
-                || event.getAuthor().isBot());
+    /**
+     * Creates the session of a channel in the state saved in the journal. Only call before the bot handles any
+     * event, from a thread which happens before the threads delivering events.
+     * @param saved The session as read from the journal, of a channel of this guild.
+     * @param sinks Where to send messages to the channel and the starting user, found by their ids.
+     * @return True if the session was restored, false if its game was already over or the bot is retired.
+     */
+    boolean restoreSession(SavedSession saved, SinkResolver sinks) {
+        Mailbox m = createSession(saved.channelId);
+        if (m == null) return false;
+        // Only a session saved twice, when a crash cut a handoff short, can already be running
+        if (m.getSession().getState() != GameSession.state.IDLE) return false;
+        if (m.getSession().restore(saved, sinks)) return true;
+        removeSession(saved.channelId, m);
+        return false;
     }
 
-    // This bot instance has its own guild, and should not handle events from other guilds
-    private void checkGuild(MessageReceivedEvent event) {
-        if(event.getChannelType() == ChannelType.TEXT && event.getGuild() != guild) {
-            throw new IllegalArgumentException(
-                    "Event from guild " + event.getGuild() + " passed to bot for guild " + guild);
-        }
+    /**
+     * Evicts all sessions in the IDLE state which have not handled an event for the given time.
+     * Sessions in the SETUP or PLAYING states are never evicted.
+     * @param now The current time in milliseconds.
+     * @param idleMillis The minimum time in milliseconds since a session handled an event.
+     * @return The number of sessions evicted.
+     */
+    int evictIdleSessions(long now, long idleMillis) {
+        int[] evicted = {0};
+        sessions.forEachValue(m -> {
+            if (m.retireIfIdle(now, idleMillis) && removeSession(m.getSession().getChannelId(), m)) evicted[0]++;
+        });
+        return evicted[0];
     }
 
-    // Resets all state of the bot, effectively returning to its starting state after construction
-    private void reset() {
-        currentGame = null;
-        startingUser = null;
-        currentState = IDLE;
-        gameChannel = null;
+    /**
+     * Retires the bot if it has no sessions. A retired bot refuses all events, so it can safely be discarded.
+     * @return True if the bot is now retired.
+     */
+    synchronized boolean retireIfEmpty() {
+        if (sessions.size() == 0) retired = true;
+        return retired;
     }
 
-    private void handlePlaying(MessageReceivedEvent event) {
-        if(event.getChannel() == gameChannel) {
-            if (event.getAuthor() == startingUser) {
-                gameChannel.sendMessage("No cheating, " + startingUser.getName() + "! :angry:").queue();
-                return;
-            }
-            String message = event.getMessage().getContentRaw().trim().toUpperCase();
-            if (message.length() == 1) {
-                currentGame.guessChar(message.charAt(0));
-                gameChannel.sendMessage("You guessed: " + message.charAt(0)).queue();
-            } else {
-                currentGame.guessWord(message);
-                gameChannel.sendMessage("You guessed: " + message).queue();
-            }
-            gameChannel.sendMessage(currentGame.displayGameState()).queue();
-            if (currentGame.isWon() || currentGame.isLost()) {
-                gameChannel.sendMessage(currentGame.isWon() ? "Game won!" : "Game lost!").queue();
-                reset();
-            }
+    /**
+     * Retires the bot and all its sessions, whatever their state, and hands them over to another owner. Waits for
+     * the events already posted to the sessions to be handled. The bot must not be sent any more events first.
+     * @return The state of every session which was not idle, as the journal would recover it.
+     */
+    List<SavedSession> handOff() {
+        synchronized (this) {
+            retired = true;
         }
+        List<SavedSession> saved = new ArrayList<>();
+        sessions.forEachValue(m -> {
+            while (!m.retireIfDone()) Thread.yield();
+            SavedSession s = m.getSession().handOff();
+            if (s != null) saved.add(s);
+        });
+        return saved;
     }
 
-    private void handleStart(MessageReceivedEvent event) {
-        String firstWord = event.getMessage().getContentRaw().toLowerCase().trim().split("\\s+")[0];
-
-        if (!firstWord.equals(START_COMMAND)) return;
-
-        startingUser = event.getAuthor();
-        gameChannel = event.getTextChannel();
-        currentState = SETUP;
-
-        String privateMessage = "Please respond with a single number in the range 1 to " +
-                Game.MAX_ALLOWED_FAILS + " of allowed fails followed by a space and a word or sentence to guess.";
+    /**
+     * @return True if the bot is retired and refuses all events.
+     */
+    synchronized boolean isRetired() {
+        return retired;
+    }
 
-        gameChannel.sendMessage(
-                "Let's go! Send me a private message with the details, " + startingUser.getName() + ".").queue();
-        messageUser(startingUser, privateMessage);
+    /**
+     * @return The number of sessions of this bot.
+     */
+    int getSessionCount() {
+        return sessions.size();
     }
 
-    private void handleSetup(MessageReceivedEvent event) {
-        if (!(event.getChannelType() == ChannelType.PRIVATE && event.getAuthor() == startingUser)) return;
+    /**
+     * @return The number of messages this bot has handled since it was created, 0 if metrics are disabled.
+     */
+    long getMessageCount() {
+        return messageCount.get();
+    }
 
-        boolean success = true;
+    /**
+     * @param action Called with the mailbox of every current session of this bot.
+     */
+    void forEachMailbox(Consumer<Mailbox> action) {
+        sessions.forEachValue(action);
+    }
 
-        String errorMessage = "Failed to read your message. ";
-        String cleanedContent = event.getMessage().getContentRaw()
-                .trim()
-                .toUpperCase()
-                .replaceAll("\\p{Punct}", "")
-                .replaceAll("\\s+", " ");
-        String[] cleanedContentWords = cleanedContent.split(" ");
+    /**
+     * @return True if any session of this bot has events waiting or being handled.
+     */
+    boolean hasPendingEvents() {
+        boolean[] pending = {false};
+        sessions.forEachValue(m -> pending[0] |= m.isBusy());
+        return pending[0];
+    }
 
-        int fails = -1;
-        String guessingSentence = "";
+    /**
+     * @return The number of events shed by the mailboxes of all current sessions of this bot.
+     */
+    long getShedCount() {
+        long[] count = {0};
+        sessions.forEachValue(m -> count[0] += m.getShedCount());
+        return count[0];
+    }
 
-        try {
-            if (cleanedContentWords.length < 1) {
-                success = false;
-                errorMessage += "Your message was empty. ";
-            } else {
-                fails = Integer.parseInt(cleanedContentWords[0]);
-                if (!(1 <= fails && fails <= Game.MAX_ALLOWED_FAILS)) {
-                    success = false;
-                    errorMessage += "Start with a number in the range 1 to " + Game.MAX_ALLOWED_FAILS + ". ";
-                }
-            }
-        } catch (NumberFormatException e) {
-            success = false;
-            errorMessage += "Start with a number in the range 1 to " + Game.MAX_ALLOWED_FAILS + ". ";
-        }
+    /**
+     * @return The number of guesses coalesced by the mailboxes of all current sessions of this bot.
+     */
+    long getCoalescedCount() {
+        long[] count = {0};
+        sessions.forEachValue(m -> count[0] += m.getCoalescedCount());
+        return count[0];
+    }
 
-        if (cleanedContentWords.length < 2) {
-            success = false;
-            errorMessage += "Failed to identify a guessing sentence or word. ";
-        } else {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 1; i < cleanedContentWords.length; i++) {
-                sb.append(cleanedContentWords[i]).append(i == cleanedContentWords.length - 1 ? "" : " ");
-            }
-            guessingSentence = sb.toString();
-        }
+    // Returns the mailbox of the session of the channel, creating the session if needed. Null if retired.
+    private synchronized Mailbox createSession(long channelId) {
+        if (retired) return null;
+        return sessions.computeIfAbsent(channelId, id -> mailboxFactory.apply(
+                new GameSession(guildId, id, pendingSetups, outbound, metrics, journal, words, stats, timeouts)));
+    }
 
-        // If setup successful, start game. Else, remain in the setup state with the same user and inform that user.
-        if(success) {
-            currentGame = new Game(guessingSentence, fails);
-            currentState = PLAYING;
-            gameChannel.sendMessage("Setup complete, game starting...").queue();
-            gameChannel.sendMessage(currentGame.displayGameState()).queue();
-        } else {
-            messageUser(startingUser, errorMessage);
-        }
+    private synchronized boolean removeSession(long channelId, Mailbox m) {
+        return sessions.remove(channelId, m);
+    }
 
+    // We should ignore events from bots, and messages from channels other than text channels and DMs
+    private boolean shouldIgnore(MessageReceivedEvent event) {
+        return ((event.getChannelType() != ChannelType.TEXT ) && (event.getChannelType() != ChannelType.PRIVATE)
+                || event.getAuthor().isBot());
     }
 
-    // Send a message to a user without response handling
-    private void messageUser(User u, String message) {
-        u.openPrivateChannel().queue(channel -> channel.sendMessage(message).queue());
+    // This bot instance has its own guild, and should not handle events from other guilds
+    private void checkGuild(MessageReceivedEvent event) {
+        if(event.getChannelType() == ChannelType.TEXT && event.getGuild().getIdLong() != guildId) {
+            throw new IllegalArgumentException(
+                    "Event from guild " + event.getGuild() + " passed to bot for guild " + guildId);
+        }
     }
-}
\ No newline at end of file
+}
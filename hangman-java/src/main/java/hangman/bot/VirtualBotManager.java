@@ -1,107 +1,528 @@
 package hangman.bot;
 
 import net.dv8tion.jda.api.entities.ChannelType;
-import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
 
 /**
  * The virtual bot manager maintains a bot for each guild of the actual bot and distributes any message events
- * to the correct virtual bot based on the guild and/or user from which the message was sent. The
- * VirtualBotManager tries to use all logical threads available on the system. The virtual bot manager handles the
- * creation of all virtual bots, and the VirtualBot class should not be used if this class is used.
+ * to the correct virtual bot based on the guild and/or user from which the message was sent. Unless told to use a
+ * single thread, the VirtualBotManager tries to use all logical threads available on the system, in the way given
+ * by its DispatchMode. The virtual bot manager handles the creation of all virtual bots, and the VirtualBot class
+ * should not be used if this class is used.
  */
 public class VirtualBotManager extends ListenerAdapter {
+    // Defaults for the mailboxes, large enough that only floods of messages are shed
+    public static final int DEFAULT_MAILBOX_CAPACITY = 256;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.COALESCE_GUESSES;
 
-    // All virtual bots are kept in a hash table, ensures at most one bot per guild
-    private HashMap<Guild, VirtualBot> virtualBots;
+    // Sessions idle for this long are evicted, then bots without sessions, and rebuilt the next time they are needed
+    public static final long DEFAULT_IDLE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
 
-    /* Users may choose to use multiple or a single core, whatever works best.
-    All methods in this class have two behaviours; one for multithreading and one for
-    single thread use. The state below is only used if multithreading is true.
-    It would be a good idea to make this class abstract and implement two subclasses; one for
-    single thread use and one for parallel use. */
-    private boolean multithreading;
+    // Names of the threads handling events, followed by their number, so that profilers can tell them apart
+    static final String EXECUTOR_THREAD = "hangman-executor-";
+    static final String WORKER_THREAD = "hangman-worker-";
 
-    // Each virtual bot has a corresponding executor service, if multithreaded
-    private HashMap<VirtualBot, ExecutorService> botExecutors;
+    // The number of guilds listed by messages handled in the metrics
+    private static final int HOT_GUILDS = 10;
 
-    // We maintain n-1 single thread executors, where n is the number of logical threads.
-    private List<ExecutorService> singleThreadExecutors;
+    /* All virtual bots are kept in a concurrent hash table keyed by guild id, ensures at most one bot per guild.
+    JDA may deliver events on several threads at once when sharding, so lookups and creation must be thread safe. */
+    private final StripedLongMap<VirtualBot> virtualBots;
 
-    // Keeps track of what executor to assign to next virtual bot
-    private int execIndex;
+    // Tells which sessions wait for setup details from a user, so private messages only go to the bots that need them
+    private final PendingSetups pendingSetups;
 
+    // All messages from the virtual bots to channels go through here
+    private final OutboundPipeline outbound;
+
+    /* Users may choose to use multiple or a single core, and how to split the work between cores,
+    whatever works best. The executors below are only used by the corresponding dispatch mode. */
+    private final DispatchMode dispatchMode;
+
+    /* In the PINNED_EXECUTORS mode, we maintain n-1 single thread executors, where n is the number of logical
+    threads. Each game session is pinned to the executor given by the hash of the id of its channel. */
+    private List<ThreadPoolExecutor> singleThreadExecutors;
+
+    // In the MAILBOXES mode, all mailboxes share a work-stealing pool of n-1 threads
+    private ForkJoinPool mailboxPool;
+
+    // Bounds the number of queued events per game session, unless single threaded
+    private final int mailboxCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    /* Sessions in the IDLE state keep nothing worth keeping, so they are evicted once they have been idle for a while,
+    and bots are evicted once they have no sessions. Only the ids of evicted guilds are remembered, to tell
+    rehydrated bots apart from bots of new guilds. */
+    private final long idleTtlMillis;
+    private ScheduledExecutorService evictor; // null if nothing is evicted
+    private final StripedLongMap<Boolean> evictedGuilds;
+    private final AtomicLong evictionCount;
+    private final AtomicLong sessionEvictionCount;
+    private final AtomicLong rehydrationCount;
+
+    // Shared by all sessions of the manager, saves their state so that games survive a restart
+    private final Journal journal;
+
+    // Shared by all sessions of the manager, the words picked for random games
+    private final WordIndex words;
+
+    // Shared by all sessions of the manager, drops guesses of users and guilds sending them too fast
+    private final GuessLimiter limiter;
+
+    // Shared by all sessions of the manager, adds up the games which ended for the stats command
+    private final GameStats stats;
+
+    // Shared by all sessions of the manager, resets sessions left waiting for setup details or guesses
+    private final SessionTimeouts timeouts;
+
+    // Shared by all bots, sessions and mailboxes of the manager
+    private final Metrics metrics;
+    private final Metrics.Counter textMessages;
+    private final Metrics.Counter privateMessages;
+    private final Metrics.Histogram eventLatency;
+
+    /**
+     * Creates a new virtual bot manager with mailboxes of the default capacity and overflow policy, which evicts
+     * sessions idle for the default time. It is not recommended to ever instantiate more than one.
+     * @param dispatchMode How to split the work of the virtual bots between threads.
+     * @param metrics Where to record metrics, Metrics.DISABLED to record none.
+     * @param journal Where to save the state of the sessions, Journal.DISABLED to save nothing.
+     * @param words The words of random games, WordIndex.EMPTY to offer none.
+     * @param limiter Tells which guesses to drop, GuessLimiter.DISABLED to drop none.
+     * @param stats Where to count ended games, GameStats.DISABLED to count none.
+     * @param timeouts How long sessions may wait for setup details or guesses, SessionTimeouts.DISABLED to wait
+     *                 forever.
+     */
+    VirtualBotManager(DispatchMode dispatchMode, Metrics metrics, Journal journal, WordIndex words,
+                      GuessLimiter limiter, GameStats stats, SessionTimeouts timeouts) {
+        this(dispatchMode, DEFAULT_MAILBOX_CAPACITY, DEFAULT_OVERFLOW_POLICY, DEFAULT_IDLE_TTL_MILLIS, metrics,
+                journal, words, limiter, stats, timeouts);
+    }
 
     /**
      * Creates a new virtual bot manager. It is not recommended to ever instantiate more than one.
-     * If the multithreading parameter is set to true, the VirtualBotManager will attempt to use one
-     * core per logical thread and split the work between each core.
-     * @param multithreading If true, multiple cores are used. Else, a single thread is used.
+     * @param dispatchMode How to split the work of the virtual bots between threads.
+     * @param mailboxCapacity The maximum number of events queued for a single game session.
+     * @param overflowPolicy What to do with events for a game session whose mailbox is full.
+     * @param idleTtlMillis How long a game session must be idle, in milliseconds, before it is evicted.
+     *                      If not positive, sessions and bots are never evicted.
+     * @param metrics Where to record metrics, Metrics.DISABLED to record none.
+     * @param journal Where to save the state of the sessions, Journal.DISABLED to save nothing.
+     * @param words The words of random games, WordIndex.EMPTY to offer none.
+     * @param limiter Tells which guesses to drop, GuessLimiter.DISABLED to drop none.
+     * @param stats Where to count ended games, GameStats.DISABLED to count none.
+     * @param timeouts How long sessions may wait for setup details or guesses, SessionTimeouts.DISABLED to wait
+     *                 forever.
      */
-    VirtualBotManager(boolean multithreading) {
-        virtualBots = new HashMap<>();
+    VirtualBotManager(DispatchMode dispatchMode, int mailboxCapacity, OverflowPolicy overflowPolicy,
+                      long idleTtlMillis, Metrics metrics, Journal journal, WordIndex words, GuessLimiter limiter,
+                      GameStats stats, SessionTimeouts timeouts) {
+        this.metrics = metrics;
+        this.journal = journal;
+        this.words = words;
+        this.limiter = limiter;
+        this.stats = stats;
+        this.timeouts = timeouts;
+        textMessages = metrics.counter("hangman_messages_received_total{channel=\"text\"}");
+        privateMessages = metrics.counter("hangman_messages_received_total{channel=\"private\"}");
+        eventLatency = metrics.histogram(Mailbox.EVENT_LATENCY);
+        virtualBots = new StripedLongMap<>();
+        pendingSetups = new PendingSetups();
+        outbound = new OutboundPipeline(metrics);
+        this.mailboxCapacity = mailboxCapacity;
+        this.overflowPolicy = overflowPolicy;
 
-        if(Runtime.getRuntime().availableProcessors() > 1) {
-            this.multithreading = multithreading;
+        this.idleTtlMillis = idleTtlMillis;
+        evictedGuilds = new StripedLongMap<>();
+        evictionCount = new AtomicLong();
+        sessionEvictionCount = new AtomicLong();
+        rehydrationCount = new AtomicLong();
+        if (idleTtlMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "hangman-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            // Sweeping a few times per TTL bounds how long past its TTL a session can stay
+            long period = Math.max(1, idleTtlMillis / 4);
+            evictor.scheduleWithFixedDelay(this::evictIdleBots, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        if(cores > 1) {
+            this.dispatchMode = dispatchMode;
         } else {
-            this.multithreading = false; // If there is only one logical thread, we shouldnt waste resources
+            // If there is only one logical thread, we shouldnt waste resources
+            this.dispatchMode = DispatchMode.SINGLE_THREAD;
         }
 
-        if(multithreading) {
-            botExecutors = new HashMap<>();
+        if(this.dispatchMode == DispatchMode.PINNED_EXECUTORS) {
             singleThreadExecutors = new ArrayList<>();
-            int cores = Runtime.getRuntime().availableProcessors();
-            for (int i = 0; i < cores - 1; i++) singleThreadExecutors.add(Executors.newSingleThreadExecutor());
-            execIndex = 0;
+            for (int i = 0; i < cores - 1; i++) {
+                // As Executors.newSingleThreadExecutor, but with a queue the metrics can look at
+                String name = EXECUTOR_THREAD + i;
+                singleThreadExecutors.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), r -> new Thread(r, name)));
+            }
+        } else if (this.dispatchMode == DispatchMode.MAILBOXES) {
+            // Async mode makes each worker take mailboxes first in, first out, which is fairer between sessions
+            mailboxPool = new ForkJoinPool(cores - 1, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName(WORKER_THREAD + t.getPoolIndex());
+                return t;
+            }, null, true);
         }
+
+        if (metrics.isEnabled()) registerMetrics();
     }
 
     /**
      * Receives an event from the event queue and sends it to the appropriate virtual bot. If the message
      * was a text message, it is sent to the corresponding virtual bot. If the message was a DM,
-     * it is sent to the virtual bots of all guilds to which the sender belongs (all mutual guilds).
+     * it is sent to the virtual bots of all guilds with sessions waiting for setup details from the sender, if any.
+     * Guesses are dropped before they are queued for their session if their author or guild is over the limits of the
+     * manager.
      * @param event The event received from the api.
      */
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
         ChannelType t = event.getChannelType();
         if (t == ChannelType.TEXT) {
-            VirtualBot b = safeGetBot(event.getGuild());
-            if(multithreading) {
-                botExecutors.get(b).submit(() -> b.handleMessageEvent(event));
-            } else {
-                b.handleMessageEvent(event);
-            }
+            textMessages.increment();
+            dispatch(event.getGuild().getIdLong(), event);
         } else if (t == ChannelType.PRIVATE) {
-            for(Guild mutualGuild : event.getAuthor().getMutualGuilds()) {
-                VirtualBot b = safeGetBot(mutualGuild);
-                if(multithreading) {
-                    botExecutors.get(b).submit(() -> b.handleMessageEvent(event));
-                } else {
-                    b.handleMessageEvent(event);
+            privateMessages.increment();
+            long[] pending = pendingSetups.sessionsFor(event.getAuthor().getIdLong());
+            if (pending.length == 0) return;
+            // Parsed once, however many sessions are waiting for the details
+            ParsedMessage message = ParsedMessage.parse(event, eventLatency.start());
+            for (int i = 0; i < pending.length; i += 2) {
+                if (isGuildBefore(pending, i)) continue; // the bot already got it for all its sessions
+                // Bots with sessions waiting for setup are never evicted, so there is no need to create one
+                VirtualBot b = virtualBots.get(pending[i]);
+                if (b != null) b.handleMessage(message);
+            }
+        }
+    }
+
+    /**
+     * @return True if any game session has events waiting or being handled on another thread. Always false in the
+     * SINGLE_THREAD mode, where events are handled before onMessageReceived returns.
+     */
+    public boolean hasPendingEvents() {
+        boolean[] pending = {false};
+        virtualBots.forEachValue(b -> pending[0] |= b.hasPendingEvents());
+        return pending[0];
+    }
+
+    /**
+     * Rebuilds the sessions saved in the journal, spreading the work over all cores. Must be called before the
+     * manager receives any event, and before the threads which deliver events are started: the sessions are built
+     * on the threads of the common pool, and their state reaches the threads handling events through the join at
+     * the end of the stream, followed by the start of those threads.
+     * @param saved The sessions read from the journal.
+     * @param sinks Where to send messages to channels and users, found by their ids.
+     * @return The number of sessions restored, excluding those whose game was already over.
+     */
+    int restore(Collection<SavedSession> saved, SinkResolver sinks) {
+        return (int) saved.parallelStream().filter(s -> {
+            try {
+                // A bot may be retired by the evictor after we got it, it is then replaced as soon as it is removed
+                while (true) {
+                    VirtualBot b = safeGetBot(s.guildId);
+                    if (b.restoreSession(s, sinks)) return true;
+                    if (!b.isRetired()) return false;
                 }
+            } catch (RuntimeException e) {
+                System.out.println("Could not restore the session of channel " + s.channelId + ": " + e);
+                return false;
             }
+        }).count();
+    }
+
+    /**
+     * Hands the sessions of some guilds over to another owner, such as another process after its shards were
+     * rebalanced. The bots of the guilds are retired and removed, after the events already posted to them are
+     * handled. Events for the guilds must no longer be sent to this manager, or the guilds get new bots.
+     * @param guilds Tells which guilds to hand over, by id.
+     * @return The sessions of the guilds which were not idle, which the journal of this manager now records as
+     * reset. Pass them to adopt on the new owner.
+     */
+    List<SavedSession> handOff(LongPredicate guilds) {
+        List<SavedSession> saved = new ArrayList<>();
+        virtualBots.forEachValue(b -> {
+            if (!guilds.test(b.getGuildId())) return;
+            saved.addAll(b.handOff());
+            virtualBots.remove(b.getGuildId(), b);
+        });
+        return saved;
+    }
+
+    /**
+     * Takes over sessions handed over by another owner, as restore, and records them in the journal of this
+     * manager. The same conditions as for restore apply to the guilds of the sessions, which must not have received
+     * any events yet.
+     * @param saved The sessions returned by handOff on the previous owner.
+     * @param sinks Where to send messages to channels and users, found by their ids.
+     * @return The number of sessions taken over, excluding those whose game was already over.
+     */
+    int adopt(Collection<SavedSession> saved, SinkResolver sinks) {
+        for (SavedSession s : saved) journal.restored(s);
+        return restore(saved, sinks);
+    }
+
+    /**
+     * Waits until the journal has every state change of the sessions so far on disk.
+     * @return True if the changes are on disk, false if the journal is disabled, closed or failed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    boolean flushJournal() throws InterruptedException {
+        return journal.flush();
+    }
+
+    /**
+     * Tells whether private messages reach this manager. Discord only sends them to the process running shard 0, so
+     * elsewhere games are only started with a random word, since the details of any other game would never arrive.
+     * @param received True if private messages are passed to this manager, which is the default.
+     */
+    void setReceivesPrivateMessages(boolean received) {
+        pendingSetups.setReachable(received);
+    }
+
+    /**
+     * Stops the threads of the manager. Events still waiting may be dropped, so wait until hasPendingEvents returns
+     * false first. Messages held back by the rate limits are dropped. The manager must not receive any events
+     * afterwards.
+     */
+    public void shutdown() {
+        if (evictor != null) evictor.shutdown();
+        if (singleThreadExecutors != null) singleThreadExecutors.forEach(ExecutorService::shutdown);
+        if (mailboxPool != null) mailboxPool.shutdown();
+        outbound.shutdown();
+    }
+
+    /**
+     * @return The number of virtual bots currently kept by this manager.
+     */
+    public int getBotCount() {
+        return virtualBots.size();
+    }
+
+    /**
+     * @return The number of game sessions of all virtual bots currently kept by this manager.
+     */
+    public int getSessionCount() {
+        int[] count = {0};
+        virtualBots.forEachValue(b -> count[0] += b.getSessionCount());
+        return count[0];
+    }
+
+    /**
+     * @return The number of users that guilds are waiting for setup details from.
+     */
+    public int getPendingSetupUserCount() {
+        return pendingSetups.userCount();
+    }
+
+    /**
+     * @return The number of bots evicted for having no sessions since the manager was created.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return The number of game sessions evicted for being idle since the manager was created.
+     */
+    public long getSessionEvictionCount() {
+        return sessionEvictionCount.get();
+    }
+
+    /**
+     * @return The number of bots rebuilt for guilds whose bot had been evicted.
+     */
+    public long getRehydrationCount() {
+        return rehydrationCount.get();
+    }
+
+    /**
+     * Evicts all game sessions in the IDLE state which have not handled an event for the idle TTL of the manager,
+     * and then all bots without sessions. Sessions in the SETUP or PLAYING states are never evicted, and neither are
+     * their bots. Called periodically if the TTL is positive.
+     * @return The number of bots evicted.
+     */
+    int evictIdleBots() {
+        long now = System.currentTimeMillis();
+        int[] evicted = {0};
+        virtualBots.forEachValue(b -> {
+            sessionEvictionCount.addAndGet(b.evictIdleSessions(now, idleTtlMillis));
+            if (b.retireIfEmpty() && virtualBots.remove(b.getGuildId(), b)) {
+                evictedGuilds.computeIfAbsent(b.getGuildId(), id -> Boolean.TRUE);
+                evicted[0]++;
+            }
+        });
+        evictionCount.addAndGet(evicted[0]);
+        return evicted[0];
+    }
+
+    /**
+     * @return The dispatch mode in use, which is single threaded if the system only has one logical thread.
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * @param guildId The id of a guild.
+     * @return The number of events shed for the current sessions of the guild because their mailboxes were full,
+     * 0 if it has no bot.
+     */
+    public long getShedCount(long guildId) {
+        VirtualBot b = virtualBots.get(guildId);
+        return b == null ? 0 : b.getShedCount();
+    }
+
+    /**
+     * @param guildId The id of a guild.
+     * @return The number of guesses for the current sessions of the guild replaced by a newer guess from the same
+     * user.
+     */
+    public long getCoalescedCount(long guildId) {
+        VirtualBot b = virtualBots.get(guildId);
+        return b == null ? 0 : b.getCoalescedCount();
+    }
+
+    // Sends the event to the virtual bot of the guild, which passes it on to the mailbox of a session
+    private void dispatch(long guildId, MessageReceivedEvent event) {
+        ParsedMessage message = ParsedMessage.parse(event, eventLatency.start());
+        VirtualBot b = virtualBots.get(guildId);
+        // Ordinary chat in guilds without a bot is not worth a bot, since there can be no session to play in
+        if (b == null && !message.isCommand()) return;
+        if (b == null) b = safeGetBot(guildId);
+        while (!b.handleMessage(message)) {
+            // The bot was retired after we got it, so replace it with a fresh one
+            virtualBots.remove(guildId, b);
+            b = safeGetBot(guildId);
         }
     }
 
-    // Either sends the bot to the correct virtual bot, or creates a new one if there is no such virtual bot
-    // If multithreading is on and there is no bot, the bot is also assigned to an executor.
-    private VirtualBot safeGetBot(Guild g) {
-        VirtualBot b = virtualBots.get(g);
-        if (b == null) {
-            b = new VirtualBot(g);
-            virtualBots.put(g, b);
-            if(multithreading) {
-                botExecutors.put(b, singleThreadExecutors.get((execIndex++) % singleThreadExecutors.size()));
+    // Either gets the correct virtual bot, or atomically creates a new one if there is no such virtual bot
+    private VirtualBot safeGetBot(long guildId) {
+        VirtualBot b = virtualBots.get(guildId);
+        if (b != null) return b;
+        return virtualBots.computeIfAbsent(guildId, this::createBot);
+    }
+
+    // Only called by the table, at most once per absent guild
+    private VirtualBot createBot(long guildId) {
+        if (evictedGuilds.get(guildId) != null) {
+            evictedGuilds.remove(guildId, Boolean.TRUE);
+            rehydrationCount.incrementAndGet();
+        }
+        return new VirtualBot(guildId, pendingSetups, outbound, metrics, journal, words, limiter, stats, timeouts,
+                s -> new Mailbox(s, executorFor(s.getChannelId()), mailboxCapacity, overflowPolicy, metrics));
+    }
+
+    // Registers the gauges of the manager, and how to find hot guilds and unevenly loaded executors
+    private void registerMetrics() {
+        metrics.gauge("hangman_bots", this::getBotCount);
+        metrics.gauge("hangman_sessions", this::getSessionCount);
+        metrics.gauge("hangman_pending_setup_users", this::getPendingSetupUserCount);
+        metrics.counter("hangman_bot_evictions_total", this::getEvictionCount);
+        metrics.counter("hangman_session_evictions_total", this::getSessionEvictionCount);
+        metrics.counter("hangman_bot_rehydrations_total", this::getRehydrationCount);
+        if (singleThreadExecutors != null) {
+            for (int i = 0; i < singleThreadExecutors.size(); i++) {
+                ThreadPoolExecutor e = singleThreadExecutors.get(i);
+                String label = "{executor=\"" + i + "\"}";
+                metrics.gauge("hangman_executor_queued_mailboxes" + label, () -> e.getQueue().size());
+                metrics.counter("hangman_executor_completed_total" + label, e::getCompletedTaskCount);
             }
         }
-        return b;
+        if (mailboxPool != null) {
+            metrics.gauge("hangman_pool_queued_mailboxes",
+                    () -> mailboxPool.getQueuedSubmissionCount() + mailboxPool.getQueuedTaskCount());
+            metrics.gauge("hangman_pool_active_threads", mailboxPool::getActiveThreadCount);
+            metrics.counter("hangman_pool_steals_total", mailboxPool::getStealCount);
+        }
+        metrics.collector(this::reportQueuedEvents);
+        metrics.collector(this::reportHotGuilds);
+    }
+
+    // The events waiting in mailboxes, per executor in the PINNED_EXECUTORS mode
+    private void reportQueuedEvents(StringBuilder sb) {
+        int executors = singleThreadExecutors == null ? 1 : singleThreadExecutors.size();
+        long[] queued = new long[executors];
+        virtualBots.forEachValue(b -> b.forEachMailbox(m ->
+                queued[executors == 1 ? 0 : executorIndex(m.getSession().getChannelId())] += m.size()));
+        sb.append("# TYPE hangman_queued_events gauge\n");
+        if (singleThreadExecutors == null) {
+            sb.append("hangman_queued_events ").append(queued[0]).append('\n');
+            return;
+        }
+        for (int i = 0; i < executors; i++) {
+            sb.append("hangman_queued_events{executor=\"").append(i).append("\"} ").append(queued[i]).append('\n');
+        }
+    }
+
+    // The guilds whose current bots have handled the most messages
+    private void reportHotGuilds(StringBuilder sb) {
+        VirtualBot[] top = new VirtualBot[HOT_GUILDS];
+        long[] counts = new long[HOT_GUILDS];
+        virtualBots.forEachValue(b -> {
+            long count = b.getMessageCount();
+            // Insertion into the sorted list of the top guilds, which is short
+            int i = HOT_GUILDS;
+            while (i > 0 && (top[i - 1] == null || counts[i - 1] < count)) i--;
+            if (i == HOT_GUILDS) return;
+            System.arraycopy(top, i, top, i + 1, HOT_GUILDS - i - 1);
+            System.arraycopy(counts, i, counts, i + 1, HOT_GUILDS - i - 1);
+            top[i] = b;
+            counts[i] = count;
+        });
+        sb.append("# TYPE hangman_guild_messages_total counter\n");
+        for (int i = 0; i < HOT_GUILDS && top[i] != null; i++) {
+            sb.append("hangman_guild_messages_total{guild=\"").append(Long.toUnsignedString(top[i].getGuildId()))
+                    .append("\"} ").append(counts[i]).append('\n');
+        }
+    }
+
+    // True if the guild of the pair of ids at index i was also in an earlier pair
+    private static boolean isGuildBefore(long[] pairs, int i) {
+        for (int j = 0; j < i; j += 2) if (pairs[j] == pairs[i]) return true;
+        return false;
+    }
+
+    // The executor the mailbox of a session runs on, if any
+    private Executor executorFor(long channelId) {
+        switch (dispatchMode) {
+            case PINNED_EXECUTORS:
+                return singleThreadExecutors.get(executorIndex(channelId));
+            case MAILBOXES:
+                return mailboxPool;
+            default:
+                return null;
+        }
+    }
+
+    // The index of the executor a session is pinned to in the PINNED_EXECUTORS mode
+    private int executorIndex(long channelId) {
+        return (StripedLongMap.hash(channelId) & Integer.MAX_VALUE) % singleThreadExecutors.size();
     }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.PrivateChannel;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+/**
+ * Plays synthetic games through a throwaway VirtualBotManager, so that the classes handling messages are loaded and
+ * their hot methods compiled before the first real message arrives. Every message goes the whole way, from parsing
+ * through the bots, mailboxes, sessions and games to the outbound pipeline, but nothing reaches discord. The manager
+ * is separate from the one handling real events, so no state is shared with real games.
+ *
+ * The fake discord the games are played through is not part of the jar of the bot. It is found at run time in the
+ * jar of the fixtures, if that is on the class path.
+ */
+class WarmupGames {
+    // The fake discord of the fixtures
+    static final String DISCORD_CLASS = "hangman.bot.SyntheticDiscord";
+
+    // Channels played in at once, each with its own host. Enough to keep the executors of the manager busy.
+    private static final int CHANNELS = 64;
+    private static final int GUILDS = 16;
+
+    private static final String[] SENTENCES = {
+            "hangman", "Warming up the bot", "the quick brown fox jumps over the lazy dog", "Ünïcödé wörds"
+    };
+    private static final String LETTERS = "etaoinshrdlucmfwypvbgkqjxz";
+
+    private final Discord discord;
+    private final VirtualBotManager manager;
+    private final TextChannel[] channels;
+    private final User[] hosts;
+    private final User player;
+
+    private WarmupGames(DispatchMode dispatchMode, Discord discord) {
+        this.discord = discord;
+        // Nothing is evicted, the manager is gone before it would matter
+        manager = new VirtualBotManager(dispatchMode, VirtualBotManager.DEFAULT_MAILBOX_CAPACITY,
+                VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, Metrics.DISABLED, Journal.DISABLED, WordIndex.EMPTY,
+                GuessLimiter.DISABLED, GameStats.DISABLED, SessionTimeouts.DISABLED);
+        channels = new TextChannel[CHANNELS];
+        hosts = new User[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            channels[c] = discord.textChannel(discord.guild(c % GUILDS), c);
+            hosts[c] = discord.user(c);
+        }
+        player = discord.user(CHANNELS);
+    }
+
+    /**
+     * @return A new fake discord from the fixtures, or null if the fixtures are not on the class path.
+     */
+    static Discord findDiscord() {
+        try {
+            return (Discord) Class.forName(DISCORD_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Plays the given number of games and waits for all of them to end. Every other game is won.
+     * @param games The number of games to play.
+     * @param dispatchMode The dispatch mode of the manager handling real events, so that the same code is warmed up.
+     * @param discord Where the guilds, channels, users and messages of the games come from.
+     * @return The number of messages the games sent.
+     */
+    static long run(int games, DispatchMode dispatchMode, Discord discord) {
+        WarmupGames w = new WarmupGames(dispatchMode, discord);
+        try {
+            for (int played = 0; played < games; played += CHANNELS) {
+                w.playRound(Math.min(CHANNELS, games - played), played / CHANNELS);
+            }
+        } finally {
+            w.manager.shutdown();
+        }
+        return w.discord.getSentMessages();
+    }
+
+    // Plays one game in each of the first n channels, all at once
+    private void playRound(int n, int round) {
+        for (int c = 0; c < n; c++) send(channels[c], hosts[c], VirtualBot.START_COMMAND);
+        awaitIdle();
+
+        // Setup details are only handled once the sessions wait for them
+        for (int c = 0; c < n; c++) {
+            String details = Game.MAX_ALLOWED_FAILS + " " + SENTENCES[(round + c) % SENTENCES.length];
+            send(discord.privateChannel(hosts[c]), hosts[c], details);
+        }
+        awaitIdle();
+
+        // Guesses after the game has ended are ignored by the session, which is idle again
+        for (int c = 0; c < n; c++) {
+            boolean win = (round + c) % 2 == 0;
+            for (int i = 0; i < (win ? 3 : LETTERS.length()); i++) {
+                send(channels[c], player, String.valueOf(LETTERS.charAt(i)));
+            }
+            for (int i = 0; i <= Game.MAX_ALLOWED_FAILS; i++) {
+                send(channels[c], player, win ? SENTENCES[(round + c) % SENTENCES.length] : "not it " + i);
+            }
+        }
+        awaitIdle();
+    }
+
+    private void send(MessageChannel channel, User author, String content) {
+        manager.onMessageReceived(discord.event(channel, author, content));
+    }
+
+    private void awaitIdle() {
+        while (manager.hasPendingEvents()) Thread.yield();
+    }
+
+    /**
+     * Stand-ins for the discord entities the games are played with, which never reach discord.
+     */
+    interface Discord {
+
+        /**
+         * @param n The number of the guild.
+         * @return A guild with an id depending only on n.
+         */
+        Guild guild(int n);
+
+        /**
+         * @param guild The guild of the channel.
+         * @param n The number of the channel, unique over all guilds.
+         * @return A text channel with an id depending only on n.
+         */
+        TextChannel textChannel(Guild guild, int n);
+
+        /**
+         * @param n The number of the user.
+         * @return A user with an id depending only on n.
+         */
+        User user(int n);
+
+        /**
+         * @param user A user from this discord.
+         * @return The private channel between the bot and the user.
+         */
+        PrivateChannel privateChannel(User user);
+
+        /**
+         * @param channel The text or private channel the message was sent in.
+         * @param author The author of the message.
+         * @param content The raw content of the message.
+         * @return The event of the message being received.
+         */
+        MessageReceivedEvent event(MessageChannel channel, User author, String content);
+
+        /**
+         * @return The number of messages the bot sent to channels or users so far.
+         */
+        long getSentMessages();
+    }
+}
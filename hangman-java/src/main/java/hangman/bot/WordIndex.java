@@ -0,0 +1,268 @@
+package hangman.bot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The words the bot picks from for random games, by length and category. All words are packed into a single char
+ * array, sorted into buckets of words of the same category and length. The length of a word is its number of code
+ * points, as a game counts its letters. The words of a bucket take the same number of chars, the longest of any of
+ * them, with shorter ones padded, so the position of any word follows from its bucket and its number in the bucket,
+ * and no offsets are stored per word. Only words with characters outside the basic plane, such as emoji, differ in
+ * chars from their length, so most buckets have no padding. A word only becomes a String once it is picked.
+ * Immutable, and so thread safe.
+ *
+ * The word list is plain text in UTF-8, with one word or phrase per line. A line [name] starts the words of a
+ * category, words before the first such line are in the category general. Empty lines and lines starting with # are
+ * ignored, as are words longer than MAX_WORD_LENGTH code points. A word may be listed in several categories.
+ */
+class WordIndex {
+    static final String PATH = "hangman-words.txt";
+    static final String DEFAULT_CATEGORY = "general";
+    static final int MAX_WORD_LENGTH = 48;
+
+    /**
+     * An index without words.
+     */
+    static final WordIndex EMPTY = new WordIndex(new char[0], new int[]{0}, new int[0], new int[0],
+            Collections.emptyList());
+
+    // Buckets are laid out by category, then by length. The bucket of category c and length n is c * LENGTHS + n.
+    private static final int LENGTHS = MAX_WORD_LENGTH + 1;
+
+    // Fills the end of a word shorter in chars than the others of its bucket. Words never end with it, being trimmed.
+    private static final char PADDING = '\0';
+
+    private final char[] arena;
+
+    /* The words of bucket b are number firstWord[b] up to but not including firstWord[b + 1] of all words, and
+    their characters start at arenaStart[b], taking widths[b] chars each. */
+    private final int[] firstWord;
+    private final int[] arenaStart;
+    private final int[] widths;
+
+    // Category names in lower case, in the order they first appear in the list
+    private final List<String> categories;
+    private final Map<String, Integer> categoryIds;
+
+    private WordIndex(char[] arena, int[] firstWord, int[] arenaStart, int[] widths, List<String> categories) {
+        this.arena = arena;
+        this.firstWord = firstWord;
+        this.arenaStart = arenaStart;
+        this.widths = widths;
+        this.categories = Collections.unmodifiableList(categories);
+        categoryIds = new HashMap<>();
+        for (int i = 0; i < categories.size(); i++) categoryIds.put(categories.get(i), i);
+    }
+
+    /**
+     * Reads the word list bundled with the bot.
+     * @return The index of the bundled words.
+     * @throws IOException If the list is missing or can not be read.
+     */
+    static WordIndex load() throws IOException {
+        InputStream is = WordIndex.class.getClassLoader().getResourceAsStream(PATH);
+        if (is == null) throw new IOException(PATH + " not found");
+        try (InputStream in = is) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            byte[] buffer = new byte[1 << 16];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) bytes.write(buffer, 0, n);
+            return build(StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes.toByteArray())));
+        }
+    }
+
+    /**
+     * Reads a word list from a file, which is mapped rather than copied, so that large lists load quickly.
+     * @param file The word list.
+     * @return The index of the words in the file.
+     * @throws IOException If the file can not be read.
+     */
+    static WordIndex load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return build(StandardCharsets.UTF_8.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    /* Two passes over the text: the first counts the words of each bucket and finds their width, which gives the
+    layout of the arena, and the second copies each word into the next free place of its bucket. */
+    private static WordIndex build(CharBuffer text) {
+        List<String> categories = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        // Per category, the number of words of each length and the most chars any of them takes
+        List<int[]> counts = new ArrayList<>();
+        List<int[]> maxChars = new ArrayList<>();
+        scan(text, categories, ids, counts, maxChars, null, null, null);
+
+        int buckets = categories.size() * LENGTHS;
+        int[] firstWord = new int[buckets + 1];
+        int[] arenaStart = new int[buckets];
+        int[] widths = new int[buckets];
+        long chars = 0;
+        for (int b = 0; b < buckets; b++) {
+            int count = counts.get(b / LENGTHS)[b % LENGTHS];
+            firstWord[b + 1] = firstWord[b] + count;
+            arenaStart[b] = (int) chars;
+            widths[b] = maxChars.get(b / LENGTHS)[b % LENGTHS];
+            chars += (long) count * widths[b];
+        }
+        if (chars > Integer.MAX_VALUE) throw new IllegalArgumentException("Word list too large");
+
+        // Filled with padding, which the words then overwrite
+        char[] arena = new char[(int) chars];
+        int[] next = arenaStart.clone();
+        scan(text, categories, ids, counts, maxChars, arena, next, widths);
+        return new WordIndex(arena, firstWord, arenaStart, widths, categories);
+    }
+
+    /* Counts the words of each bucket and their widths if arena is null, else copies each word to next[bucket],
+    which is advanced by the width of the bucket */
+    private static void scan(CharBuffer text, List<String> categories, Map<String, Integer> ids,
+                             List<int[]> counts, List<int[]> maxChars, char[] arena, int[] next, int[] widths) {
+        int category = -1;
+        int limit = text.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && text.get(lineEnd) != '\n') lineEnd++;
+            int s = lineStart;
+            int e = lineEnd;
+            lineStart = lineEnd + 1;
+            while (s < e && text.get(s) <= ' ') s++;
+            while (e > s && text.get(e - 1) <= ' ') e--;
+            if (s == e || text.get(s) == '#') continue;
+
+            if (text.get(s) == '[' && text.get(e - 1) == ']') {
+                category = categoryId(text.subSequence(s + 1, e - 1).toString(), categories, ids, counts,
+                        maxChars);
+                continue;
+            }
+            int length = Character.codePointCount(text, s, e);
+            if (length > MAX_WORD_LENGTH) continue;
+            if (category < 0) category = categoryId(DEFAULT_CATEGORY, categories, ids, counts, maxChars);
+            if (arena == null) {
+                counts.get(category)[length]++;
+                maxChars.get(category)[length] = Math.max(maxChars.get(category)[length], e - s);
+            } else {
+                int b = category * LENGTHS + length;
+                int at = next[b];
+                for (int i = s; i < e; i++) arena[at++] = text.get(i);
+                next[b] += widths[b];
+            }
+        }
+    }
+
+    private static int categoryId(String name, List<String> categories, Map<String, Integer> ids,
+                                  List<int[]> counts, List<int[]> maxChars) {
+        String key = name.trim().toLowerCase(Locale.ROOT);
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        ids.put(key, categories.size());
+        categories.add(key);
+        counts.add(new int[LENGTHS]);
+        maxChars.add(new int[LENGTHS]);
+        return categories.size() - 1;
+    }
+
+    /**
+     * @return The number of words in the index.
+     */
+    int size() {
+        return firstWord[firstWord.length - 1];
+    }
+
+    /**
+     * @return The names of all categories, in lower case.
+     */
+    List<String> getCategories() {
+        return categories;
+    }
+
+    /**
+     * @param category The name of a category, in any case.
+     * @return True if the index has a category of the name.
+     */
+    boolean hasCategory(String category) {
+        return categoryIds.containsKey(category.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Picks a word uniformly at random among the words matching the given length and category. The time taken does
+     * not depend on the number of words.
+     * @param length The length of the word in code points, 0 for any length.
+     * @param category The name of the category of the word, in any case, or null for any category.
+     * @param random The source of randomness.
+     * @return The word, or null if no word matches.
+     */
+    String pick(int length, String category, Random random) {
+        if (length < 0 || length > MAX_WORD_LENGTH) return null;
+        int first = 0;
+        int last = categories.size() - 1;
+        if (category != null) {
+            Integer id = categoryIds.get(category.toLowerCase(Locale.ROOT));
+            if (id == null) return null;
+            first = id;
+            last = id;
+        }
+
+        if (length > 0) {
+            // Words of one length are in one bucket per category
+            int total = 0;
+            for (int c = first; c <= last; c++) total += count(c * LENGTHS + length);
+            if (total == 0) return null;
+            int k = random.nextInt(total);
+            for (int c = first; ; c++) {
+                int b = c * LENGTHS + length;
+                if (k < count(b)) return word(b, k);
+                k -= count(b);
+            }
+        }
+
+        // Words of any length in the chosen categories are numbered consecutively
+        int from = firstWord[first * LENGTHS];
+        int to = firstWord[(last + 1) * LENGTHS];
+        if (from == to) return null;
+        int w = from + random.nextInt(to - from);
+        int b = bucketOf(w, first * LENGTHS, (last + 1) * LENGTHS);
+        return word(b, w - firstWord[b]);
+    }
+
+    private int count(int bucket) {
+        return firstWord[bucket + 1] - firstWord[bucket];
+    }
+
+    private String word(int bucket, int k) {
+        int start = arenaStart[bucket] + k * widths[bucket];
+        int end = start + widths[bucket];
+        while (end > start && arena[end - 1] == PADDING) end--;
+        return new String(arena, start, end - start);
+    }
+
+    // The bucket in [from, to) holding word w, found by binary search over the first words of the buckets
+    private int bucketOf(int w, int from, int to) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstWord[mid] <= w) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
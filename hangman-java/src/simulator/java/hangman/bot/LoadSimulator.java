@@ -0,0 +1,302 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays traffic through a VirtualBotManager without a connection to discord, to see how the bot holds up under
+ * a given load on a given machine. The traffic is a trace, either recorded from the real bot by starting it with
+ * -Dhangman.trace=FILE, or generated here: many guilds and users starting games, sending setup details by DM,
+ * guessing, resetting and chatting, all mixed together. Replaying the same trace gives the same messages in the same
+ * order every time, and so a bad hour can be replayed as often as needed.
+ *
+ * The trace is replayed once per dispatch mode, through a fresh manager with the same settings as the bot, and
+ * messages sent by the bot are counted and dropped by a SyntheticDiscord. For each mode, the simulator reports the
+ * throughput, the latency from a message reaching the manager until its session has handled it, and how busy each
+ * thread handling events was. Usage, with optional arguments in brackets:
+ *
+ *     generate FILE [guilds=200] [users=2000] [minutes=1] [seed=1]
+ *     replay FILE [speed=1] [modes=SINGLE_THREAD,PINNED_EXECUTORS,MAILBOXES] [limits=on]
+ *
+ * A speed of 2 replays the trace twice as fast as it was recorded, and a speed of max as fast as possible. At high
+ * speeds, setup details may reach a session before its start command was handled, as they would for a bot that can
+ * not keep up, and most guesses are over the guess limits unless they are turned off with limits=off.
+ */
+public class LoadSimulator {
+    private static final String[] CHAT = {
+            "hi", "lol", "anyone up for a game?", "brb", "that was close", "gg", "what's the word", "nice",
+            "I almost had it", "one more round"
+    };
+    // Guessed in roughly this order, as players would
+    private static final String LETTERS = "EATIONSRHLDCUMFPGWYBVKXJQZ";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: generate FILE [guilds=200] [users=2000] [minutes=1] [seed=1]");
+            System.out.println("       replay FILE [speed=1] [modes=SINGLE_THREAD,PINNED_EXECUTORS,MAILBOXES] "
+                    + "[limits=on]");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Expected name=value, got " + args[i]);
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        if (args[0].equals("generate")) {
+            long count = generate(file, Integer.parseInt(options.getOrDefault("guilds", "200")),
+                    Integer.parseInt(options.getOrDefault("users", "2000")),
+                    Double.parseDouble(options.getOrDefault("minutes", "1")),
+                    Long.parseLong(options.getOrDefault("seed", "1")));
+            System.out.println("Wrote " + count + " messages to " + file);
+        } else if (args[0].equals("replay")) {
+            String speed = options.getOrDefault("speed", "1");
+            replay(Trace.read(file), speed.equals("max") ? 0 : Double.parseDouble(speed),
+                    options.getOrDefault("modes", "SINGLE_THREAD,PINNED_EXECUTORS,MAILBOXES").split(","),
+                    !options.getOrDefault("limits", "on").equals("off"));
+        } else {
+            throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+    }
+
+    /**
+     * Generates a trace of synthetic traffic. Every guild has a chat channel and one to three channels in which games
+     * are played one after another, about half of them with a word picked by the bot. Players guess every second or
+     * so, and now and then a game is reset.
+     * @param file The trace file to write.
+     * @param guilds The number of guilds.
+     * @param users The number of users, each a member of a few random guilds.
+     * @param minutes How long the traffic lasts.
+     * @param seed The seed of the random choices, the same seed giving the same trace.
+     * @return The number of messages written.
+     * @throws IOException If the trace can not be written.
+     */
+    static long generate(Path file, int guilds, int users, double minutes, long seed) throws IOException {
+        Random random = new Random(seed);
+        WordIndex words;
+        try {
+            words = WordIndex.load();
+        } catch (IOException e) {
+            words = WordIndex.EMPTY;
+        }
+        long end = (long) (minutes * 60e6);
+        List<Message> messages = new ArrayList<>();
+        int channel = 0;
+        for (int g = 0; g < guilds; g++) {
+            int[] members = new int[4 + random.nextInt(12)];
+            for (int m = 0; m < members.length; m++) members[m] = random.nextInt(users);
+            // Chat is a message every few seconds
+            int chat = channel++;
+            for (long t = random.nextInt(5000000); t < end; t += 500000 + random.nextInt(5000000)) {
+                messages.add(new Message(t, g, chat, pick(members, random), CHAT[random.nextInt(CHAT.length)]));
+            }
+            for (int c = 1 + random.nextInt(3); c > 0; c--) {
+                int games = channel++;
+                for (long t = random.nextInt(10000000); t < end; ) {
+                    t = playGame(messages, random, words, t, g, games, members);
+                    t += 2000000 + random.nextInt(20000000);
+                }
+            }
+        }
+        messages.sort((a, b) -> Long.compare(a.micros, b.micros));
+        try (TraceWriter writer = new TraceWriter(file)) {
+            for (Message m : messages) {
+                if (m.channel < 0) {
+                    writer.privateMessage(m.micros, m.user, m.content);
+                } else {
+                    writer.text(m.micros, m.guild, m.channel, m.user, m.content);
+                }
+            }
+        }
+        return messages.size();
+    }
+
+    // Adds the messages of one game starting at time t, and returns when it ends
+    private static long playGame(List<Message> messages, Random random, WordIndex words, long t, int guild,
+                                 int channel, int[] members) {
+        int host = pick(members, random);
+        String word = null;
+        if (random.nextBoolean()) {
+            messages.add(new Message(t, guild, channel, host, VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM));
+        } else {
+            messages.add(new Message(t, guild, channel, host, VirtualBot.START_COMMAND));
+            word = words.pick(0, null, random);
+            if (word == null) word = "hangman";
+            t += 1000000 + random.nextInt(3000000);
+            messages.add(new Message(t, -1, -1, host, (3 + random.nextInt(Game.MAX_ALLOWED_FAILS - 2)) + " " + word));
+        }
+        t += 500000;
+        int guesses = 8 + random.nextInt(13);
+        for (int i = 0; i < guesses; i++) {
+            t += 400000 + random.nextInt(1600000);
+            if (random.nextInt(50) == 0) {
+                messages.add(new Message(t, guild, channel, pick(members, random), VirtualBot.RESET_COMMAND));
+                return t;
+            }
+            // Mostly the next likely letter, sometimes any letter
+            int letter = random.nextInt(4) == 0 ? random.nextInt(LETTERS.length()) : Math.min(i, LETTERS.length() - 1);
+            String guess = String.valueOf(LETTERS.charAt(letter));
+            messages.add(new Message(t, guild, channel, pick(members, random),
+                    random.nextBoolean() ? guess.toLowerCase(Locale.ROOT) : guess));
+        }
+        if (word != null && random.nextBoolean()) {
+            t += 400000 + random.nextInt(1600000);
+            messages.add(new Message(t, guild, channel, pick(members, random), word));
+        }
+        return t;
+    }
+
+    private static int pick(int[] members, Random random) {
+        return members[random.nextInt(members.length)];
+    }
+
+    /**
+     * Replays a trace once per dispatch mode, and prints what was measured.
+     * @param trace The messages to replay.
+     * @param speed How many times faster than recorded to replay the trace, 0 for as fast as possible.
+     * @param modes The names of the dispatch modes to replay the trace in.
+     * @param limits True to limit guesses as the bot does, false to let all guesses through.
+     */
+    static void replay(Trace trace, double speed, String[] modes, boolean limits) {
+        System.out.println("Replaying " + trace.size() + " messages over " + trace.getDurationMicros() / 1000000
+                + " s, from " + trace.getUserCount() + " users in " + trace.getGuildCount() + " guilds and "
+                + trace.getChannelCount() + " channels, at " + (speed == 0 ? "full" : speed + " times") + " speed");
+        WordIndex words;
+        try {
+            words = WordIndex.load();
+        } catch (IOException e) {
+            words = WordIndex.EMPTY;
+        }
+        for (String mode : modes) {
+            replay(trace, speed, DispatchMode.valueOf(mode.trim()), words, limits);
+        }
+    }
+
+    private static void replay(Trace trace, double speed, DispatchMode mode, WordIndex words, boolean limits) {
+        // All entities are created before the replay, so that it only measures the bot
+        SyntheticDiscord discord = new SyntheticDiscord();
+        Guild[] guilds = new Guild[trace.getGuildCount()];
+        TextChannel[] channels = new TextChannel[trace.getChannelCount()];
+        User[] users = new User[trace.getUserCount()];
+        MessageChannel[] dms = new MessageChannel[trace.getUserCount()];
+        for (int g = 0; g < guilds.length; g++) guilds[g] = discord.guild(g);
+        for (int u = 0; u < users.length; u++) {
+            users[u] = discord.user(u);
+            dms[u] = discord.privateChannel(users[u]);
+        }
+        for (int i = 0; i < trace.size(); i++) {
+            int c = trace.getChannel(i);
+            if (c >= 0 && channels[c] == null) channels[c] = discord.textChannel(guilds[trace.getGuild(i)], c);
+        }
+
+        Set<Long> before = new HashSet<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) before.add(t.getId());
+        Metrics metrics = new Metrics();
+        // Stats are counted in memory as the bot does, so their cost is part of the replay
+        GameStats stats = new GameStats(metrics);
+        // Likewise the timers of the sessions, which every guess pushes back
+        SessionTimeouts timeouts = new SessionTimeouts(metrics);
+        VirtualBotManager manager = new VirtualBotManager(mode, VirtualBotManager.DEFAULT_MAILBOX_CAPACITY,
+                VirtualBotManager.DEFAULT_OVERFLOW_POLICY, VirtualBotManager.DEFAULT_IDLE_TTL_MILLIS, metrics,
+                Journal.DISABLED, words, limits ? new GuessLimiter(metrics) : GuessLimiter.DISABLED, stats,
+                timeouts);
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+
+        long replayCpu = cpu.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        long first = trace.size() == 0 ? 0 : trace.getMicros(0);
+        long maxLag = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            if (speed > 0) {
+                long due = start + (long) ((trace.getMicros(i) - first) * 1000 / speed);
+                long wait = due - System.nanoTime();
+                // Parking is only precise to tens of microseconds, so the rest is spent yielding
+                if (wait > 200000) LockSupport.parkNanos(wait - 100000);
+                while (due - System.nanoTime() > 0) Thread.yield();
+                maxLag = Math.max(maxLag, System.nanoTime() - due);
+            }
+            User author = users[trace.getUser(i)];
+            MessageChannel channel = trace.isText(i) ? channels[trace.getChannel(i)] : dms[trace.getUser(i)];
+            manager.onMessageReceived(discord.event(channel, author, trace.getContent(i)));
+        }
+        while (manager.hasPendingEvents()) Thread.yield();
+        long wall = System.nanoTime() - start;
+        replayCpu = cpu.getCurrentThreadCpuTime() - replayCpu;
+
+        // The threads of this manager, by name, and how much of the replay they spent working
+        Map<String, Long> busy = new TreeMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            String name = t.getName();
+            if (before.contains(t.getId()) || !(name.startsWith(VirtualBotManager.EXECUTOR_THREAD)
+                    || name.startsWith(VirtualBotManager.WORKER_THREAD) || name.equals(GameStats.THREAD)
+                    || name.equals(TimingWheel.THREAD))) {
+                continue;
+            }
+            busy.put(name, cpu.getThreadCpuTime(t.getId()));
+        }
+
+        // Messages are sent after a short window, so give the last ones time to go out
+        try {
+            Thread.sleep(2 * OutboundPipeline.DEFAULT_WINDOW_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        manager.shutdown();
+        timeouts.shutdown();
+        stats.close();
+
+        Metrics.Histogram latency = metrics.histogram(Mailbox.EVENT_LATENCY);
+        long limited = metrics.counter("hangman_guesses_limited_total{scope=\"user\"}").get()
+                + metrics.counter("hangman_guesses_limited_total{scope=\"guild\"}").get();
+        System.out.println(String.format(Locale.ROOT, "%s: %.2f s, %.0f messages/s, latency p50 %d us, p99 %d us, "
+                        + "%d messages sent, %d shed, %d over the guess limits, lagged behind the trace by up to "
+                        + "%d ms", manager.getDispatchMode(), wall / 1e9, trace.size() / (wall / 1e9),
+                latency.quantileNanos(0.5) / 1000, latency.quantileNanos(0.99) / 1000, discord.getSentMessages(),
+                metrics.counter("hangman_mailbox_shed_total").get(), limited, maxLag / 1000000));
+        StringBuilder threads = new StringBuilder("    busy: replaying thread " + percent(replayCpu, wall));
+        for (Map.Entry<String, Long> e : busy.entrySet()) {
+            threads.append(", ").append(e.getKey()).append(' ').append(percent(e.getValue(), wall));
+        }
+        System.out.println(threads);
+    }
+
+    private static String percent(long cpuNanos, long wallNanos) {
+        return cpuNanos < 0 ? "?" : Math.round(100.0 * cpuNanos / wallNanos) + "%";
+    }
+
+    // A message of a generated trace, to a text channel, or a private message if the channel is -1
+    private static class Message {
+        final long micros;
+        final int guild;
+        final int channel;
+        final int user;
+        final String content;
+
+        Message(long micros, int guild, int channel, int user, String content) {
+            this.micros = micros;
+            this.guild = guild;
+            this.channel = channel;
+            this.user = user;
+            this.content = content;
+        }
+    }
+}
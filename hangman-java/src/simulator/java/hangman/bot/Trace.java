@@ -0,0 +1,219 @@
+package hangman.bot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static hangman.bot.TraceWriter.MAGIC;
+import static hangman.bot.TraceWriter.PRIVATE;
+import static hangman.bot.TraceWriter.TEXT;
+import static hangman.bot.TraceWriter.VERSION;
+
+/**
+ * A recording of the messages received by the bot, in order and with their timing, which the LoadSimulator replays.
+ * A trace is read into memory in full before it is replayed, so reading the file does not disturb the replay. The
+ * format of the file is described by the TraceWriter, which writes it.
+ */
+class Trace {
+    // One entry per message, index i being message number i
+    private final long[] micros; // since the start of the trace
+    private final byte[] kinds;
+    private final int[] guilds; // -1 for private messages
+    private final int[] channels; // -1 for private messages
+    private final int[] users;
+    private final String[] contents;
+    private final int guildCount;
+    private final int channelCount;
+    private final int userCount;
+
+    private Trace(long[] micros, byte[] kinds, int[] guilds, int[] channels, int[] users, String[] contents,
+                  int guildCount, int channelCount, int userCount) {
+        this.micros = micros;
+        this.kinds = kinds;
+        this.guilds = guilds;
+        this.channels = channels;
+        this.users = users;
+        this.contents = contents;
+        this.guildCount = guildCount;
+        this.channelCount = channelCount;
+        this.userCount = userCount;
+    }
+
+    /**
+     * Reads a whole trace. A trace cut short, such as by the bot being killed while recording, is read up to its
+     * last complete record.
+     * @param file The trace file.
+     * @return The messages of the trace.
+     * @throws IOException If the file can not be read or is not a trace.
+     */
+    static Trace read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                Files.newInputStream(file), 1 << 16)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a trace");
+            if (in.readByte() != VERSION) throw new IOException(file + " is a trace of an unknown version");
+
+            int n = 0;
+            long[] micros = new long[1024];
+            byte[] kinds = new byte[1024];
+            int[] guilds = new int[1024];
+            int[] channels = new int[1024];
+            int[] users = new int[1024];
+            String[] contents = new String[1024];
+            List<String> shared = new ArrayList<>();
+            shared.add(null); // content 0 is written in full
+            int guildCount = 0;
+            int channelCount = 0;
+            int userCount = 0;
+            long time = 0;
+            while (true) {
+                try {
+                    int kind = in.read();
+                    if (kind < 0) break;
+                    if (kind != TEXT && kind != PRIVATE) throw new IOException("Unknown record " + kind);
+                    long at = time + readVarLong(in);
+                    int guild = kind == TEXT ? readVarInt(in) : -1;
+                    int channel = kind == TEXT ? readVarInt(in) : -1;
+                    int user = readVarInt(in);
+                    String content = readContent(in, shared);
+                    if (n == micros.length) {
+                        int size = n * 2;
+                        micros = Arrays.copyOf(micros, size);
+                        kinds = Arrays.copyOf(kinds, size);
+                        guilds = Arrays.copyOf(guilds, size);
+                        channels = Arrays.copyOf(channels, size);
+                        users = Arrays.copyOf(users, size);
+                        contents = Arrays.copyOf(contents, size);
+                    }
+                    time = at;
+                    micros[n] = at;
+                    kinds[n] = (byte) kind;
+                    guilds[n] = guild;
+                    channels[n] = channel;
+                    users[n] = user;
+                    contents[n] = content;
+                    n++;
+                    guildCount = Math.max(guildCount, guild + 1);
+                    channelCount = Math.max(channelCount, channel + 1);
+                    userCount = Math.max(userCount, user + 1);
+                } catch (EOFException e) {
+                    break; // the last record is incomplete
+                }
+            }
+            return new Trace(Arrays.copyOf(micros, n), Arrays.copyOf(kinds, n), Arrays.copyOf(guilds, n),
+                    Arrays.copyOf(channels, n), Arrays.copyOf(users, n), Arrays.copyOf(contents, n),
+                    guildCount, channelCount, userCount);
+        } catch (EOFException e) {
+            throw new IOException(file + " is not a trace");
+        }
+    }
+
+    /**
+     * @return The number of messages in the trace.
+     */
+    int size() {
+        return micros.length;
+    }
+
+    /**
+     * @return The time from the first to the last message, in microseconds.
+     */
+    long getDurationMicros() {
+        return micros.length == 0 ? 0 : micros[micros.length - 1] - micros[0];
+    }
+
+    int getGuildCount() {
+        return guildCount;
+    }
+
+    int getChannelCount() {
+        return channelCount;
+    }
+
+    int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return When the message was received, in microseconds since the start of the trace.
+     */
+    long getMicros(int i) {
+        return micros[i];
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return True if the message was sent in a text channel, false if it was a private message.
+     */
+    boolean isText(int i) {
+        return kinds[i] == TEXT;
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return The number of the guild of the message, -1 for a private message.
+     */
+    int getGuild(int i) {
+        return guilds[i];
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return The number of the channel of the message, -1 for a private message.
+     */
+    int getChannel(int i) {
+        return channels[i];
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return The number of the author of the message.
+     */
+    int getUser(int i) {
+        return users[i];
+    }
+
+    /**
+     * @param i The number of a message.
+     * @return The raw content of the message.
+     */
+    String getContent(int i) {
+        return contents[i];
+    }
+
+    private static String readContent(DataInputStream in, List<String> shared) throws IOException {
+        int n = readVarInt(in);
+        if (n == 0) return in.readUTF();
+        if (n < shared.size()) return shared.get(n);
+        if (n != shared.size()) throw new IOException("Content " + n + " used before it was written");
+        String content = in.readUTF();
+        shared.add(content);
+        return content;
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) throw new IOException("Number too large");
+        return (int) value;
+    }
+
+    // Seven bits at a time, lowest first, with the high bit set on all but the last byte
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) return value;
+        }
+        throw new IOException("Malformed number");
+    }
+}
@@ -0,0 +1,200 @@
+package hangman.bot;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the state message of Game with the one of the Game the bot started from, which serialized the whole game
+ * after every guess. The lists of guessed letters and words used to be in the order of a HashSet, and are now in the
+ * order they were guessed, which is the only intended difference.
+ */
+public class GameRendererTest {
+    private static final String[] SENTENCES = {"HANGMAN", "THE QUICK BROWN FOX", "A", "ZZZ TOP", "MISSISSIPPI"};
+
+    @Test
+    public void matchesTheBaselineForGuessesInHashOrder() {
+        // Up to 12 letters from A to O are kept in a HashSet in alphabetical order, so both orders agree
+        String[] guesses = {"A", "B", "HANG", "E", "G", "HANGMEN", "H", "M", "N"};
+        Game game = new Game("HANGMAN GAME", 6);
+        BaselineGame baseline = new BaselineGame("HANGMAN GAME", 6);
+        assertEquals(baseline.displayGameState(), game.displayGameState());
+        for (String guess : guesses) {
+            if (guess.length() == 1) {
+                assertEquals(baseline.guessChar(guess.charAt(0)), game.guessLetter(guess.charAt(0)));
+            } else {
+                assertEquals(baseline.guessWord(guess), game.guessWord(guess));
+            }
+            assertEquals(baseline.displayGameState(), game.displayGameState());
+        }
+        assertTrue(game.isWon());
+    }
+
+    @Test
+    public void differsFromTheBaselineOnlyInTheOrderOfGuesses() {
+        Random random = new Random(7);
+        for (int n = 0; n < 2000; n++) {
+            String sentence = SENTENCES[random.nextInt(SENTENCES.length)];
+            int fails = 1 + random.nextInt(Game.MAX_ALLOWED_FAILS);
+            Game game = new Game(sentence, fails);
+            BaselineGame baseline = new BaselineGame(sentence, fails);
+            // A wrong word guessed again took the baseline past its last frame, which Game no longer does
+            for (int words = 0; !game.isWon() && !game.isLost(); ) {
+                if (random.nextInt(8) == 0) {
+                    String word = random.nextBoolean() ? sentence : "WORD" + words++;
+                    assertEquals(baseline.guessWord(word), game.guessWord(word));
+                } else {
+                    char letter = (char) ('A' + random.nextInt(26));
+                    assertEquals(baseline.guessChar(letter), game.guessLetter(letter));
+                }
+                assertEquals(inAnyOrder(baseline.displayGameState()), inAnyOrder(game.displayGameState()));
+            }
+            assertEquals(baseline.isWon(), game.isWon());
+            assertEquals(baseline.isLost(), game.isLost());
+        }
+    }
+
+    @Test
+    public void rendersTheSameInstanceUntilSomethingChanges() {
+        Game game = new Game("HANGMAN");
+        String state = game.displayGameState();
+        assertSame(state, game.displayGameState());
+        game.guessLetter('A');
+        assertNotSame(state, game.displayGameState());
+    }
+
+    @Test
+    public void movesTheRestOfTheMessageWhenALetterOutsideTheBasicPlaneIsRevealed() {
+        GameRenderer renderer = new GameRenderer(new int[] {'_', '_', ' ', '_'});
+        renderer.addLetter('A');
+        renderer.reveal(0, 0x1F600);
+        renderer.reveal(3, 0x1F40D);
+        renderer.addLetter(0x1F600);
+        renderer.addWord("HI");
+        renderer.reveal(1, 'B');
+        assertEquals("`Status: 😀 B   🐍 `\nGuessed letters: [A, 😀]\nGuessed words: [HI]\nart",
+                renderer.render("art"));
+        renderer.revealAll(new int[] {'C', 'B', ' ', 'D'});
+        assertEquals("`Status: C B   D `\nGuessed letters: [A, 😀]\nGuessed words: [HI]\nnew",
+                renderer.render("new"));
+    }
+
+    // The lines of a state message, with the elements of the lists of guesses sorted
+    private static List<String> inAnyOrder(String state) {
+        List<String> lines = new ArrayList<>(Arrays.asList(state.split("\n", -1)));
+        for (int i = 1; i <= 2; i++) {
+            String line = lines.get(i);
+            int open = line.indexOf('[');
+            String items = line.substring(open + 1, line.length() - 1);
+            List<String> sorted = items.isEmpty() ? new ArrayList<>() : Arrays.asList(items.split(", "));
+            Collections.sort(sorted);
+            lines.set(i, line.substring(0, open) + sorted);
+        }
+        return lines;
+    }
+
+    // The parts of the Game of the baseline which make up its state message, as they were
+    private static class BaselineGame {
+        private static List<String> GRAPHIC_STRINGS;
+
+        private char[] actualString;
+        private char[] displayString;
+
+        private int nrFails;
+        private int failsAllowed;
+        private List<String> currentGraphicStrings;
+        private Set<String> guessedWords;
+        private Set<Character> guessedLetters;
+
+        static {
+            GRAPHIC_STRINGS = new ArrayList<>();
+            InputStream is = BaselineGame.class.getClassLoader().getResourceAsStream(HangmanArt.PATH);
+            Scanner sc = new Scanner(is);
+            int height = Integer.parseInt(sc.nextLine());
+            int length = Integer.parseInt(sc.nextLine());
+            for(int i = 0; i < length; i++) {
+                StringBuilder sb = new StringBuilder();
+                for(int j = 0; j < height; j++) {
+                    sb.append(sc.nextLine());
+                    sb.append(j == height - 1 ? "" : "\n");
+                }
+                GRAPHIC_STRINGS.add(sb.toString());
+            }
+        }
+
+        BaselineGame(String gameString, int failsAllowed) {
+            guessedLetters = new HashSet<>();
+            guessedWords = new HashSet<>();
+            nrFails = 0;
+            this.failsAllowed = failsAllowed;
+            currentGraphicStrings = GRAPHIC_STRINGS.subList(
+                    GRAPHIC_STRINGS.size() - (failsAllowed + 2), GRAPHIC_STRINGS.size());
+            actualString = gameString.toCharArray();
+            displayString = new char[gameString.length()];
+            Arrays.fill(displayString, '_');
+            for(int i = 0; i < actualString.length; i++) {
+                if(actualString[i] == ' ') displayString[i] = ' ';
+            }
+        }
+
+        boolean isWon() {
+            return new String(displayString).equals(new String(actualString));
+        }
+
+        boolean isLost() {
+            return nrFails > failsAllowed;
+        }
+
+        boolean guessChar(char guess) {
+            if(!guessedLetters.add(guess)) {
+                nrFails++;
+                return false;
+            }
+            boolean success = false;
+            for(int i = 0; i < actualString.length; i++) {
+                if (actualString[i] == guess) {
+                    displayString[i] = guess;
+                    success = true;
+                }
+            }
+            nrFails += success ? 0 : 1;
+            return success;
+        }
+
+        boolean guessWord(String guess) {
+            if(!guessedWords.add(guess)) {
+                nrFails++;
+            }
+            boolean success = new String(actualString).equals(guess);
+            if(success) displayString = Arrays.copyOf(actualString, actualString.length);
+            nrFails += success ? 0 : 1;
+            return success;
+        }
+
+        String displayGameState() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("`Status: ").append(formatDisplayString()).append("`\n");
+            sb.append("Guessed letters: ").append(guessedLetters).append('\n');
+            sb.append("Guessed words: ").append(guessedWords).append('\n');
+            return sb.append(currentGraphicStrings.get(nrFails)).toString();
+        }
+
+        private String formatDisplayString() {
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < displayString.length; i++) {
+                sb.append(displayString[i]).append(' ');
+            }
+            return sb.toString();
+        }
+    }
+}
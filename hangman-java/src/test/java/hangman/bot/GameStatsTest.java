@@ -0,0 +1,140 @@
+package hangman.bot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class GameStatsTest {
+    private static final long GUILD = 1;
+    private static final long OTHER_GUILD = 2;
+
+    // Batches are only added up when the tests flush
+    private static final long NEVER = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ranksGuessersByWinsThenCorrectLetters() {
+        GameStats stats = new GameStats(Metrics.DISABLED);
+        try {
+            play(stats, GUILD, true);
+            play(stats, GUILD, false);
+            assertEquals("No games have been played to the end in this server yet.", stats.describe(GUILD));
+            stats.flush();
+            assertEquals("Stats of this server: 2 games, 1 won and 1 lost, 4.0 guesses per game.\n"
+                    + "Best guessers:\n"
+                    + "1. ann: won 1 and lost 1 of 2 games, 4 correct letters, 2.0 guesses per game\n"
+                    + "2. bob: won 0 and lost 1 of 2 games, 0 correct letters, 2.0 guesses per game",
+                    stats.describe(GUILD));
+            assertEquals("No games have been played to the end in this server yet.", stats.describe(OTHER_GUILD));
+        } finally {
+            stats.close();
+        }
+    }
+
+    @Test
+    public void keepsTheStatsAcrossRestarts() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stats.bin");
+        GameStats stats = GameStats.open(file, NEVER, Metrics.DISABLED);
+        play(stats, GUILD, true);
+        stats.flush();
+        play(stats, GUILD, false);
+        play(stats, OTHER_GUILD, true);
+        // Closing adds up the games still waiting
+        stats.close();
+        String guild = stats.describe(GUILD);
+        String otherGuild = stats.describe(OTHER_GUILD);
+
+        GameStats reopened = GameStats.open(file, NEVER, Metrics.DISABLED);
+        try {
+            assertEquals(guild, reopened.describe(GUILD));
+            assertEquals(otherGuild, reopened.describe(OTHER_GUILD));
+            assertTrue(guild, guild.startsWith("Stats of this server: 2 games, 1 won and 1 lost"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void ignoresARecordCutShort() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stats.bin");
+        GameStats stats = GameStats.open(file, NEVER, Metrics.DISABLED);
+        play(stats, GUILD, true);
+        stats.close();
+        long size = Files.size(file);
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            out.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 0, 0});
+        }
+
+        GameStats reopened = GameStats.open(file, NEVER, Metrics.DISABLED);
+        try {
+            assertEquals(stats.describe(GUILD), reopened.describe(GUILD));
+            // Rewritten without it, so that records appended later are read
+            assertEquals(size, Files.size(file));
+            play(reopened, GUILD, false);
+            reopened.flush();
+        } finally {
+            reopened.close();
+        }
+        GameStats again = GameStats.open(file, NEVER, Metrics.DISABLED);
+        try {
+            assertTrue(again.describe(GUILD).startsWith("Stats of this server: 2 games"));
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void rewritesTheStoreOnceMostOfItIsStale() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("stats.bin");
+        GameStats stats = GameStats.open(file, NEVER, Metrics.DISABLED);
+        long largest = 0;
+        for (int i = 0; i < 3000; i++) {
+            play(stats, GUILD, i % 2 == 0);
+            // Each batch appends the totals of the guild and of its two users
+            stats.flush();
+            largest = Math.max(largest, Files.size(file));
+        }
+        stats.close();
+
+        GameStats reopened = GameStats.open(file, NEVER, Metrics.DISABLED);
+        try {
+            assertTrue(reopened.describe(GUILD).startsWith("Stats of this server: 3000 games, 1500 won and 1500 lost"));
+        } finally {
+            reopened.close();
+        }
+        // Opening rewrote the store with only the three live records, and before it held at most 1024 stale ones
+        long record = (Files.size(file) - 4) / 3;
+        assertTrue(largest + " bytes", largest <= 4 + (3 + 1024 + 3) * record);
+        assertTrue(largest + " bytes", largest > 4 + 1000 * record);
+    }
+
+    @Test
+    public void countsNothingWhenDisabled() {
+        play(GameStats.DISABLED, GUILD, true);
+        GameStats.DISABLED.flush();
+        assertFalse(GameStats.DISABLED.isEnabled());
+        assertEquals("No games have been played to the end in this server yet.", GameStats.DISABLED.describe(GUILD));
+    }
+
+    /* A game with two players guessing twice each. Ann finds two letters, and wins if the game is won, while Bob only
+    guesses wrong and never wins. */
+    private static void play(GameStats stats, long guildId, boolean won) {
+        GameTally tally = new GameTally(guildId);
+        tally.guessed(10, "ann", true);
+        tally.guessed(20, "bob", false);
+        tally.guessed(10, "ann", true);
+        tally.guessed(20, "bob", false);
+        tally.ended(won);
+        stats.ended(tally);
+    }
+}
@@ -0,0 +1,68 @@
+package hangman.bot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class GameTest {
+    @Test
+    public void listsGuessedLettersFoldedInTheStateMessage() {
+        Game game = new Game("Crème brûlée", 5);
+        assertTrue(game.guessLetter('e'));
+        assertTrue(game.guessLetter('Û'));
+        assertFalse(game.guessLetter('z'));
+        assertEquals(Arrays.asList("E", "U", "Z"), game.getGuessedLetters());
+        assertTrue(game.displayGameState(), game.displayGameState().contains("Guessed letters: [E, U, Z]\n"));
+    }
+
+    @Test
+    public void guessingAFoldedLetterAgainIsAFail() {
+        Game game = new Game("ÉTÉ", 5);
+        assertTrue(game.guessLetter('e'));
+        assertEquals("É_É", game.getDisplayString());
+        assertFalse(game.guessLetter('É'));
+        assertEquals(4, game.getFailsLeft());
+        assertEquals(Collections.singletonList("E"), game.getGuessedLetters());
+        assertTrue(game.guessLetter('t'));
+        assertTrue(game.isWon());
+    }
+
+    @Test
+    public void foldsLettersWithoutAccentsToUpperCase() {
+        assertEquals('E', Game.fold('é'));
+        assertEquals('E', Game.fold('Ê'));
+        assertEquals('C', Game.fold('ç'));
+        assertEquals('N', Game.fold('ñ'));
+        assertEquals('\u0391', Game.fold('\u03ac')); // Greek alpha with tonos
+        assertEquals('\u0415', Game.fold('\u0451')); // Cyrillic io
+        assertEquals('\u0531', Game.fold('\u0561')); // Armenian ayb, past the end of the table
+        // Letters whose accent is part of the letter, and letters without a case, are kept
+        assertEquals('Ø', Game.fold('ø'));
+        assertEquals('ß', Game.fold('ß'));
+        assertEquals(0x1F600, Game.fold(0x1F600));
+        // Title case letters fold like their upper and lower case
+        assertEquals(Game.fold('\u01c4'), Game.fold('\u01c5'));
+        assertEquals(Game.fold('\u01c4'), Game.fold('\u01c6'));
+    }
+
+    @Test
+    public void foldsEveryLetterLikeItsOtherCase() {
+        // Crosses the end of the table, so letters looked up in it fold like those computed each time
+        for (int c = 0; c < 0x30000; c++) {
+            if (!Character.isLetter(c)) continue;
+            int folded = Game.fold(c);
+            String letter = Integer.toHexString(c);
+            assertEquals(letter, folded, Game.fold(Character.toUpperCase(c)));
+            assertEquals(letter, folded, Game.fold(Character.toLowerCase(c)));
+            assertEquals(letter, folded, Game.fold(folded));
+        }
+    }
+
+    @Test
+    public void foldsNonLettersToThemselves() {
+        for (int c : new int[]{-1, ' ', '0', '!', '_', 0x10FFFF, 0x110000}) assertEquals(c, Game.fold(c));
+    }
+}
@@ -0,0 +1,48 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GatewayProfileTest {
+    @Test
+    public void defaultsToTheLeanProfile() {
+        assertSame(GatewayProfile.LEAN, GatewayProfile.named(null));
+        assertSame(GatewayProfile.LEAN, GatewayProfile.named(""));
+        assertSame(GatewayProfile.LEAN, GatewayProfile.named("verbose"));
+    }
+
+    @Test
+    public void findsProfilesByNameInAnyCase() {
+        assertSame(GatewayProfile.DEFAULT, GatewayProfile.named("default"));
+        assertSame(GatewayProfile.DEFAULT, GatewayProfile.named("Default"));
+        assertSame(GatewayProfile.LEAN, GatewayProfile.named("LEAN"));
+    }
+
+    @Test
+    public void countsEveryEventReceivedFromTheGateway() {
+        Metrics metrics = new Metrics();
+        VirtualBotManager manager = new VirtualBotManager(DispatchMode.SINGLE_THREAD,
+                VirtualBotManager.DEFAULT_MAILBOX_CAPACITY, VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, metrics,
+                Journal.DISABLED, WordIndex.EMPTY, GuessLimiter.DISABLED, GameStats.DISABLED,
+                SessionTimeouts.DISABLED);
+        try {
+            // The second of two processes, which owns the second of two shards
+            ShardRouter router = new ShardRouter(manager, ShardLayout.forProcess(2, 1, 2), null, metrics);
+            SyntheticDiscord discord = new SyntheticDiscord();
+            for (int g = 0; g < 10; g++) {
+                MessageReceivedEvent event = discord.event(discord.textChannel(discord.guild(g), g),
+                        discord.user(g), "hello");
+                // As the api does, every event is first handed to onGenericEvent
+                router.onGenericEvent(event);
+                router.onMessageReceived(event);
+            }
+            assertEquals(10, metrics.counter("hangman_gateway_events_total").get());
+            assertEquals(5, metrics.counter("hangman_messages_not_owned_total").get());
+            assertEquals(5, metrics.counter("hangman_messages_received_total{channel=\"text\"}").get());
+        } finally {
+            manager.shutdown();
+        }
+    }
+}
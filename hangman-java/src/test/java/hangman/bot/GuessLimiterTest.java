@@ -0,0 +1,144 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GuessLimiterTest {
+    // Long enough that no token comes back during a test
+    private static final long NEVER = 3600000;
+
+    @Test
+    public void letsAUserGuessBurstTimesInQuickSuccession() {
+        GuessLimiter limiter = new GuessLimiter(5, NEVER, 100, NEVER, Metrics.DISABLED);
+        for (int i = 0; i < 5; i++) assertTrue(limiter.tryAcquire(1, 10));
+        assertFalse(limiter.tryAcquire(1, 10));
+        // Other users have buckets of their own, in any guild
+        assertTrue(limiter.tryAcquire(2, 10));
+        assertFalse(limiter.tryAcquire(1, 11));
+    }
+
+    @Test
+    public void sharesTheBucketOfAGuildBetweenItsUsers() {
+        Metrics metrics = new Metrics();
+        GuessLimiter limiter = new GuessLimiter(1, NEVER, 3, NEVER, metrics);
+        assertTrue(limiter.tryAcquire(1, 10));
+        // A user over their limit uses none of the tokens of the guild
+        assertFalse(limiter.tryAcquire(1, 10));
+        assertTrue(limiter.tryAcquire(2, 10));
+        assertTrue(limiter.tryAcquire(3, 10));
+        // A user the guild is over its limit for uses up their own token all the same
+        assertFalse(limiter.tryAcquire(4, 10));
+        assertFalse(limiter.tryAcquire(4, 11));
+        assertTrue(limiter.tryAcquire(5, 11));
+        assertEquals(2, metrics.counter("hangman_guesses_limited_total{scope=\"user\"}").get());
+        assertEquals(1, metrics.counter("hangman_guesses_limited_total{scope=\"guild\"}").get());
+    }
+
+    @Test
+    public void givesATokenBackEveryRefillInterval() throws InterruptedException {
+        GuessLimiter limiter = new GuessLimiter(2, 100, 100, 1, Metrics.DISABLED);
+        assertTrue(limiter.tryAcquire(1, 10));
+        assertTrue(limiter.tryAcquire(1, 10));
+        assertFalse(limiter.tryAcquire(1, 10));
+        Thread.sleep(250);
+        // Two tokens came back, and no more than a full bucket
+        assertTrue(limiter.tryAcquire(1, 10));
+        assertTrue(limiter.tryAcquire(1, 10));
+        assertFalse(limiter.tryAcquire(1, 10));
+    }
+
+    @Test
+    public void takesEachTokenOnceUnderContention() throws Exception {
+        GuessLimiter limiter = new GuessLimiter(1000, NEVER, 1000000, NEVER, Metrics.DISABLED);
+        AtomicInteger allowed = new AtomicInteger();
+        StripedLongMapTest.runConcurrently(t -> {
+            for (int i = 0; i < 2000; i++) {
+                if (limiter.tryAcquire(42, 10)) allowed.incrementAndGet();
+                // Users with buckets of their own, which may share slots with the one above
+                assertTrue(limiter.tryAcquire(1000000 + t * 100000L + i, 10));
+            }
+        });
+        assertEquals(1000, allowed.get());
+    }
+
+    @Test
+    public void letsEverythingThroughWhenDisabled() {
+        for (int i = 0; i < 100; i++) assertTrue(GuessLimiter.DISABLED.tryAcquire(1, 10));
+    }
+
+    @Test
+    public void countsOnlyGuessesInChannelsWithAGame() throws IOException {
+        Metrics metrics = new Metrics();
+        VirtualBotManager manager = new VirtualBotManager(DispatchMode.SINGLE_THREAD,
+                VirtualBotManager.DEFAULT_MAILBOX_CAPACITY, VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, metrics,
+                Journal.DISABLED, WordIndex.load(), new GuessLimiter(2, NEVER, 30, NEVER, metrics),
+                GameStats.DISABLED, SessionTimeouts.DISABLED);
+        try {
+            SyntheticDiscord discord = new SyntheticDiscord();
+            Guild guild = discord.guild(0);
+            TextChannel chat = discord.textChannel(guild, 0);
+            TextChannel game = discord.textChannel(guild, 1);
+            User player = discord.user(1);
+            manager.onMessageReceived(discord.event(game, discord.user(0),
+                    VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM));
+
+            // Chat in a channel without a game, and commands, are not guesses
+            for (int i = 0; i < 10; i++) manager.onMessageReceived(discord.event(chat, player, "hello " + i));
+            manager.onMessageReceived(discord.event(game, player, "!hangman-stats"));
+            manager.onMessageReceived(discord.event(game, player, "!hangman-stats"));
+
+            Metrics.Counter letters = metrics.counter("hangman_guesses_total{kind=\"letter\"}");
+            manager.onMessageReceived(discord.event(game, player, "E"));
+            manager.onMessageReceived(discord.event(game, player, "T"));
+            assertEquals(2, letters.get());
+            // Neither are messages without text, such as attachments
+            manager.onMessageReceived(discord.event(game, player, " "));
+            manager.onMessageReceived(discord.event(game, player, "A"));
+            assertEquals(2, letters.get());
+            assertEquals(1, metrics.counter("hangman_guesses_limited_total{scope=\"user\"}").get());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void dropsGuessesOverTheLimitsBeforeTheyAreQueued() throws IOException {
+        // Runs the mailbox only when asked to, so that the events queued can be counted
+        ArrayDeque<Runnable> executor = new ArrayDeque<>();
+        OutboundPipeline outbound = new OutboundPipeline();
+        try {
+            SyntheticDiscord discord = new SyntheticDiscord();
+            Guild guild = discord.guild(0);
+            TextChannel channel = discord.textChannel(guild, 0);
+            VirtualBot bot = new VirtualBot(guild.getIdLong(), new PendingSetups(), outbound, Metrics.DISABLED,
+                    Journal.DISABLED, WordIndex.load(), new GuessLimiter(5, NEVER, 30, NEVER, Metrics.DISABLED),
+                    GameStats.DISABLED, SessionTimeouts.DISABLED,
+                    s -> new Mailbox(s, executor::add, 256, OverflowPolicy.DROP_NEWEST, Metrics.DISABLED));
+            bot.handleMessageEvent(discord.event(channel, discord.user(0),
+                    VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM));
+            while (!executor.isEmpty()) executor.poll().run();
+            Mailbox[] mailbox = new Mailbox[1];
+            bot.forEachMailbox(m -> mailbox[0] = m);
+            assertEquals(GameSession.state.PLAYING, mailbox[0].getSession().getState());
+
+            User spammer = discord.user(1);
+            for (int i = 0; i < 1000; i++) bot.handleMessageEvent(discord.event(channel, spammer, "Q"));
+            assertEquals(5, mailbox[0].size());
+            // Commands are not guesses, and leave room for the guesses of other players
+            bot.handleMessageEvent(discord.event(channel, spammer, "!hangman-stats"));
+            bot.handleMessageEvent(discord.event(channel, discord.user(2), "E"));
+            assertEquals(7, mailbox[0].size());
+            assertEquals(0, mailbox[0].getShedCount());
+        } finally {
+            outbound.shutdown();
+        }
+    }
+}
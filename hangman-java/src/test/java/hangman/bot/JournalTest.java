@@ -0,0 +1,216 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final long GUILD = 1;
+
+    private static final SinkResolver SINKS = new SinkResolver() {
+        @Override
+        public MessageSink channel(long channelId) {
+            return content -> { };
+        }
+
+        @Override
+        public MessageSink user(long userId) {
+            return content -> { };
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversTheSessionsStillRunningWhenReopened() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Journal journal = Journal.open(dir);
+        journal.started(GUILD, 11, 5, "ann");
+        journal.setUp(GUILD, 11, 4, "HELLO WORLD");
+        journal.guessedLetter(GUILD, 11, 'L');
+        journal.guessedWord(GUILD, 11, "HELLO");
+        journal.guessedLetter(GUILD, 11, 0x1F600);
+        journal.started(GUILD, 12, 6, "bob");
+        journal.started(GUILD, 13, 5, "ann");
+        journal.setUp(GUILD, 13, 4, "GONE");
+        journal.reset(GUILD, 13);
+        // A random game started again in the same channel after the first one ended
+        journal.started(GUILD, 14, 0, "");
+        journal.setUp(GUILD, 14, 8, "FIRST");
+        journal.reset(GUILD, 14);
+        journal.started(GUILD, 14, 0, "");
+        journal.setUp(GUILD, 14, 8, "SECOND");
+        journal.close();
+
+        Map<Long, SavedSession> sessions = recover(dir);
+        assertEquals(3, sessions.size());
+        SavedSession playing = sessions.get(11L);
+        assertTrue(playing.isPlaying());
+        assertEquals(5, playing.userId);
+        assertEquals("ann", playing.userName);
+        assertEquals("HELLO WORLD", playing.getSentence());
+        assertEquals(4, playing.getFailsAllowed());
+        assertEquals(Arrays.asList((Object) (int) 'L', "HELLO", 0x1F600), playing.getGuesses());
+        Game game = playing.replay();
+        assertEquals("__LL_ ___L_", game.getDisplayString());
+        assertEquals(2, game.getFailsLeft());
+
+        assertFalse(sessions.get(12L).isPlaying());
+        assertEquals("bob", sessions.get(12L).userName);
+        assertEquals("SECOND", sessions.get(14L).getSentence());
+    }
+
+    @Test
+    public void ignoresARecordCutShortAndGoesOnAfterIt() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Journal journal = Journal.open(dir);
+        journal.started(GUILD, 11, 5, "ann");
+        journal.setUp(GUILD, 11, 4, "HELLO");
+        journal.guessedLetter(GUILD, 11, 'L');
+        journal.guessedLetter(GUILD, 11, 'O');
+        journal.close();
+        Path segment = only(dir, "journal-");
+        try (FileChannel f = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            f.truncate(f.size() - 3);
+        }
+
+        journal = Journal.open(dir);
+        assertEquals(Collections.singletonList((Object) (int) 'L'), journal.takeRecovered().get(0).getGuesses());
+        // Records appended after the damaged end go to a new segment, and are recovered the next time
+        journal.guessedLetter(GUILD, 11, 'H');
+        journal.close();
+        assertEquals(Arrays.asList((Object) (int) 'L', (int) 'H'), recover(dir).get(11L).getGuesses());
+    }
+
+    @Test
+    public void ignoresARecordWhoseChecksumIsWrong() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Journal journal = Journal.open(dir);
+        journal.started(GUILD, 11, 5, "ann");
+        journal.setUp(GUILD, 11, 4, "HELLO");
+        journal.guessedLetter(GUILD, 11, 'L');
+        journal.guessedLetter(GUILD, 11, 'O');
+        journal.close();
+        Path segment = only(dir, "journal-");
+        byte[] bytes = Files.readAllBytes(segment);
+        // The letter of the last record, just before its checksum
+        bytes[bytes.length - 5] ^= 1;
+        Files.write(segment, bytes);
+
+        assertEquals(Collections.singletonList((Object) (int) 'L'), recover(dir).get(11L).getGuesses());
+    }
+
+    @Test
+    public void recoversTheSameSessionsAfterCompactingIntoASnapshot() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        // Small segments, so that they fill up and are compacted while the games go on
+        Journal journal = Journal.open(dir, 512, 1);
+        Map<Long, SavedSession> expected = new HashMap<>();
+        for (int round = 0; round < 20; round++) {
+            for (long channel = 0; channel < 30; channel++) {
+                SavedSession s = expected.get(channel);
+                if (s == null) {
+                    s = new SavedSession(GUILD, channel, channel + 100, "user " + channel);
+                    journal.started(GUILD, channel, s.userId, s.userName);
+                    s.setUp("WORD " + channel, 6);
+                    journal.setUp(GUILD, channel, 6, s.getSentence());
+                    expected.put(channel, s);
+                } else if ((round + channel) % 7 == 0) {
+                    journal.reset(GUILD, channel);
+                    expected.remove(channel);
+                } else if (round % 2 == 0) {
+                    s.guessLetter('A' + round);
+                    journal.guessedLetter(GUILD, channel, 'A' + round);
+                } else {
+                    s.guessWord("GUESS " + round);
+                    journal.guessedWord(GUILD, channel, "GUESS " + round);
+                }
+            }
+        }
+        journal.close();
+        assertEquals(1, files(dir, "snapshot-").size());
+
+        Map<Long, SavedSession> recovered = recover(dir);
+        assertEquals(expected.keySet(), recovered.keySet());
+        for (SavedSession s : expected.values()) {
+            SavedSession r = recovered.get(s.channelId);
+            assertEquals(s.userName, r.userName);
+            assertEquals(s.getSentence(), r.getSentence());
+            assertEquals(s.getGuesses(), r.getGuesses());
+        }
+    }
+
+    @Test
+    public void restoresTheGamesOfTheJournal() throws IOException {
+        SyntheticDiscord discord = new SyntheticDiscord();
+        Guild guild = discord.guild(0);
+        TextChannel running = discord.textChannel(guild, 0);
+        TextChannel won = discord.textChannel(guild, 1);
+        Path dir = folder.getRoot().toPath();
+        Journal journal = Journal.open(dir);
+        journal.started(guild.getIdLong(), running.getIdLong(), 0, "");
+        journal.setUp(guild.getIdLong(), running.getIdLong(), 4, "HELLO");
+        journal.guessedLetter(guild.getIdLong(), running.getIdLong(), 'H');
+        // A game won just before the bot stopped, whose reset was never written
+        journal.started(guild.getIdLong(), won.getIdLong(), 0, "");
+        journal.setUp(guild.getIdLong(), won.getIdLong(), 4, "HI");
+        journal.guessedWord(guild.getIdLong(), won.getIdLong(), "HI");
+        journal.close();
+
+        journal = Journal.open(dir);
+        Metrics metrics = new Metrics();
+        VirtualBotManager manager = new VirtualBotManager(DispatchMode.SINGLE_THREAD,
+                VirtualBotManager.DEFAULT_MAILBOX_CAPACITY, VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, metrics,
+                journal, WordIndex.load(), GuessLimiter.DISABLED, GameStats.DISABLED, SessionTimeouts.DISABLED);
+        try {
+            assertEquals(1, manager.restore(journal.takeRecovered(), SINKS));
+            manager.onMessageReceived(discord.event(running, discord.user(1), "hello"));
+            assertEquals(1, metrics.counter("hangman_games_ended_total{result=\"won\"}").get());
+        } finally {
+            manager.shutdown();
+            journal.close();
+        }
+        // Both games are over, so nothing is left to restore
+        assertTrue(recover(dir).isEmpty());
+    }
+
+    // Opens the journal again and closes it, keyed by channel id
+    private static Map<Long, SavedSession> recover(Path dir) throws IOException {
+        Journal journal = Journal.open(dir);
+        try {
+            return journal.takeRecovered().stream().collect(Collectors.toMap(s -> s.channelId, s -> s));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static List<Path> files(Path dir, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+
+    private static Path only(Path dir, String prefix) throws IOException {
+        List<Path> files = files(dir, prefix);
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+}
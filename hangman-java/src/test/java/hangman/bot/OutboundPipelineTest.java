@@ -0,0 +1,119 @@
+package hangman.bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutboundPipelineTest {
+    private static final int MAX = OutboundPipeline.MAX_MESSAGE_LENGTH;
+
+    private OutboundPipeline pipeline;
+    private BlockingQueue<String> sent;
+
+    @Before
+    public void setUp() {
+        pipeline = new OutboundPipeline(100, 100, 1000, Metrics.DISABLED);
+        sent = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void splitsALongMessageAtItsLastNewlineWithinTheLimit() throws InterruptedException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) sb.append(line(i, 99)).append('\n');
+        String text = sb.toString() + "```";
+        pipeline.send(1, sent::add, text, false);
+
+        List<String> payloads = take(2);
+        assertEquals(20 * 100 - 1, payloads.get(0).length());
+        assertTrue(payloads.get(0).endsWith(line(19, 99)));
+        assertTrue(payloads.get(1).startsWith(line(20, 99)));
+        assertEquals(text, payloads.get(0) + "\n" + payloads.get(1));
+    }
+
+    @Test
+    public void splitsAMessageWithoutNewlinesBetweenCodePoints() throws InterruptedException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MAX - 1; i++) sb.append('x');
+        // An emoji is two chars, the first of which is the last one within the limit
+        String text = sb.appendCodePoint(0x1F600).append("yz").toString();
+        pipeline.send(1, sent::add, text, false);
+
+        List<String> payloads = take(2);
+        assertEquals(MAX - 1, payloads.get(0).length());
+        assertEquals(new String(Character.toChars(0x1F600)) + "yz", payloads.get(1));
+    }
+
+    @Test
+    public void closesACodeBlockSplitInTwoAndOpensItAgain() throws InterruptedException {
+        StringBuilder sb = new StringBuilder("Game state:\n```\n");
+        for (int i = 0; i < 30; i++) sb.append(line(i, 99)).append('\n');
+        String text = sb.append("```\nGuessed letters: []").toString();
+        pipeline.send(1, sent::add, text, false);
+
+        List<String> payloads = take(2);
+        assertTrue(payloads.get(0), payloads.get(0).endsWith(line(18, 99) + "\n```"));
+        assertTrue(payloads.get(1), payloads.get(1).startsWith("```\n" + line(19, 99) + "\n"));
+        assertTrue(payloads.get(1).endsWith(line(29, 99) + "\n```\nGuessed letters: []"));
+        // Every code block is closed, so each payload has an even number of fences
+        for (String payload : payloads) assertEquals(payload, 1, payload.split("```", -1).length % 2);
+    }
+
+    @Test
+    public void sendsTheRestOfASplitStateBeforeANewerState() throws InterruptedException {
+        // One message at a time, so that the rest of the state is still waiting when the newer one comes
+        pipeline.shutdown();
+        pipeline = new OutboundPipeline(100, 1, 300, Metrics.DISABLED);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) sb.append(line(i, 99)).append('\n');
+        String state = sb.toString();
+        pipeline.send(1, sent::add, state, true);
+        String first = sent.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        pipeline.send(1, sent::add, "newer", true);
+
+        assertTrue(state.startsWith(first + "\n"));
+        assertEquals(state.substring(first.length() + 1) + "\nnewer", take(1).get(0));
+    }
+
+    @Test
+    public void joinsShortMessagesWithNewlines() throws InterruptedException {
+        pipeline.send(1, sent::add, line(0, 10), false);
+        pipeline.send(1, sent::add, line(1, 10), false);
+        pipeline.send(1, sent::add, line(2, MAX), false);
+
+        List<String> payloads = take(2);
+        assertEquals(line(0, 10) + "\n" + line(1, 10), payloads.get(0));
+        assertEquals(line(2, MAX), payloads.get(1));
+    }
+
+    private List<String> take(int n) throws InterruptedException {
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String payload = sent.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Only " + i + " payloads were sent", payload);
+            assertTrue(payload.length() <= MAX);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    // A line of the given length which differs between values of i
+    private static String line(int i, int length) {
+        StringBuilder sb = new StringBuilder(Integer.toString(i));
+        while (sb.length() < length) sb.append('-');
+        return sb.toString();
+    }
+}
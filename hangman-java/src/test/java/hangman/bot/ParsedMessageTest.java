@@ -0,0 +1,63 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParsedMessageTest {
+    private final SyntheticDiscord discord = new SyntheticDiscord();
+    private final TextChannel channel = discord.textChannel(discord.guild(0), 0);
+    private final User user = discord.user(1);
+
+    private ParsedMessage parse(String content) {
+        return ParsedMessage.parse(discord.event(channel, user, content));
+    }
+
+    @Test
+    public void readsMessagesWithoutTextAsNoLetter() {
+        assertTrue(parse("").isEmpty());
+        assertEquals(-1, parse("").getUpperCaseLetter());
+        assertTrue(parse(" \n\t ").isEmpty());
+        assertEquals(-1, parse(" \n\t ").getUpperCaseLetter());
+        assertEquals(ParsedMessage.kind.TEXT, parse("   ").getKind());
+        assertFalse(parse(" e ").isEmpty());
+    }
+
+    @Test
+    public void readsASingleLetterInUpperCase() {
+        assertEquals('E', parse("e").getUpperCaseLetter());
+        assertEquals('E', parse("  E ").getUpperCaseLetter());
+        assertEquals('É', parse("é").getUpperCaseLetter());
+        assertEquals('?', parse("?").getUpperCaseLetter());
+        assertEquals(-1, parse("ab").getUpperCaseLetter());
+    }
+
+    @Test
+    public void readsASurrogatePairAsOneLetter() {
+        assertEquals(0x1F600, parse("😀").getUpperCaseLetter());
+        // Deseret small letter long i, whose capital is also outside the basic plane
+        assertEquals(0x10400, parse("𐐨").getUpperCaseLetter());
+        assertEquals(-1, parse("😀😀").getUpperCaseLetter());
+        assertEquals(-1, parse("😀a").getUpperCaseLetter());
+    }
+
+    @Test
+    public void composesALetterFollowedByCombiningMarks() {
+        assertEquals('É', parse("e\u0301").getUpperCaseLetter());
+        assertEquals('Ễ', parse("e\u0302\u0303").getUpperCaseLetter());
+        // Marks which compose into no single code point leave more than one letter
+        assertEquals(-1, parse("q\u0301").getUpperCaseLetter());
+        assertEquals(-1, parse("e\u0301x").getUpperCaseLetter());
+    }
+
+    @Test
+    public void recognisesCommandsByTheirFirstWord() {
+        assertEquals(ParsedMessage.kind.START, parse(" !Hangman-Start random").getKind());
+        assertEquals(ParsedMessage.kind.RESET, parse("!hangman-reset").getKind());
+        assertEquals(ParsedMessage.kind.STATS, parse("!hangman-stats\n").getKind());
+        assertEquals(ParsedMessage.kind.TEXT, parse("!hangman-starter").getKind());
+        assertEquals(ParsedMessage.kind.TEXT, parse("hangman-start").getKind());
+    }
+}
@@ -0,0 +1,202 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs two processes of a bot with four shards in one JVM, each a router in front of its own manager, sharing a
+ * handoff directory. Every event is given to both routers, as if each process ran a gateway of its own shards.
+ */
+public class ShardRouterTest {
+    private static final int SHARDS = 4;
+    private static final int GUILDS = 8; // guild n is on shard n % SHARDS
+
+    private static final SinkResolver SINKS = new SinkResolver() {
+        @Override
+        public MessageSink channel(long channelId) {
+            return content -> { };
+        }
+
+        @Override
+        public MessageSink user(long userId) {
+            return content -> { };
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SyntheticDiscord discord;
+    private Path handoff;
+    private List<VirtualBotManager> managers;
+    private List<Journal> journals;
+
+    @Before
+    public void setUp() throws IOException {
+        discord = new SyntheticDiscord();
+        handoff = folder.newFolder("handoff").toPath();
+        managers = new ArrayList<>();
+        journals = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        for (VirtualBotManager m : managers) m.shutdown();
+        for (Journal j : journals) j.close();
+    }
+
+    @Test
+    public void takesOverTheSessionsOfReleasedShards() throws IOException {
+        VirtualBotManager first = manager(journal("first"));
+        VirtualBotManager second = manager(journal("second"));
+        ShardRouter firstRouter = router(first, 0);
+        ShardRouter secondRouter = router(second, 1);
+        startRandomGames(firstRouter, secondRouter);
+        assertEquals(GUILDS / 2, first.getSessionCount());
+        assertEquals(GUILDS / 2, second.getSessionCount());
+
+        // The second process stops, then the first takes over its shards
+        secondRouter.releaseAll();
+        assertEquals(0, second.getSessionCount());
+        assertEquals(2, handoffFiles().size());
+        assertEquals(GUILDS / 2, firstRouter.rebalance(new ShardLayout(SHARDS, 0, SHARDS - 1), SINKS));
+
+        assertEquals(GUILDS, first.getSessionCount());
+        assertEquals(0, handoffFiles().size());
+        assertTrue(firstRouter.getLayout().ownsGuild(guild(1).getIdLong()));
+    }
+
+    @Test
+    public void keepsTheSessionsTakenOverIfTheJournalCanNotSaveThem() throws IOException {
+        VirtualBotManager first = manager(Journal.DISABLED);
+        VirtualBotManager second = manager(journal("second"));
+        ShardRouter firstRouter = router(first, 0);
+        ShardRouter secondRouter = router(second, 1);
+        startRandomGames(firstRouter, secondRouter);
+
+        secondRouter.releaseAll();
+        List<String> released = handoffFiles();
+        assertEquals(GUILDS / 2, firstRouter.rebalance(new ShardLayout(SHARDS, 0, SHARDS - 1), SINKS));
+        assertEquals(GUILDS, first.getSessionCount());
+
+        // Written again for the next start of the process, and not taken over again meanwhile
+        List<String> kept = handoffFiles();
+        assertEquals(2, kept.size());
+        for (String f : kept) assertFalse(released.contains(f));
+        assertEquals(0, firstRouter.rebalance(new ShardLayout(SHARDS, 0, SHARDS - 1), SINKS));
+        assertEquals(kept, handoffFiles());
+
+        // Handing the shards over replaces them with the sessions as they are now
+        firstRouter.releaseAll();
+        List<String> handedOver = handoffFiles();
+        assertEquals(SHARDS, handedOver.size());
+        for (String f : kept) assertFalse(handedOver.contains(f));
+    }
+
+    @Test
+    public void startsOnlyRandomGamesWithoutPrivateMessages() {
+        VirtualBotManager second = manager(Journal.DISABLED);
+        ShardRouter secondRouter = router(second, 1);
+        Guild guild = guild(2);
+        long sent = discord.getSentMessages();
+
+        secondRouter.onMessageReceived(discord.event(discord.textChannel(guild, 0), discord.user(0),
+                VirtualBot.START_COMMAND));
+        await(second);
+        assertEquals(0, second.getPendingSetupUserCount());
+        // Only the reason is sent, to the channel, and no private message asks for the details
+        awaitSent(sent + 1);
+
+        secondRouter.onMessageReceived(discord.event(discord.textChannel(guild, 1), discord.user(0),
+                VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM));
+        await(second);
+        awaitSent(sent + 2);
+    }
+
+    @Test
+    public void setsUpGamesWithPrivateMessages() {
+        VirtualBotManager first = manager(Journal.DISABLED);
+        ShardRouter firstRouter = router(first, 0);
+        firstRouter.onMessageReceived(discord.event(discord.textChannel(guild(1), 0), discord.user(0),
+                VirtualBot.START_COMMAND));
+        await(first);
+        assertEquals(1, first.getPendingSetupUserCount());
+    }
+
+    // Starts a random game in one channel of every guild
+    private void startRandomGames(ShardRouter... routers) {
+        for (int g = 0; g < GUILDS; g++) {
+            for (ShardRouter r : routers) {
+                r.onMessageReceived(discord.event(discord.textChannel(guild(g), g), discord.user(g),
+                        VirtualBot.START_COMMAND + " " + ParsedMessage.RANDOM));
+            }
+        }
+        for (VirtualBotManager m : managers) await(m);
+    }
+
+    private List<String> handoffFiles() {
+        String[] names = handoff.toFile().list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private Guild guild(int n) {
+        return discord.guild(n);
+    }
+
+    private Journal journal(String name) throws IOException {
+        Journal journal = Journal.open(folder.newFolder(name).toPath());
+        journals.add(journal);
+        return journal;
+    }
+
+    private VirtualBotManager manager(Journal journal) {
+        VirtualBotManager manager = new VirtualBotManager(DispatchMode.SINGLE_THREAD,
+                VirtualBotManager.DEFAULT_MAILBOX_CAPACITY, VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0,
+                Metrics.DISABLED, journal, words(), GuessLimiter.DISABLED, GameStats.DISABLED,
+                SessionTimeouts.DISABLED);
+        managers.add(manager);
+        return manager;
+    }
+
+    // Each of the two processes owns half of the shards
+    private ShardRouter router(VirtualBotManager manager, int process) {
+        return new ShardRouter(manager, ShardLayout.forProcess(SHARDS, process, 2), handoff, Metrics.DISABLED);
+    }
+
+    private static WordIndex words() {
+        try {
+            return WordIndex.load();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Messages are sent once the window of the outbound pipeline is over
+    private void awaitSent(long messages) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (discord.getSentMessages() < messages && System.currentTimeMillis() < deadline) Thread.yield();
+        try {
+            Thread.sleep(2 * OutboundPipeline.DEFAULT_WINDOW_MILLIS);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        assertEquals(messages, discord.getSentMessages());
+    }
+
+    private static void await(VirtualBotManager manager) {
+        while (manager.hasPendingEvents()) Thread.yield();
+    }
+}
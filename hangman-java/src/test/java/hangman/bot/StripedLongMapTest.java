@@ -0,0 +1,118 @@
+package hangman.bot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class StripedLongMapTest {
+    static final int THREADS = 8;
+    private static final int KEYS = 20000;
+
+    // Snowflake-like ids, with the low bits mostly constant, so that the stripes depend on the hash
+    private static long key(int i) {
+        return ((long) i << 22) + 42;
+    }
+
+    @Test
+    public void createsOneValuePerKeyUnderContention() throws Exception {
+        StripedLongMap<Object> map = new StripedLongMap<>();
+        AtomicIntegerArray created = new AtomicIntegerArray(KEYS);
+        Object[][] seen = new Object[THREADS][KEYS];
+        runConcurrently(t -> {
+            // Every thread visits the keys in its own order, so they race for different keys at different times
+            int offset = ThreadLocalRandom.current().nextInt(KEYS);
+            for (int j = 0; j < KEYS; j++) {
+                int i = (j + offset) % KEYS;
+                seen[t][i] = map.computeIfAbsent(key(i), k -> {
+                    created.incrementAndGet(i);
+                    return new Object();
+                });
+            }
+        });
+        assertEquals(KEYS, map.size());
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals("values created for key " + i, 1, created.get(i));
+            for (int t = 0; t < THREADS; t++) assertSame(map.get(key(i)), seen[t][i]);
+        }
+    }
+
+    @Test
+    public void removesOnlyTheExpectedValue() throws Exception {
+        int keys = 512;
+        StripedLongMap<Object> map = new StripedLongMap<>(4, 2);
+        AtomicIntegerArray created = new AtomicIntegerArray(keys);
+        AtomicIntegerArray removed = new AtomicIntegerArray(keys);
+        runConcurrently(t -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int n = 0; n < 200000; n++) {
+                int i = random.nextInt(keys);
+                Object v = map.computeIfAbsent(key(i), k -> {
+                    created.incrementAndGet(i);
+                    return new Object();
+                });
+                // Half the time, retire the value we got, as the manager does with evicted bots
+                if (random.nextBoolean() && map.remove(key(i), v)) removed.incrementAndGet(i);
+            }
+        });
+        int present = 0;
+        for (int i = 0; i < keys; i++) {
+            int live = created.get(i) - removed.get(i);
+            assertTrue("key " + i + " has " + live + " values", live == 0 || live == 1);
+            assertEquals(live == 1, map.get(key(i)) != null);
+            present += live;
+        }
+        assertEquals(present, map.size());
+        int[] visited = {0};
+        map.forEachValue(v -> visited[0]++);
+        assertEquals(present, visited[0]);
+    }
+
+    @Test
+    public void removeKeepsOtherKeysOfTheProbeSequence() {
+        // A single stripe of two slots, grown many times, so that removals shift long probe sequences
+        StripedLongMap<Long> map = new StripedLongMap<>(1, 2);
+        for (int i = 0; i < 1000; i++) map.computeIfAbsent(key(i), k -> k);
+        for (int i = 0; i < 1000; i += 3) assertTrue(map.remove(key(i), map.get(key(i))));
+        assertFalse(map.remove(key(1), Long.valueOf(key(1))));
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 == 0) {
+                assertNull(map.get(key(i)));
+            } else {
+                assertEquals(Long.valueOf(key(i)), map.get(key(i)));
+            }
+        }
+    }
+
+    interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    // Starts the worker on every thread at once and rethrows the first failure
+    static void runConcurrently(Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
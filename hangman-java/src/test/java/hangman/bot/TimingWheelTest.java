@@ -0,0 +1,194 @@
+package hangman.bot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a wheel of 64 slots of 10 milliseconds, so that a turn takes 640 milliseconds. Timers must run once each time
+ * they are due, never before, and never once cancelled, whichever thread arms them and however often.
+ */
+public class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final int SLOTS = 64;
+    private static final long TURN = TICK * SLOTS;
+
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel(TICK, SLOTS, Metrics.DISABLED);
+    }
+
+    @After
+    public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    public void runsATimerOnceWhenDue() throws InterruptedException {
+        Probe p = new Probe();
+        long due = wheel.now() + 50;
+        p.timer.arm(due);
+        p.awaitRuns(1);
+        assertTrue(p.firstRun.get() >= due);
+        Thread.sleep(5 * TICK);
+        assertEquals(1, p.runs.get());
+    }
+
+    @Test
+    public void runsATimerDueLaterThanATurnOnlyOnceItIsDue() throws InterruptedException {
+        Probe p = new Probe();
+        long due = wheel.now() + TURN + TURN / 2;
+        p.timer.arm(due);
+        p.awaitRuns(1);
+        assertTrue(p.firstRun.get() >= due);
+    }
+
+    @Test
+    public void neverRunsACancelledTimer() throws InterruptedException {
+        Probe p = new Probe();
+        p.timer.arm(wheel.now() + 30);
+        p.timer.cancel();
+        Thread.sleep(100);
+        assertEquals(0, p.runs.get());
+        // Dropped from the wheel once its slot is walked
+        awaitEmpty();
+    }
+
+    @Test
+    public void runsAgainWhenArmedAgainAfterRunning() throws InterruptedException {
+        Probe p = new Probe();
+        p.timer.arm(wheel.now() + 20);
+        p.awaitRuns(1);
+        long due = wheel.now() + 20;
+        p.timer.arm(due);
+        p.awaitRuns(2);
+        assertTrue(p.lastRun.get() >= due);
+    }
+
+    @Test
+    public void runsATimerBroughtForwardAtItsNewTime() throws InterruptedException {
+        Probe p = new Probe();
+        p.timer.arm(wheel.now() + 10 * TURN + TURN / 2);
+        // In its slot by now, which is only walked again about half a turn later
+        Thread.sleep(3 * TICK);
+        long due = wheel.now() + 30;
+        p.timer.arm(due);
+        p.awaitRuns(1);
+        assertTrue(p.firstRun.get() >= due);
+        assertTrue(p.firstRun.get() < due + TURN / 4);
+    }
+
+    @Test
+    public void runsATimerPushedBackOnlyAtItsNewTime() throws InterruptedException {
+        Probe p = new Probe();
+        p.timer.arm(wheel.now() + 20);
+        long due = wheel.now() + 200;
+        p.timer.arm(due);
+        p.awaitRuns(1);
+        assertTrue(p.firstRun.get() >= due);
+        Thread.sleep(5 * TICK);
+        assertEquals(1, p.runs.get());
+    }
+
+    @Test
+    public void runsATimerArmedAgainByItsOwnTask() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timer[] timer = new TimingWheel.Timer[1];
+        timer[0] = wheel.newTimer(() -> {
+            if (runs.incrementAndGet() < 5) timer[0].arm(wheel.now() + TICK);
+        });
+        timer[0].arm(wheel.now() + TICK);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (runs.get() < 5 && System.currentTimeMillis() < deadline) Thread.sleep(TICK);
+        Thread.sleep(5 * TICK);
+        assertEquals(5, runs.get());
+    }
+
+    /* Threads arm and cancel their own timers over and over, often for the next few ticks, so that they race with
+    the wheel running and moving the same timers. Then each timer is left cancelled or armed for a time well ahead,
+    and must run for that time exactly once, or never. */
+    @Test
+    public void runsEachTimerForItsLastTimeWhileArmedConcurrently() throws Exception {
+        int perThread = 100;
+        int timers = StripedLongMapTest.THREADS * perThread;
+        AtomicLongArray lastDue = new AtomicLongArray(timers);
+        AtomicLongArray lastRuns = new AtomicLongArray(timers);
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timer[] timer = new TimingWheel.Timer[timers];
+        for (int i = 0; i < timers; i++) {
+            int t = i;
+            lastDue.set(i, Long.MAX_VALUE);
+            timer[i] = wheel.newTimer(() -> {
+                // Runs for earlier times may overlap the last change, but are over long before its time
+                if (wheel.now() >= lastDue.get(t)) {
+                    lastRuns.incrementAndGet(t);
+                    runs.incrementAndGet();
+                }
+            });
+        }
+
+        StripedLongMapTest.runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int round = 0; round < 50; round++) {
+                for (int i = thread * perThread; i < (thread + 1) * perThread; i++) {
+                    if (random.nextInt(4) == 0) {
+                        timer[i].cancel();
+                    } else {
+                        timer[i].arm(wheel.now() + random.nextLong(3 * TICK));
+                    }
+                }
+                Thread.sleep(random.nextInt((int) TICK));
+            }
+            for (int i = thread * perThread; i < (thread + 1) * perThread; i++) {
+                if (i % 2 == 0) {
+                    timer[i].cancel();
+                } else {
+                    long due = wheel.now() + 300 + random.nextLong(100);
+                    lastDue.set(i, due);
+                    timer[i].arm(due);
+                }
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (runs.get() < timers / 2 && System.currentTimeMillis() < deadline) Thread.sleep(TICK);
+        Thread.sleep(TURN);
+        for (int i = 0; i < timers; i++) assertEquals("timer " + i, i % 2, lastRuns.get(i));
+        awaitEmpty();
+    }
+
+    // Cancelled timers are only dropped when their slot is walked, within a turn
+    private void awaitEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (wheel.size() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(TICK);
+        assertEquals(0, wheel.size());
+    }
+
+    // A timer which records when it runs, on the clock of the wheel
+    private final class Probe {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicLong firstRun = new AtomicLong(-1);
+        final AtomicLong lastRun = new AtomicLong(-1);
+        final TimingWheel.Timer timer = wheel.newTimer(() -> {
+            long now = wheel.now();
+            firstRun.compareAndSet(-1, now);
+            lastRun.set(now);
+            runs.incrementAndGet();
+        });
+
+        void awaitRuns(int n) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (runs.get() < n && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals(n, runs.get());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package hangman.bot;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class VirtualBotManagerTest {
+    private static final int GUILDS = 500;
+    private static final int CHANNELS_PER_GUILD = StripedLongMapTest.THREADS;
+
+    @Test
+    public void pinnedExecutorsGiveEachGuildOneBot() throws Exception {
+        dispatchConcurrently(DispatchMode.PINNED_EXECUTORS);
+    }
+
+    @Test
+    public void mailboxesGiveEachGuildOneBot() throws Exception {
+        dispatchConcurrently(DispatchMode.MAILBOXES);
+    }
+
+    @Test
+    public void singleThreadGivesEachGuildOneBot() throws Exception {
+        dispatchConcurrently(DispatchMode.SINGLE_THREAD);
+    }
+
+    /* Starts a game in every channel from several threads at once, while another thread evicts bots. Each thread
+    starts the games of its own channel of every guild, in the same order as the others, so that the threads race to
+    create the bot of each guild. A guild given two bots would lose the sessions of one of them. */
+    private static void dispatchConcurrently(DispatchMode mode) throws Exception {
+        SyntheticDiscord discord = new SyntheticDiscord();
+        VirtualBotManager manager = new VirtualBotManager(mode, VirtualBotManager.DEFAULT_MAILBOX_CAPACITY,
+                VirtualBotManager.DEFAULT_OVERFLOW_POLICY, 0, Metrics.DISABLED, Journal.DISABLED, WordIndex.EMPTY,
+                GuessLimiter.DISABLED, GameStats.DISABLED, SessionTimeouts.DISABLED);
+        Guild[] guilds = new Guild[GUILDS];
+        TextChannel[] channels = new TextChannel[GUILDS * CHANNELS_PER_GUILD];
+        for (int g = 0; g < GUILDS; g++) guilds[g] = discord.guild(g);
+        for (int c = 0; c < channels.length; c++) channels[c] = discord.textChannel(guilds[c / CHANNELS_PER_GUILD], c);
+        User chatter = discord.user(1000000);
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread evictor = new Thread(() -> {
+            while (!done.get()) manager.evictIdleBots();
+        });
+        evictor.start();
+        try {
+            StripedLongMapTest.runConcurrently(t -> {
+                User host = discord.user(t);
+                for (int g = 0; g < GUILDS; g++) {
+                    TextChannel c = channels[g * CHANNELS_PER_GUILD + t];
+                    // Chat creates no bot, commands do
+                    manager.onMessageReceived(discord.event(c, chatter, "hello"));
+                    manager.onMessageReceived(discord.event(c, host, VirtualBot.START_COMMAND));
+                }
+            });
+        } finally {
+            done.set(true);
+            evictor.join();
+        }
+        while (manager.hasPendingEvents()) Thread.yield();
+
+        // Sessions in setup are never evicted, so every channel still has the session its first start created
+        assertEquals(GUILDS, manager.getBotCount());
+        assertEquals(channels.length, manager.getSessionCount());
+        assertEquals(0, manager.evictIdleBots());
+        manager.shutdown();
+    }
+}
@@ -0,0 +1,124 @@
+package hangman.bot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class WordIndexTest {
+    private static final int MAX = WordIndex.MAX_WORD_LENGTH;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsWordsUpToTheLongestLength() throws IOException {
+        String longest = repeat("a", MAX);
+        WordIndex words = index(longest, repeat("b", MAX + 1), "c", "");
+        assertEquals(2, words.size());
+        assertEquals(longest, words.pick(MAX, null, new Random()));
+        assertEquals("c", words.pick(1, null, new Random()));
+        assertNull(words.pick(MAX + 1, null, new Random()));
+        assertNull(words.pick(-1, null, new Random()));
+    }
+
+    @Test
+    public void countsTheLengthOfAWordInCodePoints() throws IOException {
+        String snakes = repeat("🐍", 3);
+        String longest = repeat("🐍", MAX);
+        WordIndex words = index("cat", snakes, "dog", longest, "a🐍b");
+        assertEquals(new HashSet<>(Arrays.asList("cat", snakes, "dog", "a🐍b")), pickAll(words, 3, null));
+        assertNull(words.pick(6, null, new Random()));
+        assertEquals(longest, words.pick(MAX, null, new Random()));
+        assertEquals(5, pickAll(words, 0, null).size());
+    }
+
+    @Test
+    public void picksWithinACategoryWhateverItsCase() throws IOException {
+        WordIndex words = index("apple", "[Animals]", "cat", "horse", "[colours]", "red", "[ANIMALS]", "dog", "red");
+        assertEquals(Arrays.asList(WordIndex.DEFAULT_CATEGORY, "animals", "colours"), words.getCategories());
+        assertTrue(words.hasCategory("Colours"));
+        assertFalse(words.hasCategory("fruit"));
+        assertEquals(new HashSet<>(Arrays.asList("cat", "dog", "horse", "red")), pickAll(words, 0, "animals"));
+        assertEquals(new HashSet<>(Arrays.asList("cat", "dog", "red")), pickAll(words, 3, "aNiMaLs"));
+        assertEquals(new HashSet<>(Arrays.asList("apple")), pickAll(words, 0, WordIndex.DEFAULT_CATEGORY));
+        assertNull(words.pick(0, "fruit", new Random()));
+        assertNull(words.pick(4, "colours", new Random()));
+    }
+
+    @Test
+    public void picksEveryWordOfAnyLengthPastEmptyBuckets() throws IOException {
+        // Most lengths and one whole category have no words, so most buckets are empty
+        String longest = repeat("z", MAX);
+        WordIndex words = index("[none]", "[some]", "a", longest, "[more]", "bb", "[none at the end]");
+        assertEquals(new HashSet<>(Arrays.asList("a", longest, "bb")), pickAll(words, 0, null));
+        assertEquals(new HashSet<>(Arrays.asList("a", longest)), pickAll(words, 0, "some"));
+        assertNull(words.pick(0, "none", new Random()));
+        assertNull(words.pick(0, "none at the end", new Random()));
+        assertNull(index("[none]", "# no words at all").pick(0, null, new Random()));
+        assertNull(WordIndex.EMPTY.pick(0, null, new Random()));
+    }
+
+    @Test
+    public void loadsALargeListFromAFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("words.txt");
+        int count = 300000;
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# Windows line endings and surrounding spaces are trimmed\r\n");
+            for (int i = 0; i < count; i++) {
+                if (i % 100000 == 0) out.write("[part " + i / 100000 + "]\r\n\r\n");
+                out.write("  word" + i + "\r\n");
+            }
+        }
+        WordIndex words = WordIndex.load(file);
+        assertEquals(count, words.size());
+        assertEquals(Arrays.asList("part 0", "part 1", "part 2"), words.getCategories());
+        Set<String> digits = new HashSet<>();
+        for (int i = 0; i < 10; i++) digits.add("word" + i);
+        assertEquals(digits, pickAll(words, 5, "part 0"));
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            String word = words.pick(0, "part 2", random);
+            int n = Integer.parseInt(word.substring(4));
+            assertTrue(word, 200000 <= n && n < count);
+        }
+    }
+
+    @Test
+    public void loadsTheBundledList() throws IOException {
+        WordIndex words = WordIndex.load();
+        assertTrue(words.size() > 0);
+        for (String category : words.getCategories()) assertNotNull(words.pick(0, category, new Random()));
+    }
+
+    private WordIndex index(String... lines) throws IOException {
+        Path file = Files.createTempFile(folder.getRoot().toPath(), "words", ".txt");
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return WordIndex.load(file);
+    }
+
+    // Every word picked in enough draws to find each of a few words
+    private static Set<String> pickAll(WordIndex words, int length, String category) {
+        Random random = new Random(1);
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 1000; i++) picked.add(words.pick(length, category, random));
+        return picked;
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) sb.append(s);
+        return sb.toString();
+    }
+}